@@ -1,4 +1,14 @@
 import esbuild from 'esbuild';
+import { readdir, readFile, rm, writeFile } from 'node:fs/promises';
+import { join, relative } from 'node:path';
+import { promisify } from 'node:util';
+import zlib from 'node:zlib';
+
+const brotli = promisify(zlib.brotliCompress);
+const gzip = promisify(zlib.gzip);
+
+const outdir = 'src/main/resources/static/js';
+const watch = process.argv.includes('--watch');
 
 // Multiple entry points für verschiedene Seiten
 const entryPoints = {
@@ -7,16 +17,64 @@ const entryPoints = {
   confirm: 'src/main/resources/static/ts/pages/confirm.ts',
 };
 
-esbuild
-  .build({
-    entryPoints,
-    bundle: true,
-    format: 'esm',
-    target: 'es2020',
-    outdir: 'src/main/resources/static/js',
-    entryNames: '[name].bundle',
-    sourcemap: true,
-    // Gemeinsame Abhängigkeiten extrahieren (optional, für Code-Sharing)
-    splitting: true,
-  })
-  .catch(() => process.exit(1));
+const options = {
+  entryPoints,
+  bundle: true,
+  format: 'esm',
+  target: 'es2020',
+  outdir,
+  sourcemap: true,
+  // Gemeinsame Abhängigkeiten extrahieren (optional, für Code-Sharing)
+  splitting: true,
+};
+
+// Watch-Modus: feste Namen ohne Manifest, die Views fallen auf <name>.bundle.js zurück
+async function dev() {
+  await rm(outdir, { recursive: true, force: true });
+  const context = await esbuild.context({ ...options, entryNames: '[name].bundle' });
+  await context.watch();
+}
+
+// Build: Dateinamen mit Content-Hash, manifest.json für die Views und vorkomprimierte .br/.gz Varianten
+async function build() {
+  await rm(outdir, { recursive: true, force: true });
+  const result = await esbuild.build({
+    ...options,
+    entryNames: '[name].[hash]',
+    chunkNames: 'chunks/[name].[hash]',
+    metafile: true,
+  });
+
+  const manifest = {};
+  for (const [output, meta] of Object.entries(result.metafile.outputs)) {
+    const entry = Object.keys(entryPoints).find((name) => entryPoints[name] === meta.entryPoint);
+    if (entry) {
+      manifest[entry] = relative(outdir, output).split('\\').join('/');
+    }
+  }
+  await writeFile(join(outdir, 'manifest.json'), JSON.stringify(manifest, null, 2) + '\n');
+
+  for (const file of await listFiles(outdir)) {
+    if (!/\.(js|css)$/.test(file)) {
+      continue;
+    }
+    const content = await readFile(file);
+    const [br, gz] = await Promise.all([
+      brotli(content, { params: { [zlib.constants.BROTLI_PARAM_QUALITY]: 11 } }),
+      gzip(content, { level: 9 }),
+    ]);
+    await writeFile(`${file}.br`, br);
+    await writeFile(`${file}.gz`, gz);
+  }
+}
+
+async function listFiles(dir) {
+  const files = [];
+  for (const entry of await readdir(dir, { withFileTypes: true })) {
+    const path = join(dir, entry.name);
+    files.push(...(entry.isDirectory() ? await listFiles(path) : [path]));
+  }
+  return files;
+}
+
+(watch ? dev() : build()).catch(() => process.exit(1));
@@ -0,0 +1,42 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens N SSE streams from one HttpClient, as a browser with many tabs does, and holds them.
+ * Used by sse-connection-comparison.sh; run as a single-file program:
+ *
+ *   java scripts/SseClients.java http://localhost:5099/mock 200 h2c 20
+ */
+public class SseClients {
+
+    public static void main(String[] args) throws Exception {
+        String base = args[0];
+        int clients = Integer.parseInt(args[1]);
+        HttpClient.Version version = "h2c".equals(args[2]) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1;
+        long holdSeconds = Long.parseLong(args[3]);
+
+        HttpClient client = HttpClient.newBuilder().version(version).build();
+        // the first request upgrades the connection to h2c, the streams after it reuse that connection
+        client.send(
+                HttpRequest.newBuilder(URI.create(base + "/actuator/health")).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger events = new AtomicInteger();
+        for (int i = 0; i < clients; i++) {
+            client.sendAsync(
+                            HttpRequest.newBuilder(URI.create(base + "/fcm/register-sse")).build(),
+                            HttpResponse.BodyHandlers.ofLines())
+                    .thenAccept(response -> {
+                        open.incrementAndGet();
+                        response.body().filter(line -> line.startsWith("data")).forEach(line -> events.incrementAndGet());
+                    });
+        }
+        Thread.sleep(holdSeconds * 1000);
+        System.out.printf("streams open %d, events received %d%n", open.get(), events.get());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,61 @@
+#!/usr/bin/env bash
+# Compares server-side TCP connections, threads and memory for N SSE clients over HTTP/1.1 and h2c.
+#
+#   mvn -Dskip.npm -DskipTests package           -> target/keycloak-push-mfa-extension-simulator.jar
+#   scripts/sse-connection-comparison.sh [clients]
+#
+# Every protocol gets a fresh JVM. Heap is measured after a full GC before the clients connect
+# and while they hold their streams; RSS and threads are read from /proc.
+set -euo pipefail
+
+CLIENTS="${1:-200}"
+PORT="${PORT:-5099}"
+HOLD_SECONDS="${HOLD_SECONDS:-20}"
+JAR="target/keycloak-push-mfa-extension-simulator.jar"
+BASE_URL="http://localhost:${PORT}/mock"
+
+heap_kb() {
+  jcmd "$1" GC.run >/dev/null
+  # sum of the generation (or G1 heap) lines, e.g. "tenured generation   total 64192K, used 42151K"
+  jcmd "$1" GC.heap_info | awk '/ total .*used/ && !/Metaspace/ {for (i = 1; i <= NF; i++) if ($i == "used") {sub("K.*", "", $(i + 1)); kb += $(i + 1)}} END {print kb + 0}'
+}
+
+established() {
+  local port_hex
+  port_hex=$(printf '%04X' "$PORT")
+  awk -v port="$port_hex" 'FNR > 1 && $4 == "01" {split($2, local_address, ":"); if (local_address[2] == port) n++} END {print n + 0}' \
+    /proc/net/tcp /proc/net/tcp6
+}
+
+measure() {
+  local protocol="$1"
+  java -jar "$JAR" --server.port="$PORT" --app.warmup.enabled=false --spring.devtools.restart.enabled=false \
+    >/dev/null 2>&1 &
+  local pid=$!
+  until curl -sf "${BASE_URL}/actuator/health" >/dev/null 2>&1; do
+    sleep 0.2
+  done
+  local heap_before rss_before threads_before
+  heap_before=$(heap_kb "$pid")
+  rss_before=$(awk '/VmRSS/ {print $2}' "/proc/${pid}/status")
+  threads_before=$(ls "/proc/${pid}/task" | wc -l)
+
+  java scripts/SseClients.java "$BASE_URL" "$CLIENTS" "$protocol" "$HOLD_SECONDS" &
+  local clients_pid=$!
+  sleep $((HOLD_SECONDS / 2))
+  local connections heap_after rss_after threads_after
+  connections=$(established)
+  heap_after=$(heap_kb "$pid")
+  rss_after=$(awk '/VmRSS/ {print $2}' "/proc/${pid}/status")
+  threads_after=$(ls "/proc/${pid}/task" | wc -l)
+  wait "$clients_pid" || true
+
+  kill "$pid"
+  wait "$pid" 2>/dev/null || true
+  printf '%-8s %4d clients   TCP connections %4d   threads %3d -> %3d   heap +%6d KB (%.1f KB/client)   RSS +%6d KB\n' \
+    "$protocol" "$CLIENTS" "$connections" "$threads_before" "$threads_after" \
+    $((heap_after - heap_before)) "$(awk -v d=$((heap_after - heap_before)) -v n="$CLIENTS" 'BEGIN {print d / n}')" $((rss_after - rss_before))
+}
+
+measure http1.1
+measure h2c
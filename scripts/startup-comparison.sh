@@ -0,0 +1,53 @@
+#!/usr/bin/env bash
+# Compares startup time and resident memory of the JVM build and the native image.
+#
+#   mvn -Dskip.npm -DskipTests package           -> target/keycloak-push-mfa-extension-simulator.jar
+#   mvn -Pnative -Dskip.npm -DskipTests native:compile -> target/pushmfa-simulator
+#   scripts/startup-comparison.sh [runs]
+#
+# Startup time is taken from the first successful readiness probe, RSS is read from
+# /proc once the application reports ready.
+set -euo pipefail
+
+RUNS="${1:-5}"
+PORT="${PORT:-5099}"
+JAR="target/keycloak-push-mfa-extension-simulator.jar"
+NATIVE="target/pushmfa-simulator"
+READY_URL="http://localhost:${PORT}/mock/actuator/health/readiness"
+
+measure() {
+  local label="$1"
+  shift
+  local total_ms=0 total_rss=0
+  for _ in $(seq "$RUNS"); do
+    local start
+    start=$(date +%s%N)
+    "$@" --server.port="$PORT" --spring.devtools.restart.enabled=false >/dev/null 2>&1 &
+    local pid=$!
+    until curl -sf "$READY_URL" >/dev/null 2>&1; do
+      sleep 0.02
+    done
+    local end
+    end=$(date +%s%N)
+    local rss_kb
+    rss_kb=$(awk '/VmRSS/ {print $2}' "/proc/${pid}/status")
+    kill "$pid"
+    wait "$pid" 2>/dev/null || true
+    total_ms=$((total_ms + (end - start) / 1000000))
+    total_rss=$((total_rss + rss_kb))
+  done
+  printf '%-8s startup %6d ms   RSS %6d MB   (mean of %d runs)\n' \
+    "$label" $((total_ms / RUNS)) $((total_rss / RUNS / 1024)) "$RUNS"
+}
+
+if [[ -f "$JAR" ]]; then
+  measure "jvm" java -jar "$JAR"
+else
+  echo "skipping jvm: $JAR not found"
+fi
+
+if [[ -x "$NATIVE" ]]; then
+  measure "native" "$NATIVE"
+else
+  echo "skipping native: $NATIVE not found"
+fi
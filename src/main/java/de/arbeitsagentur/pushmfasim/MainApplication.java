@@ -1,5 +1,8 @@
 package de.arbeitsagentur.pushmfasim;
 
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import java.io.IOException;
+import java.util.Arrays;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -14,7 +17,12 @@ public class MainApplication {
     private final String appName;
     private final String appVersion;
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && "provision-keys".equals(args[0])) {
+            // generate a device keystore without starting the application
+            DeviceKeyProvisioner.runCommand(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         new SpringApplicationBuilder().sources(MainApplication.class).run(args);
     }
 
@@ -4,10 +4,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.thymeleaf.spring6.SpringTemplateEngine;
 import org.thymeleaf.spring6.view.ThymeleafViewResolver;
 
 @Configuration
+@ImportRuntimeHints(NativeRuntimeHints.class)
 public class AppConfig {
 
     @Bean
@@ -22,6 +24,7 @@ public class AppConfig {
         thymeleafViewResolver.addStaticVariable("basepath", basePath);
         thymeleafViewResolver.addStaticVariable("clientId", clientId);
         thymeleafViewResolver.addStaticVariable("clientSecret", clientSecret);
+        thymeleafViewResolver.addStaticVariable("assets", AssetManifest.load());
         return thymeleafViewResolver;
     }
 }
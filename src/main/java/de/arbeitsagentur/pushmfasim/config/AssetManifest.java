@@ -0,0 +1,54 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * File names of the page bundles written by {@code build.mjs}. {@code npm run build} names them
+ * after their content hash and lists them in {@code static/js/manifest.json}; without a manifest
+ * ({@code npm run dev}) the fixed {@code <entry>.bundle.js} names are used. Views reach it as
+ * {@code assets}, e.g. {@code /js/__${assets.bundle('confirm')}__}.
+ */
+public class AssetManifest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AssetManifest.class);
+    static final String LOCATION = "static/js/manifest.json";
+
+    private final Map<String, String> bundles;
+
+    AssetManifest(Map<String, String> bundles) {
+        this.bundles = Map.copyOf(bundles);
+    }
+
+    public static AssetManifest load() {
+        return load(new ClassPathResource(LOCATION));
+    }
+
+    static AssetManifest load(Resource resource) {
+        if (!resource.exists()) {
+            return new AssetManifest(Map.of());
+        }
+        try (InputStream in = resource.getInputStream()) {
+            Map<String, String> bundles = new ObjectMapper().readValue(in, new TypeReference<>() {});
+            LOG.info("Loaded {} fingerprinted bundles from {}", bundles.size(), resource.getDescription());
+            return new AssetManifest(bundles);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable asset manifest {}: {}", resource.getDescription(), e.getMessage());
+            return new AssetManifest(Map.of());
+        }
+    }
+
+    /**
+     * Returns the file name of the entry's bundle below {@code /js/}.
+     */
+    public String bundle(String entry) {
+        return bundles.getOrDefault(entry, entry + ".bundle.js");
+    }
+}
@@ -0,0 +1,42 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Stream limits of the HTTP/2 connections enabled by {@code server.http2.enabled}. Every open SSE
+ * stream holds one of the {@code max-concurrent-streams} of its connection for its lifetime, so
+ * Tomcat's default of 100 would queue a browser's or load generator's 101st stream behind the
+ * others; {@code max-concurrent-stream-execution} caps the streams of one connection that are
+ * processed at the same time.
+ */
+@Configuration
+public class Http2Config implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+    private final int maxConcurrentStreams;
+    private final int maxConcurrentStreamExecution;
+
+    public Http2Config(
+            @Value("${app.http2.max-concurrent-streams:1000}") int maxConcurrentStreams,
+            @Value("${app.http2.max-concurrent-stream-execution:200}") int maxConcurrentStreamExecution) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.maxConcurrentStreamExecution = maxConcurrentStreamExecution;
+    }
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        // runs after Spring Boot has added the Http2Protocol, a no-op without server.http2.enabled
+        factory.addConnectorCustomizers(connector -> {
+            for (UpgradeProtocol upgradeProtocol : connector.findUpgradeProtocols()) {
+                if (upgradeProtocol instanceof Http2Protocol http2) {
+                    http2.setMaxConcurrentStreams(maxConcurrentStreams);
+                    http2.setMaxConcurrentStreamExecution(maxConcurrentStreamExecution);
+                }
+            }
+        });
+    }
+}
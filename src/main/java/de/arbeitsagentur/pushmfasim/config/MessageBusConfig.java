@@ -0,0 +1,94 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import de.arbeitsagentur.pushmfasim.services.FcmMessageListener;
+import de.arbeitsagentur.pushmfasim.services.LocalMessageBus;
+import de.arbeitsagentur.pushmfasim.services.MessageBus;
+import de.arbeitsagentur.pushmfasim.services.PeerMessageBus;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.UUID;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Selects the FCM fan-out bus. {@code app.bus.type=local} (default) delivers inside this
+ * replica only, {@code peer} additionally relays every message to {@code app.bus.peers}.
+ *
+ * <p>Relay frames go through a client of their own, not the Keycloak {@link RestTemplate}: its
+ * realm routing, proxy and call events are for Keycloak only.
+ */
+@Configuration
+public class MessageBusConfig {
+
+    public static final String RELAY_PATH = "/fcm/bus/relay";
+    public static final String RELAY_SECRET_HEADER = "X-Bus-Secret";
+
+    /**
+     * Connection pool for the relay to the peers, closed with the context.
+     */
+    @Bean
+    public CloseableHttpClient busHttpClient(
+            @Value("${app.bus.max-connections:8}") int maxConnections,
+            @Value("${app.bus.connect-timeout-ms:2000}") long connectTimeoutMs,
+            @Value("${app.bus.response-timeout-ms:5000}") long responseTimeoutMs) {
+        return HttpClientBuilder.create()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxConnections)
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                                .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                                .build())
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                        .build())
+                .build();
+    }
+
+    @Bean
+    public MessageBus messageBus(
+            @Value("${app.bus.type:local}") String type,
+            @Value("${app.bus.peers:}") List<String> peers,
+            @Value("${app.bus.batch-size:64}") int batchSize,
+            @Value("${app.bus.flush-interval-ms:20}") long flushIntervalMs,
+            @Value("${app.bus.max-pending:10000}") int maxPending,
+            @Value("${app.bus.relay-secret:}") String relaySecret,
+            List<FcmMessageListener> listeners,
+            CloseableHttpClient busHttpClient,
+            MeterRegistry meterRegistry) {
+        if (!"peer".equalsIgnoreCase(type)) {
+            return new LocalMessageBus(listeners);
+        }
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(busHttpClient));
+        PeerMessageBus.PeerTransport transport = (peerUrl, frame) -> {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            if (!relaySecret.isEmpty()) {
+                headers.set(RELAY_SECRET_HEADER, relaySecret);
+            }
+            restTemplate.postForEntity(peerUrl + RELAY_PATH, new HttpEntity<>(frame, headers), Void.class);
+        };
+        return new PeerMessageBus(
+                UUID.randomUUID().toString(),
+                peers,
+                batchSize,
+                flushIntervalMs,
+                maxPending,
+                transport,
+                listeners,
+                meterRegistry);
+    }
+}
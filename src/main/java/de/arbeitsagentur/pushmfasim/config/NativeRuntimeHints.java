@@ -0,0 +1,81 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import de.arbeitsagentur.pushmfasim.controller.ConfirmController;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequest;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageResponse;
+import de.arbeitsagentur.pushmfasim.model.FcmTokenResponse;
+import de.arbeitsagentur.pushmfasim.services.DeviceInboxService;
+import de.arbeitsagentur.pushmfasim.services.FcmMessageLog;
+import java.util.List;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * Reachability hints for the GraalVM native image (see the {@code native} Maven profile).
+ * Spring AOT covers the bean graph; this adds what it cannot see: Jackson binding of the
+ * Lombok generated model classes, the nimbus-jose-jwt types built from parsed JSON, and
+ * resources loaded by path (Thymeleaf views under {@code views/}, JWK files, webjars).
+ */
+public class NativeRuntimeHints implements RuntimeHintsRegistrar {
+
+    static final List<Class<?>> JSON_BOUND_TYPES = List.of(
+            FcmMessageRequest.class,
+            FcmMessageRequestMessage.class,
+            FcmMessageNotification.class,
+            FcmMessageData.class,
+            FcmMessageResponse.class,
+            FcmTokenResponse.class,
+            FcmMessageRequest.FcmMessageRequestBuilder.class,
+            FcmMessageRequestMessage.FcmMessageRequestMessageBuilder.class,
+            FcmMessageNotification.FcmMessageNotificationBuilder.class,
+            FcmMessageData.FcmMessageDataBuilder.class,
+            FcmMessageResponse.FcmMessageResponseBuilder.class,
+            FcmTokenResponse.FcmTokenResponseBuilder.class,
+            ConfirmController.ChallengeResponseRequest.class,
+            FcmMessageLog.Entry.class,
+            DeviceInboxService.InboxMessage.class,
+            DeviceInboxService.InboxPage.class);
+
+    static final List<Class<?>> NIMBUS_TYPES = List.of(
+            RSAKey.class,
+            JWSAlgorithm.class,
+            JWSHeader.class,
+            JOSEObjectType.class,
+            JWTClaimsSet.class,
+            SignedJWT.class);
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        MemberCategory[] beanAccess = {
+            MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+            MemberCategory.INVOKE_DECLARED_METHODS,
+            MemberCategory.DECLARED_FIELDS
+        };
+        JSON_BOUND_TYPES.forEach(type -> hints.reflection().registerType(type, beanAccess));
+        NIMBUS_TYPES.forEach(type -> hints.reflection()
+                .registerType(type, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS, MemberCategory.INVOKE_PUBLIC_METHODS));
+        // nimbus parses JSON through its shaded Gson, which instantiates these reflectively
+        hints.reflection()
+                .registerTypeIfPresent(
+                        classLoader,
+                        "com.nimbusds.jose.shaded.gson.internal.LinkedTreeMap",
+                        MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+
+        hints.resources()
+                .registerPattern("views/**")
+                .registerPattern("static/keys/*.json")
+                .registerPattern("keys/*.json")
+                .registerPattern("META-INF/resources/webjars/**")
+                .registerPattern("META-INF/maven/org.webjars/*/pom.properties");
+    }
+}
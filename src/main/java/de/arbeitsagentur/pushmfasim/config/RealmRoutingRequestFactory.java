@@ -0,0 +1,30 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import de.arbeitsagentur.pushmfasim.services.RealmRegistry;
+import java.io.IOException;
+import java.net.URI;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+/**
+ * Sends requests to an admitted realm through that realm's own connection pool, so a slow realm
+ * cannot take the connections of the others. Anything else uses the default request factory.
+ */
+public class RealmRoutingRequestFactory implements ClientHttpRequestFactory {
+
+    private final RealmRegistry realms;
+    private final ClientHttpRequestFactory defaultFactory;
+
+    public RealmRoutingRequestFactory(RealmRegistry realms, ClientHttpRequestFactory defaultFactory) {
+        this.realms = realms;
+        this.defaultFactory = defaultFactory;
+    }
+
+    @Override
+    @SuppressWarnings("null")
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        ClientHttpRequestFactory realmFactory = realms.requestFactory(uri);
+        return (realmFactory != null ? realmFactory : defaultFactory).createRequest(uri, httpMethod);
+    }
+}
@@ -1,5 +1,7 @@
 package de.arbeitsagentur.pushmfasim.config;
 
+import de.arbeitsagentur.pushmfasim.jfr.KeycloakCallInterceptor;
+import de.arbeitsagentur.pushmfasim.services.RealmRegistry;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.routing.DefaultProxyRoutePlanner;
@@ -21,8 +23,12 @@ public class RestTemplateConfig implements RestTemplateCustomizer {
     }
 
     @Bean
-    public RestTemplate restTemplate(RestTemplateBuilder builder) {
-        return builder.customizers(this).build();
+    public RestTemplate restTemplate(RestTemplateBuilder builder, RealmRegistry realms) {
+        RestTemplate restTemplate = builder.additionalCustomizers(this).build();
+        // wrapped before adding interceptors, which would otherwise wrap the factory themselves
+        restTemplate.setRequestFactory(new RealmRoutingRequestFactory(realms, restTemplate.getRequestFactory()));
+        restTemplate.getInterceptors().add(new KeycloakCallInterceptor());
+        return restTemplate;
     }
 
     @SuppressWarnings("null")
@@ -0,0 +1,71 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import java.time.Duration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.CacheControl;
+import org.springframework.web.servlet.config.annotation.ResourceChainRegistration;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.LiteWebJarsResourceResolver;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+/**
+ * Long-lived caching for the UI assets in the {@code prod} profile. Page bundles and chunks under
+ * {@code /js/} already carry a content hash from {@code build.mjs}; stylesheets and webjars get
+ * one from Spring's content version strategy, which the views pick up through {@code @{...}}
+ * links. All three are served as {@code immutable} and prefer the precompressed {@code .br} or
+ * {@code .gz} file next to the resource when the browser accepts it. Other files under
+ * {@code /js/}, such as the fixed {@code <entry>.bundle.js} names used without a manifest, are
+ * revalidated on every use.
+ *
+ * <p>Ordered before Spring Boot's own resource handlers, which then leave {@code /webjars/**}
+ * to this configuration. Everything else, such as {@code /keys/rsa-jwk.json}, keeps the default
+ * handler and its {@code spring.web.resources.cache} settings.
+ */
+@Configuration
+@Profile("prod")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class StaticResourceConfig implements WebMvcConfigurer {
+
+    private static final CacheControl IMMUTABLE =
+            CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+    // <name>.<hash>.js as written by esbuild, the hash being eight base32 characters
+    private static final String HASHED_SCRIPT = "{file:[\\w-]+\\.[A-Z2-7]{8}\\.js}";
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler("/js/" + HASHED_SCRIPT)
+                .addResourceLocations("classpath:/static/js/")
+                .setCacheControl(IMMUTABLE)
+                .resourceChain(true)
+                .addResolver(new EncodedResourceResolver());
+        registry.addResourceHandler("/js/chunks/" + HASHED_SCRIPT)
+                .addResourceLocations("classpath:/static/js/chunks/")
+                .setCacheControl(IMMUTABLE)
+                .resourceChain(true)
+                .addResolver(new EncodedResourceResolver());
+        registry.addResourceHandler("/js/**")
+                .addResourceLocations("classpath:/static/js/")
+                .setCacheControl(CacheControl.noCache())
+                .resourceChain(true)
+                .addResolver(new EncodedResourceResolver());
+        contentVersioned(registry.addResourceHandler("/css/**")
+                .addResourceLocations("classpath:/static/css/")
+                .setCacheControl(IMMUTABLE)
+                .resourceChain(true));
+        contentVersioned(registry.addResourceHandler("/webjars/**")
+                        .addResourceLocations("classpath:/META-INF/resources/webjars/")
+                        .setCacheControl(IMMUTABLE)
+                        .resourceChain(true))
+                .addResolver(new LiteWebJarsResourceResolver());
+    }
+
+    private static ResourceChainRegistration contentVersioned(ResourceChainRegistration chain) {
+        return chain.addResolver(new EncodedResourceResolver())
+                .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
+    }
+}
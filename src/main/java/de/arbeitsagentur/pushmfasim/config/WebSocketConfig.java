@@ -0,0 +1,31 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import de.arbeitsagentur.pushmfasim.services.FcmWebSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    public static final String WEBSOCKET_PATH = "/fcm/ws";
+
+    private final FcmWebSocketHandler handler;
+    private final String[] allowedOriginPatterns;
+
+    public WebSocketConfig(
+            FcmWebSocketHandler handler,
+            @Value("${app.websocket.allowed-origin-patterns:}") String[] allowedOriginPatterns) {
+        this.handler = handler;
+        this.allowedOriginPatterns = allowedOriginPatterns;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // without patterns only same-origin browser connections are accepted
+        registry.addHandler(handler, WEBSOCKET_PATH).setAllowedOriginPatterns(allowedOriginPatterns);
+    }
+}
@@ -0,0 +1,57 @@
+package de.arbeitsagentur.pushmfasim.controller;
+
+import de.arbeitsagentur.pushmfasim.config.MessageBusConfig;
+import de.arbeitsagentur.pushmfasim.services.MessageBus;
+import de.arbeitsagentur.pushmfasim.services.PeerMessageBus;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+
+/**
+ * Receives message batches relayed by peer replicas (see {@link PeerMessageBus}).
+ */
+@Controller
+public class BusRelayController {
+    private static final Logger LOG = LoggerFactory.getLogger(BusRelayController.class);
+
+    @Autowired
+    private MessageBus messageBus;
+
+    @Value("${app.bus.relay-secret:}")
+    private String relaySecret;
+
+    @PostMapping(path = MessageBusConfig.RELAY_PATH, consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Void> relay(
+            @RequestHeader(value = MessageBusConfig.RELAY_SECRET_HEADER, required = false) String secret,
+            @RequestBody byte[] frame) {
+        if (!(messageBus instanceof PeerMessageBus peerMessageBus)) {
+            LOG.warn("Relay frame received but app.bus.type is not 'peer'");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        if (!relaySecret.isEmpty()
+                && (secret == null
+                        || !MessageDigest.isEqual(
+                                relaySecret.getBytes(StandardCharsets.UTF_8),
+                                secret.getBytes(StandardCharsets.UTF_8)))) {
+            LOG.warn("Relay frame rejected: invalid relay secret");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try {
+            peerMessageBus.receive(frame);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Relay frame rejected: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.accepted().build();
+    }
+}
@@ -6,14 +6,31 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTParser;
-import com.nimbusds.jwt.SignedJWT;
+import de.arbeitsagentur.pushmfasim.jfr.JwkLoadEvent;
+import de.arbeitsagentur.pushmfasim.services.ApprovalLatencyTracker;
+import de.arbeitsagentur.pushmfasim.services.AuditLog;
+import de.arbeitsagentur.pushmfasim.services.ConcurrencyLimiter;
+import de.arbeitsagentur.pushmfasim.services.ConcurrencyLimiterRegistry;
+import de.arbeitsagentur.pushmfasim.services.ConfirmDeduplicator;
+import de.arbeitsagentur.pushmfasim.services.ConfirmDeduplicator.Outcome;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import de.arbeitsagentur.pushmfasim.services.InvalidTokenException;
+import de.arbeitsagentur.pushmfasim.services.KeycloakCallPolicy;
+import de.arbeitsagentur.pushmfasim.services.OverloadedException;
+import de.arbeitsagentur.pushmfasim.services.RealmRegistry;
+import de.arbeitsagentur.pushmfasim.services.SigningService;
+import de.arbeitsagentur.pushmfasim.services.TokenVerifier;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,6 +40,7 @@ import org.springframework.core.io.Resource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -31,6 +49,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 @Controller
@@ -40,6 +59,16 @@ public class ConfirmController {
     private static final Logger logger = LoggerFactory.getLogger(ConfirmController.class);
 
     private final RestTemplate restTemplate;
+    private final SigningService signingService;
+    private final ConcurrencyLimiterRegistry concurrencyLimiters;
+    private final ApprovalLatencyTracker approvalLatency;
+    private final ObservationRegistry observationRegistry;
+    private final AuditLog auditLog;
+    private final RealmRegistry realms;
+    private final DeviceKeyProvisioner deviceKeys;
+    private final TokenVerifier tokenVerifier;
+    private final ConfirmDeduplicator confirmations;
+    private final KeycloakCallPolicy keycloakCalls;
 
     @Value("${app.jwk.path:static/keys/rsa-jwk.json}")
     private String jwkPath;
@@ -56,14 +85,36 @@ public class ConfirmController {
     @Value("${app.clientSecret:device-client-secret}")
     private String clientSecret;
 
-    public ConfirmController(RestTemplate restTemplate) {
+    public ConfirmController(
+            RestTemplate restTemplate,
+            SigningService signingService,
+            ConcurrencyLimiterRegistry concurrencyLimiters,
+            ApprovalLatencyTracker approvalLatency,
+            ObservationRegistry observationRegistry,
+            AuditLog auditLog,
+            RealmRegistry realms,
+            DeviceKeyProvisioner deviceKeys,
+            TokenVerifier tokenVerifier,
+            ConfirmDeduplicator confirmations,
+            KeycloakCallPolicy keycloakCalls) {
         this.restTemplate = restTemplate;
+        this.signingService = signingService;
+        this.concurrencyLimiters = concurrencyLimiters;
+        this.approvalLatency = approvalLatency;
+        this.observationRegistry = observationRegistry;
+        this.auditLog = auditLog;
+        this.realms = realms;
+        this.deviceKeys = deviceKeys;
+        this.tokenVerifier = tokenVerifier;
+        this.confirmations = confirmations;
+        this.keycloakCalls = keycloakCalls;
     }
 
     private static final String DEVICE_ALIAS = "-device-alias-";
     private static final String DEVICE_STATIC_ID = "device-static-id";
-    private static final String TOKEN_ENDPOINT = "/protocol/openid-connect/token";
-    private static final String LOGIN_PENDING_ENDPOINT = "/push-mfa/login/pending";
+    private static final String LIMITER_NAME = "confirm-login";
+    private static final String OBSERVATION_NAME = "simulator.confirm";
+    private static final String AUDIT_FLOW = "confirm";
 
     @GetMapping
     public String showInfoPage() {
@@ -81,21 +132,56 @@ public class ConfirmController {
             @RequestParam(required = false) String iamUrl)
             throws Exception {
 
-        logger.info("Starting confirm login process");
-
-        if (iamUrl == null || iamUrl.isEmpty()) {
-            iamUrl = defaultIamUrl;
+        long startNanos = System.nanoTime();
+        Map<String, String> audit = new LinkedHashMap<>();
+        int status = 500;
+        try {
+            ResponseEntity<String> response = confirmLogin(token, context, action, userVerification, iamUrl, audit);
+            status = response.getStatusCode().value();
+            if (!response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                audit.put("error", abbreviate(response.getBody()));
+            }
+            return response;
+        } catch (OverloadedException e) {
+            status = 503;
+            throw e;
+        } finally {
+            auditLog.record(AUDIT_FLOW, status, startNanos, audit);
         }
-        logger.debug("Using IAM URL: {}", iamUrl);
+    }
+
+    @SuppressWarnings("null")
+    private ResponseEntity<String> confirmLogin(
+            String token,
+            String context,
+            String action,
+            String userVerification,
+            String iamUrl,
+            Map<String, String> audit)
+            throws Exception {
+
+        logger.debug("Starting confirm login process");
+
+        RealmRegistry.Realm realm = realms.realm(iamUrl == null || iamUrl.isEmpty() ? defaultIamUrl : iamUrl);
+        logger.debug("Using IAM URL: {}", realm.url());
 
         // Parse and validate token
         JWT jwt = JWTParser.parse(token);
+        try {
+            tokenVerifier.verify(realm, jwt);
+        } catch (InvalidTokenException e) {
+            logger.warn("Rejecting confirm token: {}", e.getMessage());
+            return ResponseEntity.status(401).body("Invalid token: " + e.getMessage());
+        }
         JWTClaimsSet claims = jwt.getJWTClaimsSet();
 
         String challengeId = claims.getClaims().containsKey("cid") ? claims.getStringClaim("cid") : null;
         String credentialId = claims.getClaims().containsKey("credId") ? claims.getStringClaim("credId") : null;
         String tokenUserVerification =
                 claims.getClaims().containsKey("userVerification") ? claims.getStringClaim("userVerification") : null;
+        if (challengeId != null) {
+            audit.put("challengeId", challengeId);
+        }
 
         if (challengeId == null || credentialId == null) {
             logger.warn("Invalid token: missing required claims");
@@ -105,6 +191,7 @@ public class ConfirmController {
         String effectiveAction =
                 (action != null && !action.trim().isEmpty()) ? action.trim().toLowerCase() : "approve";
         String effectiveUserVerification = firstNonBlank(userVerification, tokenUserVerification, context);
+        audit.put("action", effectiveAction);
 
         logger.debug(
                 "Extracted claims - challengeId: {}, credentialId: {}, action: {}, userVerification: {}",
@@ -120,123 +207,243 @@ public class ConfirmController {
             return ResponseEntity.badRequest().body("Unable to extract user id from credential id");
         }
         logger.debug("Successfully extracted userId: {} from credentialId", userId);
+        audit.put("userId", userId);
+
+        // duplicates of a confirm in flight or just answered share its result and take no limiter slot
+        return confirmations.execute(realm.url(), challengeId, effectiveAction, effectiveUserVerification, () -> {
+            try (ConcurrencyLimiter.Permit permit = concurrencyLimiters.acquire(LIMITER_NAME)) {
+                Outcome outcome =
+                        respond(realm, challengeId, credentialId, userId, effectiveAction, effectiveUserVerification);
+                permit.record(outcome.response().getStatusCode().value());
+                return outcome;
+            }
+        });
+    }
 
+    @SuppressWarnings("null")
+    private Outcome respond(
+            RealmRegistry.Realm realm,
+            String challengeId,
+            String credentialId,
+            String userId,
+            String effectiveAction,
+            String effectiveUserVerification)
+            throws Exception {
         try {
             // Load JWK keys
-            ObjectMapper objectMapper = new ObjectMapper();
-
-            // Versuche zuerst vom Dateisystem zu laden (für K8s-Deployment mit volumeMount)
-            Resource jwkResource;
-            try {
-                jwkResource = new FileSystemResource(jwkPath);
-                if (!jwkResource.exists()) {
-                    // Fallback auf Classpath für lokale Entwicklung
-                    jwkResource = new ClassPathResource("static/keys/rsa-jwk.json");
+            RSAKey privateJwk = phase("load-key", () -> loadPrivateJwk(credentialId));
+            logger.debug("JWK loaded successfully with key ID: {}", privateJwk.getKeyID());
+
+            // Access tokens are DPoP-bound to the device key, so one token serves every proof signed with it
+            String keyThumbprint = privateJwk.computeThumbprint().toString();
+            String accessToken = realm.cachedAccessToken(keyThumbprint);
+            boolean cachedToken = accessToken != null;
+            while (true) {
+                if (accessToken == null) {
+                    accessToken = requestAccessToken(realm, credentialId, privateJwk, keyThumbprint);
+                }
+                if (accessToken == null) {
+                    logger.warn("Failed to obtain access token from: {}", realm.tokenEndpoint());
+                    return Outcome.transientFailure(ResponseEntity.status(401).body("Failed to obtain access token"));
+                }
+                try {
+                    return respondWithToken(
+                            realm,
+                            challengeId,
+                            credentialId,
+                            userId,
+                            effectiveAction,
+                            effectiveUserVerification,
+                            privateJwk,
+                            accessToken);
+                } catch (AccessTokenRejectedException e) {
+                    // Keycloak restarted, the session was revoked or its keys rotated
+                    realm.evictAccessToken(keyThumbprint, accessToken);
+                    if (!cachedToken) {
+                        logger.warn("Access token rejected by {}", e.getMessage());
+                        return Outcome.transientFailure(
+                                ResponseEntity.status(401).body("Access token rejected"));
+                    }
+                    logger.info("Cached access token rejected by {}, requesting a new one", e.getMessage());
+                    accessToken = null;
+                    cachedToken = false;
                 }
-            } catch (Exception e) {
-                // Fallback auf Classpath
-                jwkResource = new ClassPathResource("static/keys/rsa-jwk.json");
             }
+        } catch (OverloadedException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error during confirm login process", e);
+            return Outcome.transientFailure(ResponseEntity.status(500).body("Error: " + e.getMessage()));
+        }
+    }
 
-            logger.debug("Loading JWK from: {}", jwkResource.getURI());
-            JsonNode root = objectMapper.readTree(jwkResource.getInputStream());
-            JsonNode privateNode = root.get("private");
+    private String requestAccessToken(
+            RealmRegistry.Realm realm, String credentialId, RSAKey privateJwk, String keyThumbprint) throws Exception {
+        // DPoP proofs for the access token request, a fresh one per attempt
+        Callable<String> dPopAccessTokenJwt =
+                () -> createDpopJwt(credentialId, "POST", realm.tokenEndpoint(), privateJwk);
+        logger.debug("Requesting access token from Keycloak endpoint: {}", realm.tokenEndpoint());
+        String accessToken = phase("token", () -> getAccessToken(realm, dPopAccessTokenJwt, keyThumbprint));
+        if (accessToken != null) {
+            logger.debug("Access token obtained successfully");
+        }
+        return accessToken;
+    }
 
-            Map<String, Object> privateMap =
-                    objectMapper.convertValue(privateNode, new TypeReference<Map<String, Object>>() {});
-            RSAKey privateJwk = RSAKey.parse(privateMap);
-            logger.debug("JWK loaded successfully with key ID: {}", privateJwk.getKeyID());
+    /**
+     * Looks the challenge up among the pending ones and posts the response, with the given access
+     * token.
+     *
+     * @throws AccessTokenRejectedException if Keycloak answers either call with 401
+     */
+    @SuppressWarnings("null")
+    private Outcome respondWithToken(
+            RealmRegistry.Realm realm,
+            String challengeId,
+            String credentialId,
+            String userId,
+            String effectiveAction,
+            String effectiveUserVerification,
+            RSAKey privateJwk,
+            String bearerToken)
+            throws Exception {
+        String basePendingUrl = realm.pendingEndpoint();
 
-            // Create DPoP proof for access token request
-            logger.debug("Creating DPoP JWT for token endpoint: {}", iamUrl + TOKEN_ENDPOINT);
-            String dPopAccessTokenJwt = createDpopJwt(credentialId, "POST", iamUrl + TOKEN_ENDPOINT, privateJwk);
-            logger.debug("DPoP JWT created successfully");
-
-            // Get access token
-            logger.info("Requesting access token from Keycloak endpoint: {}", iamUrl + TOKEN_ENDPOINT);
-            String accessToken = getAccessToken(iamUrl, dPopAccessTokenJwt);
-            if (accessToken == null) {
-                logger.warn("Failed to obtain access token from: {}", iamUrl + TOKEN_ENDPOINT);
-                return ResponseEntity.status(401).body("Failed to obtain access token");
-            }
-            logger.info("Access token obtained successfully");
-            String basePendingUrl = iamUrl + LOGIN_PENDING_ENDPOINT;
-  
-            String pendingUrl = basePendingUrl + "?userId=" + userId;
-            logger.debug("Fetching pending challenges for userId: {} (encoded: {})", userId, basePendingUrl);
-            // RFC 9449: htu must exclude query and fragment parts (userId)
-            String pendingDpop = createDpopJwt(credentialId, "GET", basePendingUrl, privateJwk);
-            logger.debug("DPoP JWT created for pending challenges endpoint: {}", basePendingUrl);
-            JsonNode pendingJson = getPendingChallenges(pendingUrl, pendingDpop, accessToken);
-
-            if (pendingJson == null || !pendingJson.has("challenges")) {
-                logger.warn("Failed to get pending challenges from: {}", pendingUrl);
-                return ResponseEntity.status(400).body("Failed to get pending challenges");
-            }
-            logger.debug(
-                    "Retrieved pending challenges array with {} challenges",
-                    pendingJson.get("challenges").size());
-
-            // Check if challenge exists in pending list
-            JsonNode pendingChallenge = null;
-            for (JsonNode challenge : pendingJson.get("challenges")) {
-                if (challenge.has("cid") && challenge.get("cid").asText().equals(challengeId)) {
-                    pendingChallenge = challenge;
-                    break;
-                }
-            }
+        String pendingUrl = basePendingUrl + "?userId=" + userId;
+        logger.debug("Fetching pending challenges for userId: {} (encoded: {})", userId, basePendingUrl);
+        // RFC 9449: htu must exclude query and fragment parts (userId); every attempt and hedge gets its own proof
+        Callable<String> pendingDpop = () -> createDpopJwt(credentialId, "GET", basePendingUrl, privateJwk);
+        JsonNode pendingJson = phase("pending", () -> getPendingChallenges(pendingUrl, pendingDpop, bearerToken));
 
-            if (pendingChallenge == null) {
-                logger.warn("Challenge with ID {} not found in pending challenges", challengeId);
-                return ResponseEntity.status(404).body("Challenge not found");
-            }
-            logger.debug("Challenge {} found in pending challenges", challengeId);
-
-            // Check if user verification is required for approve action
-            String pendingUserVerification = pendingChallenge.has("userVerification")
-                    ? pendingChallenge.get("userVerification").asText()
-                    : null;
-
-            if ("approve".equals(effectiveAction)
-                    && pendingUserVerification != null
-                    && (effectiveUserVerification == null
-                            || effectiveUserVerification.trim().isEmpty())) {
-                logger.warn("User verification required but not provided");
-                return ResponseEntity.badRequest().body("userVerification required");
+        if (pendingJson == null || !pendingJson.has("challenges")) {
+            logger.warn("Failed to get pending challenges from: {}", pendingUrl);
+            return Outcome.transientFailure(ResponseEntity.status(400).body("Failed to get pending challenges"));
+        }
+        logger.debug(
+                "Retrieved pending challenges array with {} challenges",
+                pendingJson.get("challenges").size());
+
+        // Check if challenge exists in pending list
+        JsonNode pendingChallenge = null;
+        for (JsonNode challenge : pendingJson.get("challenges")) {
+            if (challenge.has("cid") && challenge.get("cid").asText().equals(challengeId)) {
+                pendingChallenge = challenge;
+                break;
             }
+        }
 
-            // Post challenge response
-            String challengeEndpoint = iamUrl + "/push-mfa/login/challenges/" + challengeId + "/respond";
-            logger.debug("Creating DPoP JWT for challenge endpoint: {}", challengeEndpoint);
-            String dpopChallengeToken = createDpopJwt(credentialId, "POST", challengeEndpoint, privateJwk);
-            String userVerifForChallenge = "approve".equals(effectiveAction) ? effectiveUserVerification : null;
-            logger.info(
-                    "Posting challenge response - action: {}, challengeId: {}, endpoint: {}",
-                    effectiveAction,
-                    challengeId,
-                    challengeEndpoint);
-            String challengeToken =
-                    createChallengeToken(credentialId, challengeId, effectiveAction, userVerifForChallenge, privateJwk);
-
-            ResponseEntity<String> challengeResponse =
-                    postChallengesResponse(challengeEndpoint, dpopChallengeToken, accessToken, challengeToken);
-
-            if (!challengeResponse.getStatusCode().is2xxSuccessful()) {
-                logger.warn("Challenge response failed: {}", challengeResponse.getStatusCode());
-                return ResponseEntity.status(challengeResponse.getStatusCode()).body(challengeResponse.getBody());
-            }
+        if (pendingChallenge == null) {
+            logger.warn("Challenge with ID {} not found in pending challenges", challengeId);
+            // the push may arrive before Keycloak lists the challenge
+            return Outcome.transientFailure(ResponseEntity.status(404).body("Challenge not found"));
+        }
+        logger.debug("Challenge {} found in pending challenges", challengeId);
+
+        // Check if user verification is required for approve action
+        String pendingUserVerification = pendingChallenge.has("userVerification")
+                ? pendingChallenge.get("userVerification").asText()
+                : null;
+
+        if ("approve".equals(effectiveAction)
+                && pendingUserVerification != null
+                && (effectiveUserVerification == null
+                        || effectiveUserVerification.trim().isEmpty())) {
+            logger.warn("User verification required but not provided");
+            return Outcome.transientFailure(ResponseEntity.badRequest().body("userVerification required"));
+        }
 
-            String responseMsg = String.format(
-                    "userId: %s; responseStatus: %s; userVerification: %s; action: %s",
-                    userId, challengeResponse.getStatusCode(), pendingUserVerification, effectiveAction);
+        // Post challenge response
+        String challengeEndpoint = realm.respondEndpoint(challengeId);
+        logger.debug("Creating DPoP JWT for challenge endpoint: {}", challengeEndpoint);
+        String dpopChallengeToken = createDpopJwt(credentialId, "POST", challengeEndpoint, privateJwk);
+        String userVerifForChallenge = "approve".equals(effectiveAction) ? effectiveUserVerification : null;
+        logger.debug(
+                "Posting challenge response - action: {}, challengeId: {}, endpoint: {}",
+                effectiveAction,
+                challengeId,
+                challengeEndpoint);
+        String challengeToken =
+                createChallengeToken(credentialId, challengeId, effectiveAction, userVerifForChallenge, privateJwk);
+
+        ResponseEntity<String> challengeResponse = phase(
+                "respond",
+                () -> postChallengesResponse(challengeEndpoint, dpopChallengeToken, bearerToken, challengeToken));
+
+        HttpStatusCode challengeStatus = challengeResponse.getStatusCode();
+        if (!challengeStatus.is2xxSuccessful()) {
+            logger.warn("Challenge response failed: {}", challengeStatus);
+            ResponseEntity<String> failure =
+                    ResponseEntity.status(challengeStatus).body(challengeResponse.getBody());
+            // Keycloak rejected the answer itself, a repeat would be rejected the same way
+            boolean rejected = challengeStatus.is4xxClientError()
+                    && challengeStatus.value() != 408
+                    && challengeStatus.value() != 429;
+            return rejected ? Outcome.definitive(failure) : Outcome.transientFailure(failure);
+        }
+        approvalLatency.challengeAnswered(challengeId);
 
-            logger.info("Confirm login completed successfully: {}", responseMsg);
-            return ResponseEntity.ok(responseMsg);
+        String responseMsg = String.format(
+                "userId: %s; responseStatus: %s; userVerification: %s; action: %s",
+                userId, challengeResponse.getStatusCode(), pendingUserVerification, effectiveAction);
 
+        logger.debug("Confirm login completed successfully: {}", responseMsg);
+        return Outcome.definitive(ResponseEntity.ok(responseMsg));
+    }
+
+    /**
+     * Runs one step of the confirm flow as an observation, which becomes a child span of the
+     * request and a {@code simulator.confirm} timer tagged with the phase.
+     */
+    private <T> T phase(String phase, Observation.CheckedCallable<T, Exception> step) throws Exception {
+        return Observation.createNotStarted(OBSERVATION_NAME, observationRegistry)
+                .contextualName("confirm " + phase)
+                .lowCardinalityKeyValue("phase", phase)
+                .observeChecked(step);
+    }
+
+    private RSAKey loadPrivateJwk(String credentialId) throws Exception {
+        // keys provisioned in bulk take precedence over the single key file
+        JWK provisioned = deviceKeys.find(credentialId);
+        if (provisioned instanceof RSAKey provisionedRsa) {
+            return provisionedRsa;
+        }
+        if (provisioned != null) {
+            throw new IllegalStateException("Provisioned key of credential " + credentialId + " is not an RSA key");
+        }
+        JwkLoadEvent event = new JwkLoadEvent();
+        event.begin();
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        // Versuche zuerst vom Dateisystem zu laden (für K8s-Deployment mit volumeMount)
+        Resource jwkResource;
+        try {
+            jwkResource = new FileSystemResource(jwkPath);
+            if (!jwkResource.exists()) {
+                // Fallback auf Classpath für lokale Entwicklung
+                jwkResource = new ClassPathResource("static/keys/rsa-jwk.json");
+            }
         } catch (Exception e) {
-            logger.error("Error during confirm login process", e);
-            return ResponseEntity.status(500).body("Error: " + e.getMessage());
+            // Fallback auf Classpath
+            jwkResource = new ClassPathResource("static/keys/rsa-jwk.json");
+        }
+
+        logger.debug("Loading JWK from: {}", jwkResource.getURI());
+        JsonNode root = objectMapper.readTree(jwkResource.getInputStream());
+        JsonNode privateNode = root.get("private");
+
+        Map<String, Object> privateMap =
+                objectMapper.convertValue(privateNode, new TypeReference<Map<String, Object>>() {});
+        RSAKey privateJwk = RSAKey.parse(privateMap);
+        if (event.shouldCommit()) {
+            event.source = jwkResource.getDescription();
+            event.keyId = privateJwk.getKeyID();
+            event.commit();
         }
+        return privateJwk;
+    }
+
+    private static String abbreviate(String value) {
+        return value.length() > 200 ? value.substring(0, 200) : value;
     }
 
     private String firstNonBlank(String... values) {
@@ -279,13 +486,10 @@ public class ConfirmController {
                 .jwk(privateJwk.toPublicJWK())
                 .build();
 
-        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
-        signedJWT.sign(new RSASSASigner(privateJwk));
-        logger.trace(
-                "DPoP JWT created successfully with jti: {}",
-                signedJWT.getJWTClaimsSet().getJWTID());
+        String dpopJwt = signingService.sign(header, claimsSet, privateJwk);
+        logger.trace("DPoP JWT created successfully with jti: {}", claimsSet.getJWTID());
 
-        return signedJWT.serialize();
+        return dpopJwt;
     }
 
     private String createChallengeToken(
@@ -317,27 +521,28 @@ public class ConfirmController {
                 .type(new JOSEObjectType("JWT"))
                 .build();
 
-        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
-        signedJWT.sign(new RSASSASigner(privateJwk));
+        String challengeToken = signingService.sign(header, claimsSet, privateJwk);
         logger.trace("Challenge token signed successfully");
 
-        return signedJWT.serialize();
+        return challengeToken;
     }
 
-    private String getAccessToken(String iamUrl, String dPopToken) throws Exception {
-        String url = iamUrl + TOKEN_ENDPOINT;
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-        headers.set("DPoP", dPopToken);
+    private String getAccessToken(RealmRegistry.Realm realm, Callable<String> dPopToken, String keyThumbprint)
+            throws Exception {
+        String url = realm.tokenEndpoint();
         logger.debug("Requesting access token with client ID: {} from: {}", clientId, url);
 
         // Use client credentials grant with device client ID/secret
         String body = "grant_type=client_credentials" + "&client_id=" + clientId + "&client_secret=" + clientSecret;
 
-        HttpEntity<String> request = new HttpEntity<>(body, headers);
         try {
             logger.trace("Sending token request to Keycloak");
-            ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
+            ResponseEntity<String> response = keycloakCalls.call("token", () -> {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+                headers.set("DPoP", dPopToken.call());
+                return restTemplate.postForEntity(url, new HttpEntity<>(body, headers), String.class);
+            });
             logger.debug("Token endpoint response status: {}", response.getStatusCode());
 
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
@@ -346,6 +551,8 @@ public class ConfirmController {
                 if (jsonNode.has("access_token")) {
                     String token = jsonNode.get("access_token").asText();
                     logger.debug("Access token obtained successfully, token length: {}", token.length());
+                    realm.cacheAccessToken(
+                            keyThumbprint, token, jsonNode.path("expires_in").asLong(0));
                     return token;
                 } else {
                     logger.warn("Access token not found in response");
@@ -356,6 +563,9 @@ public class ConfirmController {
                         response.getStatusCode(),
                         response.getBody());
             }
+        } catch (OverloadedException e) {
+            // the DPoP proof could not be signed, answered with 503
+            throw e;
         } catch (Exception e) {
             logger.error("Failed to get access token from {}", url, e);
         }
@@ -363,19 +573,17 @@ public class ConfirmController {
     }
 
     @SuppressWarnings("null")
-    JsonNode getPendingChallenges(String url, String dPopToken, String accessToken) throws Exception {
-        logger.info("Fetching pending challenges from: {}", url);
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", "Bearer " + accessToken);
-        headers.set("DPoP", dPopToken);
-        logger.trace("Prepared HTTP headers with Authorization and DPoP for pending challenges request");
-
-        HttpEntity<String> request = new HttpEntity<>(headers);
+    JsonNode getPendingChallenges(String url, Callable<String> dPopToken, String accessToken) throws Exception {
+        logger.debug("Fetching pending challenges from: {}", url);
         long startTime = System.currentTimeMillis();
         try {
             logger.debug("Sending GET request to pending challenges endpoint");
-            @SuppressWarnings("null")
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, request, String.class);
+            ResponseEntity<String> response = keycloakCalls.callHedged("pending", () -> {
+                HttpHeaders headers = new HttpHeaders();
+                headers.set("Authorization", "Bearer " + accessToken);
+                headers.set("DPoP", dPopToken.call());
+                return restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+            });
             long duration = System.currentTimeMillis() - startTime;
             logger.debug(
                     "Pending challenges endpoint response status: {} (received in {} ms)",
@@ -391,7 +599,8 @@ public class ConfirmController {
 
                 if (result.has("challenges")) {
                     int challengeCount = result.get("challenges").size();
-                    logger.info("Successfully retrieved pending challenges: {} challenge(s) available", challengeCount);
+                    logger.debug(
+                            "Successfully retrieved pending challenges: {} challenge(s) available", challengeCount);
                 } else {
                     logger.warn("Response does not contain 'challenges' field");
                 }
@@ -406,6 +615,10 @@ public class ConfirmController {
                                 ? responseBody.substring(0, Math.min(200, responseBody.length()))
                                 : "null");
             }
+        } catch (HttpClientErrorException.Unauthorized e) {
+            throw new AccessTokenRejectedException(url);
+        } catch (OverloadedException e) {
+            throw e;
         } catch (Exception e) {
             long duration = System.currentTimeMillis() - startTime;
             logger.error(
@@ -435,11 +648,16 @@ public class ConfirmController {
             logger.trace("Sending POST request with challenge token to Keycloak");
             @SuppressWarnings("null")
             ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
-            logger.info("Challenge response posted successfully to {}, status: {}", url, response.getStatusCode());
+            logger.debug("Challenge response posted successfully to {}, status: {}", url, response.getStatusCode());
             logger.debug(
                     "Challenge response body length: {}",
                     response.getBody() != null ? response.getBody().length() : 0);
             return response != null ? response : ResponseEntity.status(500).body("No response from server");
+        } catch (HttpClientErrorException.Unauthorized e) {
+            throw new AccessTokenRejectedException(url);
+        } catch (HttpClientErrorException e) {
+            logger.warn("Challenge response rejected by {}: {}", url, e.getStatusCode());
+            return ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsString());
         } catch (Exception e) {
             logger.error("Failed to post challenge response to {}", url, e);
             return ResponseEntity.status(500).body("Failed to post challenge response: " + e.getMessage());
@@ -447,4 +665,13 @@ public class ConfirmController {
     }
 
     public record ChallengeResponseRequest(String token) {}
+
+    /**
+     * Keycloak answered 401 to a call made with an access token, the message is the URL called.
+     */
+    static class AccessTokenRejectedException extends Exception {
+        AccessTokenRejectedException(String url) {
+            super(url);
+        }
+    }
 }
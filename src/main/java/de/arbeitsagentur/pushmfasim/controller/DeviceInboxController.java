@@ -0,0 +1,61 @@
+package de.arbeitsagentur.pushmfasim.controller;
+
+import de.arbeitsagentur.pushmfasim.services.DeviceInboxService;
+import de.arbeitsagentur.pushmfasim.services.LongPollService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Polling access to the per-device inbox. Clients pass the returned cursor into the next call
+ * to receive only newer messages; {@code /fcm/poll} waits for the next message instead of
+ * returning an empty page.
+ */
+@Controller
+public class DeviceInboxController {
+    private static final int MAX_LIMIT = 1000;
+    private static final long MAX_POLL_TIMEOUT_MS = 120000;
+
+    @Autowired
+    private DeviceInboxService inboxService;
+
+    @Autowired
+    private LongPollService longPollService;
+
+    @GetMapping("/fcm/inbox")
+    public ResponseEntity<DeviceInboxService.InboxPage> messages(
+            @RequestParam("token") String token,
+            @RequestParam(value = "cursor", defaultValue = "0") long cursor,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (token.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        int boundedLimit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        return ResponseEntity.ok(inboxService.messagesSince(token, cursor, boundedLimit));
+    }
+
+    @GetMapping("/fcm/poll")
+    @ResponseBody
+    public DeferredResult<DeviceInboxService.InboxPage> poll(
+            @RequestParam("token") String token,
+            @RequestParam(value = "cursor", defaultValue = "0") long cursor,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "timeoutMs", defaultValue = "30000") long timeoutMs) {
+        if (token.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "token must not be empty");
+        }
+        if (!inboxService.isEnabled()) {
+            // long-poll reads from the inbox, so it is unavailable when app.inbox.enabled is false
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "inbox is disabled");
+        }
+        int boundedLimit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        long boundedTimeout = Math.max(1, Math.min(timeoutMs, MAX_POLL_TIMEOUT_MS));
+        return longPollService.poll(token, cursor, boundedLimit, boundedTimeout);
+    }
+}
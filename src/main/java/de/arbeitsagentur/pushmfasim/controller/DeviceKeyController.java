@@ -0,0 +1,66 @@
+package de.arbeitsagentur.pushmfasim.controller;
+
+import com.nimbusds.jose.jwk.JWK;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeystore;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Bulk provisioning of device key pairs into the device keystore, and lookup of a single key in
+ * the format of {@code rsa-jwk.json}: the public key, and the private key only with
+ * {@code app.keystore.export-private-keys}.
+ */
+@Controller
+@RequestMapping("/keys")
+public class DeviceKeyController {
+
+    @Autowired
+    private DeviceKeyProvisioner provisioner;
+
+    @Value("${app.keystore.export-private-keys:false}")
+    private boolean exportPrivateKeys;
+
+    @PostMapping("/provision")
+    public ResponseEntity<DeviceKeyProvisioner.Result> provision(
+            @RequestParam(value = "count", defaultValue = "1000") int count,
+            @RequestParam(value = "algorithm", defaultValue = "RS256") String algorithm,
+            @RequestParam(value = "idPattern", defaultValue = DeviceKeyProvisioner.DEFAULT_ID_PATTERN) String idPattern)
+            throws IOException {
+        try {
+            return ResponseEntity.ok(provisioner.provision(
+                    count, DeviceKeystore.Algorithm.valueOf(algorithm.toUpperCase(Locale.ROOT)), idPattern));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    // below /devices so that the static keys/rsa-jwk.json loaded by the UI stays reachable
+    @GetMapping("/devices/{credentialId}")
+    public ResponseEntity<Map<String, Object>> key(@PathVariable String credentialId) {
+        JWK jwk = provisioner.find(credentialId);
+        if (jwk == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!exportPrivateKeys) {
+            return ResponseEntity.ok(Map.of("public", jwk.toPublicJWK().toJSONObject()));
+        }
+        return ResponseEntity.ok(Map.of(
+                "public", jwk.toPublicJWK().toJSONObject(),
+                "private", jwk.toJSONObject()));
+    }
+}
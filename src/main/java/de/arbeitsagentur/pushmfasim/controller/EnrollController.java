@@ -6,13 +6,25 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTParser;
-import com.nimbusds.jwt.SignedJWT;
+import de.arbeitsagentur.pushmfasim.jfr.JwkLoadEvent;
+import de.arbeitsagentur.pushmfasim.services.AuditLog;
+import de.arbeitsagentur.pushmfasim.services.ConcurrencyLimiter;
+import de.arbeitsagentur.pushmfasim.services.ConcurrencyLimiterRegistry;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import de.arbeitsagentur.pushmfasim.services.InvalidTokenException;
+import de.arbeitsagentur.pushmfasim.services.OverloadedException;
+import de.arbeitsagentur.pushmfasim.services.RealmRegistry;
+import de.arbeitsagentur.pushmfasim.services.SigningService;
+import de.arbeitsagentur.pushmfasim.services.TokenVerifier;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -33,6 +45,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 @Controller
@@ -42,6 +55,17 @@ public class EnrollController {
     private static final Logger logger = LoggerFactory.getLogger(EnrollController.class);
 
     private final RestTemplate restTemplate;
+    private final SigningService signingService;
+    private final ConcurrencyLimiterRegistry concurrencyLimiters;
+    private final ObservationRegistry observationRegistry;
+    private final AuditLog auditLog;
+    private final RealmRegistry realms;
+    private final DeviceKeyProvisioner deviceKeys;
+    private final TokenVerifier tokenVerifier;
+
+    private static final String LIMITER_NAME = "enroll-complete";
+    private static final String OBSERVATION_NAME = "simulator.enroll";
+    private static final String AUDIT_FLOW = "enroll";
 
     @Value("${app.jwk.path:static/keys/rsa-jwk.json}")
     private String jwkPath;
@@ -49,8 +73,23 @@ public class EnrollController {
     @Value("${app.enroll.complete.url:http://localhost:8080/realms/demo/push-mfa/enroll/complete}")
     private String defaultIamUrl;
 
-    public EnrollController(RestTemplate restTemplate) {
+    public EnrollController(
+            RestTemplate restTemplate,
+            SigningService signingService,
+            ConcurrencyLimiterRegistry concurrencyLimiters,
+            ObservationRegistry observationRegistry,
+            AuditLog auditLog,
+            RealmRegistry realms,
+            DeviceKeyProvisioner deviceKeys,
+            TokenVerifier tokenVerifier) {
         this.restTemplate = restTemplate;
+        this.signingService = signingService;
+        this.concurrencyLimiters = concurrencyLimiters;
+        this.observationRegistry = observationRegistry;
+        this.auditLog = auditLog;
+        this.realms = realms;
+        this.deviceKeys = deviceKeys;
+        this.tokenVerifier = tokenVerifier;
     }
 
     @GetMapping
@@ -68,14 +107,49 @@ public class EnrollController {
             @RequestParam(required = false) String pushProviderType)
             throws Exception {
 
-        logger.info("Starting enrollment completion process");
-
-        if (iamUrl == null || iamUrl.isEmpty()) {
-            iamUrl = defaultIamUrl;
+        long startNanos = System.nanoTime();
+        Map<String, String> audit = new LinkedHashMap<>();
+        int status = 500;
+        try (ConcurrencyLimiter.Permit permit = concurrencyLimiters.acquire(LIMITER_NAME)) {
+            try {
+                ResponseEntity<String> response = completeEnrollment(token, context, iamUrl, pushProviderType, audit);
+                status = response.getStatusCode().value();
+                permit.record(status);
+                if (!response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                    audit.put("error", abbreviate(response.getBody()));
+                }
+                return response;
+            } catch (RestClientException e) {
+                // Keycloak unreachable or timing out
+                permit.dropped();
+                audit.put("error", e.getClass().getSimpleName());
+                throw e;
+            }
+        } catch (OverloadedException e) {
+            status = 503;
+            throw e;
+        } finally {
+            auditLog.record(AUDIT_FLOW, status, startNanos, audit);
         }
-        logger.debug("Using IAM URL: {}", iamUrl);
+    }
+
+    @SuppressWarnings("null")
+    private ResponseEntity<String> completeEnrollment(
+            String token, String context, String iamUrl, String pushProviderType, Map<String, String> audit)
+            throws Exception {
+
+        logger.debug("Starting enrollment completion process");
+
+        RealmRegistry.Realm realm = realms.realm(iamUrl == null || iamUrl.isEmpty() ? defaultIamUrl : iamUrl);
+        logger.debug("Using IAM URL: {}", realm.url());
         logger.trace("Parsing enrollment token");
         JWT jwt = JWTParser.parse(token);
+        try {
+            tokenVerifier.verify(realm, jwt);
+        } catch (InvalidTokenException e) {
+            logger.warn("Rejecting enrollment token: {}", e.getMessage());
+            return ResponseEntity.status(401).body("Invalid token: " + e.getMessage());
+        }
         JWTClaimsSet claims = jwt.getJWTClaimsSet();
 
         // Unpack token
@@ -90,44 +164,75 @@ public class EnrollController {
                 userId,
                 nonce != null);
 
+        if (enrollmentId != null) {
+            audit.put("enrollmentId", enrollmentId);
+        }
+        if (userId != null) {
+            audit.put("userId", userId);
+        }
+
         if (enrollmentId == null || nonce == null || userId == null) {
             logger.warn("Invalid token: missing required claims");
             return ResponseEntity.badRequest().body("Invalid token: missing required claims");
         }
 
         ObjectMapper objectMapper = new ObjectMapper();
-
-        // Versuche zuerst vom Dateisystem zu laden (für K8s-Deployment mit volumeMount)
-        Resource jwkResource;
-        try {
-            jwkResource = new FileSystemResource(jwkPath);
-            if (!jwkResource.exists()) {
-                // Fallback auf Classpath für lokale Entwicklung
-                logger.debug("JWK file not found at {}, falling back to classpath", jwkPath);
+        String credentialId = userId + "-device-alias-" + context;
+        RSAKey publicJwk;
+        RSAKey privateJwk;
+        // keys provisioned in bulk take precedence over the single key file
+        JWK provisioned = deviceKeys.find(credentialId);
+        if (provisioned instanceof RSAKey provisionedRsa) {
+            logger.debug("Using provisioned key for credential {}", credentialId);
+            publicJwk = provisionedRsa.toPublicJWK();
+            privateJwk = provisionedRsa;
+        } else if (provisioned != null) {
+            logger.warn("Provisioned key of credential {} is not an RSA key", credentialId);
+            return ResponseEntity.status(500)
+                    .body("Provisioned key of credential " + credentialId + " is not an RSA key");
+        } else {
+            JwkLoadEvent jwkLoadEvent = new JwkLoadEvent();
+            jwkLoadEvent.begin();
+
+            // Versuche zuerst vom Dateisystem zu laden (für K8s-Deployment mit volumeMount)
+            Resource jwkResource;
+            try {
+                jwkResource = new FileSystemResource(jwkPath);
+                if (!jwkResource.exists()) {
+                    // Fallback auf Classpath für lokale Entwicklung
+                    logger.debug("JWK file not found at {}, falling back to classpath", jwkPath);
+                    jwkResource = new ClassPathResource("static/keys/rsa-jwk.json");
+                } else {
+                    logger.debug("Loading JWK from file system: {}", jwkPath);
+                }
+            } catch (Exception e) {
+                // Fallback auf Classpath
+                logger.debug(
+                        "Exception while loading JWK from file system, falling back to classpath: {}", e.getMessage());
                 jwkResource = new ClassPathResource("static/keys/rsa-jwk.json");
-            } else {
-                logger.debug("Loading JWK from file system: {}", jwkPath);
             }
-        } catch (Exception e) {
-            // Fallback auf Classpath
-            logger.debug("Exception while loading JWK from file system, falling back to classpath: {}", e.getMessage());
-            jwkResource = new ClassPathResource("static/keys/rsa-jwk.json");
-        }
-
-        logger.trace("Loading JWK from resource: {}", jwkResource);
-
-        JsonNode root = objectMapper.readTree(jwkResource.getInputStream());
-        JsonNode publicNode = root.get("public");
-        JsonNode privateNode = root.get("private");
-        logger.debug("JWK loaded successfully with public and private keys");
 
-        Map<String, Object> publicMap =
-                objectMapper.convertValue(publicNode, new TypeReference<Map<String, Object>>() {});
-        Map<String, Object> privateMap =
-                objectMapper.convertValue(privateNode, new TypeReference<Map<String, Object>>() {});
-        RSAKey publicJwk = RSAKey.parse(publicMap);
-        RSAKey privateJwk = RSAKey.parse(privateMap);
-        logger.debug("RSA keys parsed successfully");
+            logger.trace("Loading JWK from resource: {}", jwkResource);
+
+            Resource keyResource = jwkResource;
+            JsonNode root = phase("load-key", () -> objectMapper.readTree(keyResource.getInputStream()));
+            JsonNode publicNode = root.get("public");
+            JsonNode privateNode = root.get("private");
+            logger.debug("JWK loaded successfully with public and private keys");
+
+            Map<String, Object> publicMap =
+                    objectMapper.convertValue(publicNode, new TypeReference<Map<String, Object>>() {});
+            Map<String, Object> privateMap =
+                    objectMapper.convertValue(privateNode, new TypeReference<Map<String, Object>>() {});
+            publicJwk = RSAKey.parse(publicMap);
+            privateJwk = RSAKey.parse(privateMap);
+            if (jwkLoadEvent.shouldCommit()) {
+                jwkLoadEvent.source = keyResource.getDescription();
+                jwkLoadEvent.keyId = privateJwk.getKeyID();
+                jwkLoadEvent.commit();
+            }
+            logger.debug("RSA keys parsed successfully");
+        }
 
         Map<String, Object> cnf = Map.of("jwk", publicJwk.toPublicJWK().toJSONObject());
 
@@ -148,7 +253,7 @@ public class EnrollController {
                 .claim(
                         "pushProviderType",
                         pushProviderType != null && !pushProviderType.isEmpty() ? pushProviderType : "log")
-                .claim("credentialId", userId + "-device-alias-" + context)
+                .claim("credentialId", credentialId)
                 .claim("cnf", cnf)
                 .build();
         logger.debug("Enrollment JWT claims set created");
@@ -158,9 +263,7 @@ public class EnrollController {
                 .type(new JOSEObjectType("JWT"))
                 .build();
 
-        SignedJWT signedJWT = new SignedJWT(header, claimsSet);
-        signedJWT.sign(new RSASSASigner(privateJwk));
-        String enrollmentToken = signedJWT.serialize();
+        String enrollmentToken = phase("sign", () -> signingService.sign(header, claimsSet, privateJwk));
         logger.debug("Enrollment token generated and signed successfully, token length: {}", enrollmentToken.length());
 
         Map<String, Object> body = Map.of("token", enrollmentToken);
@@ -177,17 +280,16 @@ public class EnrollController {
 
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
 
-        Objects.requireNonNull(iamUrl, "iamUrl must not be null");
         Objects.requireNonNull(HttpMethod.POST, "httpMethod must not be null");
 
-        String enrollmentEndpoint = iamUrl + "/push-mfa/enroll/complete";
-        logger.info("Sending enrollment completion request to Keycloak endpoint: {}", enrollmentEndpoint);
+        String enrollmentEndpoint = realm.enrollCompleteEndpoint();
+        logger.debug("Sending enrollment completion request to Keycloak endpoint: {}", enrollmentEndpoint);
         logger.trace("Enrollment token being sent, length: {}", enrollmentToken.length());
 
-        ResponseEntity<String> response =
-                restTemplate.exchange(enrollmentEndpoint, HttpMethod.POST, entity, String.class);
+        ResponseEntity<String> response = phase(
+                "complete", () -> restTemplate.exchange(enrollmentEndpoint, HttpMethod.POST, entity, String.class));
 
-        logger.info("Enrollment completion response from Keycloak - status: {}", response.getStatusCode());
+        logger.debug("Enrollment completion response from Keycloak - status: {}", response.getStatusCode());
         logger.debug(
                 "Response body length: {}",
                 response.getBody() != null ? response.getBody().length() : 0);
@@ -197,9 +299,24 @@ public class EnrollController {
                     response.getStatusCode(),
                     response.getBody());
         } else {
-            logger.info("Enrollment completion successful for userId: {}, enrollmentId: {}", userId, enrollmentId);
+            logger.debug("Enrollment completion successful for userId: {}, enrollmentId: {}", userId, enrollmentId);
         }
 
         return ResponseEntity.status(response.getStatusCode()).body(response.getBody());
     }
+
+    private static String abbreviate(String value) {
+        return value.length() > 200 ? value.substring(0, 200) : value;
+    }
+
+    /**
+     * Runs one step of the enrollment as an observation, which becomes a child span of the
+     * request and a {@code simulator.enroll} timer tagged with the phase.
+     */
+    private <T> T phase(String phase, Observation.CheckedCallable<T, Exception> step) throws Exception {
+        return Observation.createNotStarted(OBSERVATION_NAME, observationRegistry)
+                .contextualName("enroll " + phase)
+                .lowCardinalityKeyValue("phase", phase)
+                .observeChecked(step);
+    }
 }
@@ -0,0 +1,32 @@
+package de.arbeitsagentur.pushmfasim.controller;
+
+import de.arbeitsagentur.pushmfasim.services.FcmMessageLog;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Read access to the FCM message log for replaying and auditing test runs.
+ */
+@Controller
+public class FcmMessageLogController {
+    private static final int MAX_LIMIT = 10000;
+
+    @Autowired
+    private FcmMessageLog messageLog;
+
+    @GetMapping("/fcm/log")
+    public ResponseEntity<List<FcmMessageLog.Entry>> query(
+            @RequestParam(value = "token", required = false) String token,
+            @RequestParam(value = "since", defaultValue = "0") long since,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        int boundedLimit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        if (token != null && !token.isEmpty()) {
+            return ResponseEntity.ok(messageLog.findByToken(token, boundedLimit));
+        }
+        return ResponseEntity.ok(messageLog.scan(since, boundedLimit));
+    }
+}
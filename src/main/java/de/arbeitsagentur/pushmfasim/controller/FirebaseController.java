@@ -2,10 +2,19 @@ package de.arbeitsagentur.pushmfasim.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.arbeitsagentur.pushmfasim.jfr.FcmIngestEvent;
 import de.arbeitsagentur.pushmfasim.model.FcmMessageRequest;
 import de.arbeitsagentur.pushmfasim.model.FcmMessageResponse;
 import de.arbeitsagentur.pushmfasim.model.FcmTokenResponse;
+import de.arbeitsagentur.pushmfasim.services.ApprovalLatencyTracker;
+import de.arbeitsagentur.pushmfasim.services.AuditLog;
+import de.arbeitsagentur.pushmfasim.services.FcmMessageLog;
+import de.arbeitsagentur.pushmfasim.services.FcmMessageParser;
+import de.arbeitsagentur.pushmfasim.services.FcmProjectRegistry;
+import de.arbeitsagentur.pushmfasim.services.MessageBus;
 import de.arbeitsagentur.pushmfasim.services.SseService;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
@@ -19,9 +28,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
@@ -30,15 +41,31 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @Controller
 public class FirebaseController {
-    private static final String TOKEN_VALUE_STRING = "keycloak_push_mfa_simulator_valid_assertion";
     private static final Logger LOG = LoggerFactory.getLogger(FirebaseController.class.getName());
 
     @Autowired
     private SseService sseService;
 
+    @Autowired
+    private MessageBus messageBus;
+
+    @Autowired
+    private FcmMessageLog messageLog;
+
+    @Autowired
+    private ApprovalLatencyTracker approvalLatency;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Autowired
+    private FcmProjectRegistry projects;
+
     @PostMapping(path = "/fcm/token")
-    public ResponseEntity<FcmTokenResponse> getToken(@RequestParam("assertion") String assertion) {
-        LOG.info("FCM token request received");
+    public ResponseEntity<FcmTokenResponse> getToken(
+            @RequestParam("assertion") String assertion,
+            @RequestParam(value = "project", required = false) String projectId) {
+        LOG.debug("FCM token request received");
         LOG.debug("Assertion parameter provided: {}", assertion != null && !assertion.isEmpty());
 
         if (assertion == null || assertion.isEmpty()) {
@@ -46,18 +73,67 @@ public class FirebaseController {
             return ResponseEntity.status(HttpStatusCode.valueOf(401)).body(null);
         }
 
-        LOG.debug("Assertion validation successful, generating FCM access token");
-        FcmTokenResponse response =
-                FcmTokenResponse.builder().accessToken(TOKEN_VALUE_STRING).build();
-        LOG.info("FCM access token generated successfully");
+        if (!FcmProjectRegistry.isValidId(projectId)) {
+            LOG.warn("FCM token request failed: invalid project ID {}", projectId);
+            return ResponseEntity.status(HttpStatusCode.valueOf(400)).body(null);
+        }
+
+        // issued for any project, the first send with the token admits it
+        LOG.debug("Assertion validation successful, generating FCM access token for project {}", projectId);
+        FcmTokenResponse response = FcmTokenResponse.builder()
+                .accessToken(projects.accessToken(projectId))
+                .build();
+        LOG.debug("FCM access token generated successfully");
 
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Reads the body with {@link FcmMessageParser} instead of data binding: only the fields needed
+     * here are extracted, and the original message JSON is handed on to the SSE subscribers.
+     */
     @PostMapping(path = "/fcm/messages:send")
     public ResponseEntity<FcmMessageResponse> sendMessage(
-            @RequestHeader("Authorization") String authorization, @RequestBody FcmMessageRequest request) {
-        LOG.info("FCM message send request received");
+            @RequestHeader("Authorization") String authorization, @RequestBody byte[] body) {
+        return send(FcmProjectRegistry.DEFAULT_PROJECT, authorization, body);
+    }
+
+    @PostMapping(path = "/v1/projects/{project}/messages:send", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<FcmMessageResponse> sendProjectMessage(
+            @PathVariable("project") String projectId,
+            @RequestHeader("Authorization") String authorization,
+            @RequestBody byte[] body) {
+        return send(projectId, authorization, body);
+    }
+
+    private ResponseEntity<FcmMessageResponse> send(String projectId, String authorization, byte[] body) {
+        long startNanos = System.nanoTime();
+        FcmMessageRequest request = parse(body);
+        ResponseEntity<FcmMessageResponse> response = handleSendMessage(projectId, authorization, request);
+        String deviceToken = request != null && request.getMessage() != null
+                ? request.getMessage().getToken()
+                : null;
+        auditLog.record(
+                "fcm-send",
+                response.getStatusCode().value(),
+                startNanos,
+                deviceToken != null ? Map.of("deviceToken", deviceToken) : Map.of());
+        return response;
+    }
+
+    private FcmMessageRequest parse(byte[] body) {
+        try {
+            return FcmMessageParser.parse(body);
+        } catch (IOException ex) {
+            // answered like a missing body, after the authorization check
+            LOG.warn("FCM message request body is not readable: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    private ResponseEntity<FcmMessageResponse> handleSendMessage(
+            String projectId, String authorization, FcmMessageRequest request) {
+        LOG.debug("FCM message send request received");
         LOG.trace("Authorization header present: {}", authorization != null);
 
         if (authorization == null || !authorization.startsWith("Bearer ")) {
@@ -67,8 +143,14 @@ public class FirebaseController {
         String token = authorization.substring("Bearer ".length());
         LOG.debug("Extracted bearer token, length: {}", token.length());
 
-        if (!TOKEN_VALUE_STRING.equals(token)) {
-            LOG.warn("FCM message request failed: invalid bearer token");
+        if (!FcmProjectRegistry.isValidId(projectId)) {
+            LOG.warn("FCM message request failed: invalid project ID {}", projectId);
+            return ResponseEntity.status(HttpStatusCode.valueOf(404)).body(null);
+        }
+        // checked before the project is admitted, so that only its token holders can add it
+        FcmProjectRegistry.Project project = projects.authenticate(projectId, token);
+        if (project == null) {
+            LOG.warn("FCM message request failed: invalid bearer token for project {}", projectId);
             return ResponseEntity.status(HttpStatusCode.valueOf(401)).body(null);
         }
         LOG.debug("Bearer token validation successful");
@@ -101,40 +183,80 @@ public class FirebaseController {
                 "FCM message request validation successful - token: {}, has notification: true",
                 request.getMessage().getToken());
 
-        LOG.info("Publishing FCM message to SSE emitters");
-        sseService.sendMessageToAllEmitters(request.getMessage());
+        // refused before it is acknowledged, rather than dropped later when it cannot be delivered
+        if (!sseService.acceptsMessage(project.id())) {
+            LOG.warn("FCM message request failed: SSE delivery queue of project {} is full", project.id());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(null);
+        }
+        if (!project.tryAcquire()) {
+            LOG.warn("FCM message request failed: quota of project {} exceeded", project.id());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(project.retryAfterSeconds()))
+                    .body(null);
+        }
+
+        FcmIngestEvent event = new FcmIngestEvent();
+        event.begin();
+        request.getMessage().setProject(project.id());
+        approvalLatency.pushReceived(request.getMessage().getData().getToken());
+        messageLog.append(project.id(), request.getMessage());
+
+        LOG.debug("Publishing FCM message to subscribers");
+        messageBus.publish(request.getMessage());
         LOG.debug("FCM message published successfully");
+        if (event.shouldCommit()) {
+            event.project = project.id();
+            event.deviceToken = request.getMessage().getToken();
+            event.commit();
+        }
 
         FcmMessageResponse response = FcmMessageResponse.builder()
-                .name("projects/ba-secure-mock/FcmMessageRequest")
+                .name("projects/" + project.id() + "/FcmMessageRequest")
                 .build();
-        LOG.info("FCM message send request completed successfully");
+        LOG.debug("FCM message send request completed successfully");
 
         return ResponseEntity.ok(response);
     }
 
     @GetMapping("/fcm/register-sse")
-    public ResponseEntity<SseEmitter> sse() {
-        LOG.info("SSE emitter registration request received");
+    public ResponseEntity<SseEmitter> sse(
+            @RequestParam(value = "coalesce", defaultValue = "false") boolean coalesce,
+            @RequestParam(value = "project", required = false) String projectId,
+            HttpServletRequest request) {
+        LOG.debug("SSE emitter registration request received");
+        if (!FcmProjectRegistry.isValidId(projectId)) {
+            LOG.warn("SSE registration failed: invalid project ID {}", projectId);
+            return ResponseEntity.status(HttpStatusCode.valueOf(400)).body(null);
+        }
+        // subscribers may wait for a project that no send has admitted yet
+        String project = projectId != null ? projectId : FcmProjectRegistry.DEFAULT_PROJECT;
         HttpHeaders headers = new HttpHeaders();
-        headers.add("Connection", "keep-alive");
+        // no Connection header: it is connection-specific and makes HTTP/2 clients reset the stream
         headers.add("Cache-Control", "no-cache");
         headers.add("Content-Type", "text/event-stream");
         LOG.trace("SSE response headers configured");
 
         LOG.debug("Creating new SSE emitter for client");
-        SseEmitter emitter = sseService.createSseEmitter();
+        // the forwarded client address behind the proxy, see server.forward-headers-strategy
+        SseEmitter emitter = sseService.createSseEmitter(project, coalesce, request.getRemoteAddr());
         if (emitter == null) {
             LOG.error("Failed to create SSE emitter: SseService returned null");
             return ResponseEntity.status(500).body(null);
         }
-        LOG.info("SSE emitter created and registered successfully");
+        LOG.debug("SSE emitter created and registered successfully");
         return ResponseEntity.status(HttpStatus.OK).headers(headers).body(emitter);
     }
 
     @GetMapping("/fcm/credentials")
-    public ResponseEntity<String> getCredentials() {
+    public ResponseEntity<String> getCredentials(@RequestParam(value = "project", required = false) String projectId) {
         LOG.info("Mock Firebase credentials request received");
+        if (!FcmProjectRegistry.isValidId(projectId)) {
+            LOG.warn("Mock Firebase credentials request failed: invalid project ID {}", projectId);
+            return ResponseEntity.status(HttpStatusCode.valueOf(400)).body(null);
+        }
+        String project = projectId != null ? projectId : FcmProjectRegistry.DEFAULT_PROJECT;
         LOG.debug("Generating mock service account credentials");
 
         String privateKey = getPrivateKeyPem();
@@ -143,13 +265,24 @@ public class FirebaseController {
             return ResponseEntity.status(HttpStatusCode.valueOf(500)).body(null);
         }
 
+        // tokens issued through this URI are accepted by the project's messages:send only
+        String tokenUri = "http://localhost:5000/mock/fcm/token";
+        if (!FcmProjectRegistry.DEFAULT_PROJECT.equals(project)) {
+            tokenUri += "?project=" + project;
+        }
         Map<String, String> credentials = Map.of(
-                "type", "service_account",
-                "project_id", "ba-secure-mock",
-                "private_key_id", "some_key_id",
-                "private_key", privateKey,
-                "client_email", "fcm-mock@test.de",
-                "token_uri", "http://localhost:5000/mock/fcm/token");
+                "type",
+                "service_account",
+                "project_id",
+                project,
+                "private_key_id",
+                "some_key_id",
+                "private_key",
+                privateKey,
+                "client_email",
+                "fcm-mock@test.de",
+                "token_uri",
+                tokenUri);
 
         LOG.trace("Converting credentials to JSON format");
         try {
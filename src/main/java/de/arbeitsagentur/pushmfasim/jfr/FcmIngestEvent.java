@@ -0,0 +1,28 @@
+package de.arbeitsagentur.pushmfasim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Handing an accepted {@code /fcm/messages:send} request to latency tracking, the message log
+ * and the message bus.
+ */
+@Name("de.arbeitsagentur.pushmfasim.FcmIngest")
+@Label("FCM Ingest")
+@Category({"Push MFA Simulator", "Delivery"})
+@Description("FCM message accepted and published")
+@Enabled(false)
+@StackTrace(false)
+public class FcmIngestEvent extends Event {
+
+    @Label("Project")
+    public String project;
+
+    @Label("Device Token")
+    public String deviceToken;
+}
@@ -0,0 +1,28 @@
+package de.arbeitsagentur.pushmfasim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Reading and parsing the device JWK file.
+ */
+@Name("de.arbeitsagentur.pushmfasim.JwkLoad")
+@Label("JWK Load")
+@Category({"Push MFA Simulator", "Keys"})
+@Description("Device key loaded from the JWK file")
+@Enabled(false)
+@StackTrace(false)
+public class JwkLoadEvent extends Event {
+
+    @Label("Source")
+    @Description("File system path or classpath location of the JWK file")
+    public String source;
+
+    @Label("Key ID")
+    public String keyId;
+}
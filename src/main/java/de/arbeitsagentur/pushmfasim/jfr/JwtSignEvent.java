@@ -0,0 +1,35 @@
+package de.arbeitsagentur.pushmfasim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Computing one JWT signature on the signing pool. The event duration is the signing time only;
+ * the time spent waiting for a signer thread is recorded separately.
+ */
+@Name("de.arbeitsagentur.pushmfasim.JwtSign")
+@Label("JWT Sign")
+@Category({"Push MFA Simulator", "Keys"})
+@Description("JWT signed on the signing pool")
+@Enabled(false)
+@StackTrace(false)
+public class JwtSignEvent extends Event {
+
+    @Label("Algorithm")
+    public String algorithm;
+
+    @Label("Token Type")
+    @Description("typ header, e.g. dpop+jwt")
+    public String tokenType;
+
+    @Label("Queue Time")
+    @Description("Time the task waited for a signer thread")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queueTime;
+}
@@ -0,0 +1,43 @@
+package de.arbeitsagentur.pushmfasim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One outbound HTTP call to Keycloak, from sending the request until the response body was
+ * closed. Recorded by {@link KeycloakCallInterceptor}.
+ */
+@Name("de.arbeitsagentur.pushmfasim.KeycloakCall")
+@Label("Keycloak Call")
+@Category({"Push MFA Simulator", "Keycloak"})
+@Description("Outbound HTTP call to Keycloak")
+@Enabled(false)
+@StackTrace(false)
+public class KeycloakCallEvent extends Event {
+
+    @Label("Method")
+    public String method;
+
+    @Label("Endpoint")
+    @Description("Request URL without query string")
+    public String endpoint;
+
+    @Label("Status")
+    @Description("HTTP status, 0 if no response was received")
+    public int status;
+
+    @Label("Request Bytes")
+    @DataAmount
+    public long requestBytes;
+
+    @Label("Response Bytes")
+    @Description("Bytes of the response body that were read")
+    @DataAmount
+    public long responseBytes;
+}
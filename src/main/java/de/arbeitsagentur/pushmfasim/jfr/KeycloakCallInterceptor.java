@@ -0,0 +1,126 @@
+package de.arbeitsagentur.pushmfasim.jfr;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Records a {@link KeycloakCallEvent} per RestTemplate call. The event is committed when the
+ * response is closed, so it covers reading the body and counts the bytes actually read. While
+ * the event is disabled the call passes straight through.
+ */
+public class KeycloakCallInterceptor implements ClientHttpRequestInterceptor {
+
+    @Override
+    @SuppressWarnings("null")
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        KeycloakCallEvent event = new KeycloakCallEvent();
+        if (!event.isEnabled()) {
+            return execution.execute(request, body);
+        }
+        event.begin();
+        event.method = request.getMethod().name();
+        event.endpoint = endpoint(request.getURI());
+        event.requestBytes = body.length;
+        ClientHttpResponse response;
+        try {
+            response = execution.execute(request, body);
+        } catch (IOException | RuntimeException e) {
+            event.commit();
+            throw e;
+        }
+        event.status = response.getStatusCode().value();
+        return new RecordingResponse(response, event);
+    }
+
+    private static String endpoint(URI uri) {
+        // the query carries user IDs and would make every endpoint unique
+        return uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath();
+    }
+
+    private static final class RecordingResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final KeycloakCallEvent event;
+        private CountingInputStream body;
+        private boolean closed;
+
+        private RecordingResponse(ClientHttpResponse delegate, KeycloakCallEvent event) {
+            this.delegate = delegate;
+            this.event = event;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new CountingInputStream(delegate.getBody());
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+            if (!closed) {
+                closed = true;
+                event.responseBytes = body != null ? body.count : 0;
+                event.commit();
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package de.arbeitsagentur.pushmfasim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Sending one SSE event to the registered emitters.
+ */
+@Name("de.arbeitsagentur.pushmfasim.SseSend")
+@Label("SSE Send")
+@Category({"Push MFA Simulator", "Delivery"})
+@Description("SSE event sent to the connected clients")
+@Enabled(false)
+@StackTrace(false)
+public class SseSendEvent extends Event {
+
+    @Label("Event Type")
+    @Description("SSE event name: fcm-message, fcm-messages or heartbeat")
+    public String eventType;
+
+    @Label("Emitter Count")
+    @Description("Emitters the event was written to")
+    public int emitterCount;
+
+    @Label("Message Count")
+    @Description("FCM messages in the event, more than one for coalesced batches")
+    public int messageCount;
+}
@@ -1,10 +1,13 @@
 package de.arbeitsagentur.pushmfasim.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,4 +22,15 @@ public class FcmMessageRequestMessage {
 
     @JsonProperty("data")
     private FcmMessageData data;
+
+    // FCM project the message was sent to; null, e.g. from an older replica, means the default project
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private String project;
+
+    // the message object as received by /fcm/messages:send, null for messages built or relayed otherwise
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private byte[] rawJson;
 }
@@ -0,0 +1,174 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.nimbusds.jwt.JWTParser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+/**
+ * Measures push-to-approval latency: from {@code /fcm/messages:send} receiving a push to the
+ * simulator's challenge response being accepted by Keycloak, correlated by the challenge ID
+ * ({@code cid}) of the confirm token in the message data.
+ *
+ * <p>Challenges still waiting for an answer after {@code orphan-after-seconds}, or pushed out
+ * by {@code max-in-flight}, are counted as orphaned. Answers for challenges this replica never
+ * saw a push for are counted as unmatched. An answered challenge is forgotten right away, so
+ * memory stays bounded by {@code max-in-flight}.
+ */
+@Service
+public class ApprovalLatencyTracker implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApprovalLatencyTracker.class);
+
+    private final long orphanAfterNanos;
+    private final int maxInFlight;
+    private final LongSupplier nanoClock;
+
+    // push time by challenge ID in arrival order, for expiry and size eviction; guarded by itself
+    private final LinkedHashMap<String, Long> inFlight = new LinkedHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    private final Timer latencyTimer;
+    private final Counter expiredCounter;
+    private final Counter evictedCounter;
+    private final Counter unmatchedCounter;
+
+    private volatile boolean running;
+
+    @Autowired
+    public ApprovalLatencyTracker(
+            @Value("${app.approval-latency.orphan-after-seconds:300}") long orphanAfterSeconds,
+            @Value("${app.approval-latency.max-in-flight:100000}") int maxInFlight,
+            MeterRegistry meterRegistry) {
+        this(orphanAfterSeconds, maxInFlight, System::nanoTime, meterRegistry);
+    }
+
+    ApprovalLatencyTracker(
+            long orphanAfterSeconds, int maxInFlight, LongSupplier nanoClock, MeterRegistry meterRegistry) {
+        this.orphanAfterNanos = TimeUnit.SECONDS.toNanos(orphanAfterSeconds);
+        this.maxInFlight = maxInFlight;
+        this.nanoClock = nanoClock;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "approval-latency-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.latencyTimer = Timer.builder("simulator.approval.latency")
+                .description("Time from receiving a push to the accepted challenge response")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(orphanAfterSeconds))
+                .register(meterRegistry);
+        this.expiredCounter = Counter.builder("simulator.approval.orphaned")
+                .description("Pushed challenges never answered")
+                .tag("reason", "expired")
+                .register(meterRegistry);
+        this.evictedCounter = Counter.builder("simulator.approval.orphaned")
+                .description("Pushed challenges never answered")
+                .tag("reason", "evicted")
+                .register(meterRegistry);
+        this.unmatchedCounter = Counter.builder("simulator.approval.unmatched")
+                .description("Challenge responses without a push seen by this instance")
+                .register(meterRegistry);
+        Gauge.builder("simulator.approval.in-flight", this, ApprovalLatencyTracker::inFlight)
+                .description("Pushed challenges waiting for a response")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts the clock for the challenge in the given confirm token. Tokens without a
+     * readable {@code cid} claim are ignored.
+     */
+    public void pushReceived(String confirmToken) {
+        long now = nanoClock.getAsLong();
+        String challengeId = challengeId(confirmToken);
+        if (challengeId == null) {
+            return;
+        }
+        synchronized (inFlight) {
+            // a repeated push keeps the first timestamp and its place in the arrival order
+            inFlight.putIfAbsent(challengeId, now);
+            while (inFlight.size() > maxInFlight) {
+                inFlight.pollFirstEntry();
+                evictedCounter.increment();
+            }
+        }
+    }
+
+    /**
+     * Stops the clock for a challenge whose response was accepted.
+     */
+    public void challengeAnswered(String challengeId) {
+        Long receivedNanos;
+        synchronized (inFlight) {
+            receivedNanos = challengeId != null ? inFlight.remove(challengeId) : null;
+        }
+        if (receivedNanos == null) {
+            unmatchedCounter.increment();
+            return;
+        }
+        latencyTimer.record(nanoClock.getAsLong() - receivedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void expireOrphans() {
+        long expiredBefore = nanoClock.getAsLong() - orphanAfterNanos;
+        synchronized (inFlight) {
+            Map.Entry<String, Long> head;
+            while ((head = inFlight.firstEntry()) != null && head.getValue() - expiredBefore < 0) {
+                inFlight.pollFirstEntry();
+                expiredCounter.increment();
+            }
+        }
+    }
+
+    private int inFlight() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    private static String challengeId(String confirmToken) {
+        if (confirmToken == null || confirmToken.isEmpty()) {
+            return null;
+        }
+        try {
+            Object cid = JWTParser.parse(confirmToken).getJWTClaimsSet().getClaim("cid");
+            return cid instanceof String value && !value.isEmpty() ? value : null;
+        } catch (ParseException e) {
+            LOG.debug("Push data token is not a JWT, latency not tracked: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        sweeper.scheduleWithFixedDelay(this::expireOrphans, 5, 5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
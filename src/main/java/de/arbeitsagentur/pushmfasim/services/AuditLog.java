@@ -0,0 +1,185 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+/**
+ * One structured record per completed confirm, enroll or FCM send flow, written as a JSON line
+ * to the {@code audit} logger. Failures (non-2xx status) are sampled with
+ * {@code failure-sample-rate}, successes with {@code success-sample-rate}.
+ *
+ * <p>Request threads only put the record into a {@link RingBuffer}; formatting and the console
+ * appender run on the single {@code audit-writer} thread. When the buffer is full the record is
+ * dropped and counted instead of blocking the request.
+ */
+@Service
+public class AuditLog implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditLog.class);
+    private static final Logger AUDIT = LoggerFactory.getLogger("audit");
+    private static final int DRAIN_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * A completed flow. {@code details} holds flow specific identifiers such as the challenge ID.
+     */
+    public record Entry(long timestamp, String flow, int status, long durationMicros, Map<String, String> details) {
+
+        public boolean success() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private final boolean enabled;
+    private final double successSampleRate;
+    private final double failureSampleRate;
+    private final RingBuffer<Entry> buffer;
+    private final Consumer<String> sink;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Counter writtenCounter;
+    private final Counter sampledOutCounter;
+    private final Counter droppedCounter;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    @Autowired
+    public AuditLog(
+            @Value("${app.audit.enabled:true}") boolean enabled,
+            @Value("${app.audit.success-sample-rate:0.01}") double successSampleRate,
+            @Value("${app.audit.failure-sample-rate:1.0}") double failureSampleRate,
+            @Value("${app.audit.buffer-size:8192}") int bufferSize,
+            MeterRegistry meterRegistry) {
+        this(enabled, successSampleRate, failureSampleRate, bufferSize, AUDIT::info, meterRegistry);
+    }
+
+    AuditLog(
+            boolean enabled,
+            double successSampleRate,
+            double failureSampleRate,
+            int bufferSize,
+            Consumer<String> sink,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.successSampleRate = successSampleRate;
+        this.failureSampleRate = failureSampleRate;
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.sink = sink;
+        this.writtenCounter = Counter.builder("simulator.audit.written")
+                .description("Audit records written")
+                .register(meterRegistry);
+        this.sampledOutCounter = Counter.builder("simulator.audit.sampled-out")
+                .description("Audit records skipped by sampling")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("simulator.audit.dropped")
+                .description("Audit records dropped because the buffer was full")
+                .register(meterRegistry);
+        Gauge.builder("simulator.audit.buffer.size", buffer, RingBuffer::size)
+                .description("Audit records waiting for the writer")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records a completed flow if it is sampled. {@code startNanos} is a {@link System#nanoTime()}
+     * value taken when the flow started.
+     */
+    public void record(String flow, int status, long startNanos, Map<String, String> details) {
+        if (!enabled) {
+            return;
+        }
+        boolean success = status >= 200 && status < 300;
+        double rate = success ? successSampleRate : failureSampleRate;
+        if (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            sampledOutCounter.increment();
+            return;
+        }
+        long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        Entry entry = new Entry(System.currentTimeMillis(), flow, status, durationMicros, details);
+        if (!buffer.offer(entry)) {
+            droppedCounter.increment();
+        }
+    }
+
+    /**
+     * Writes all buffered records and returns how many were written.
+     */
+    int flush() {
+        int total = 0;
+        int drained;
+        while ((drained = buffer.drain(this::write, DRAIN_BATCH)) > 0) {
+            total += drained;
+        }
+        return total;
+    }
+
+    private void write(Entry entry) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("ts", Instant.ofEpochMilli(entry.timestamp()).toString());
+        line.put("flow", entry.flow());
+        line.put("outcome", entry.success() ? "success" : "failure");
+        line.put("status", entry.status());
+        line.put("durationUs", entry.durationMicros());
+        line.putAll(entry.details());
+        try {
+            sink.accept(objectMapper.writeValueAsString(line));
+            writtenCounter.increment();
+        } catch (JsonProcessingException | RuntimeException e) {
+            LOG.warn("Cannot write audit record for flow {}: {}", entry.flow(), e.getMessage());
+        }
+    }
+
+    private void runWriter() {
+        while (running) {
+            if (flush() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        flush();
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,168 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD concurrency limiter in the style of Netflix concurrency-limits.
+ * The limit grows by one for every successful call made while the limiter is at least
+ * half utilised and is multiplied by the backoff ratio whenever a call is dropped
+ * (timeout, 5xx, connection failure). Callers beyond the limit wait up to
+ * {@code maxWaitMs} for a slot, at most {@code maxQueue} of them at a time; everyone
+ * else is rejected.
+ */
+public class ConcurrencyLimiter {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long timeoutNanos;
+    private final long maxWaitNanos;
+    private final int maxQueue;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotAvailable = lock.newCondition();
+
+    private double limit;
+    private int inflight;
+    private int waiting;
+
+    public ConcurrencyLimiter(
+            String name,
+            int initialLimit,
+            int minLimit,
+            int maxLimit,
+            double backoffRatio,
+            long timeoutMs,
+            long maxWaitMs,
+            int maxQueue) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.backoffRatio = backoffRatio;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * Acquires a slot, waiting up to the configured queue time.
+     *
+     * @return the permit, or {@code null} if the call has to be rejected
+     */
+    public Permit tryAcquire() throws InterruptedException {
+        lock.lock();
+        try {
+            if (inflight < (int) limit) {
+                inflight++;
+                return new Permit();
+            }
+            if (maxWaitNanos <= 0 || waiting >= maxQueue) {
+                return null;
+            }
+            waiting++;
+            try {
+                long remaining = maxWaitNanos;
+                while (inflight >= (int) limit) {
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    remaining = slotAvailable.awaitNanos(remaining);
+                }
+                inflight++;
+                return new Permit();
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInflight() {
+        lock.lock();
+        try {
+            return inflight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Outcome outcome, long rttNanos) {
+        lock.lock();
+        try {
+            if (outcome == Outcome.DROPPED || (outcome == Outcome.SUCCESS && rttNanos > timeoutNanos)) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (outcome == Outcome.SUCCESS && inflight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            inflight--;
+            slotAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private enum Outcome {
+        SUCCESS,
+        DROPPED,
+        IGNORED
+    }
+
+    /**
+     * A slot in the limiter. Report the outcome with {@link #success()} or {@link #dropped()};
+     * closing an unreported permit releases the slot without adjusting the limit.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        public void success() {
+            complete(Outcome.SUCCESS);
+        }
+
+        public void dropped() {
+            complete(Outcome.DROPPED);
+        }
+
+        /**
+         * Treats server errors as a sign of an overloaded backend and everything else as success.
+         */
+        public void record(int statusCode) {
+            if (statusCode >= 500) {
+                dropped();
+            } else {
+                success();
+            }
+        }
+
+        @Override
+        public void close() {
+            complete(Outcome.IGNORED);
+        }
+
+        private void complete(Outcome outcome) {
+            if (released) {
+                return;
+            }
+            released = true;
+            release(outcome, System.nanoTime() - startNanos);
+        }
+    }
+}
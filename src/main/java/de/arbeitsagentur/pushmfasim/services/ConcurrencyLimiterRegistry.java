@@ -0,0 +1,94 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Holds one {@link ConcurrencyLimiter} per protected endpoint and publishes the current
+ * limit, in-flight count and rejections as metrics tagged with the endpoint name.
+ */
+@Service
+public class ConcurrencyLimiterRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimiterRegistry.class);
+
+    private final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejections = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long timeoutMs;
+    private final long maxWaitMs;
+    private final int maxQueue;
+    private final long retryAfterSeconds;
+
+    public ConcurrencyLimiterRegistry(
+            @Value("${app.limiter.enabled:true}") boolean enabled,
+            @Value("${app.limiter.initial-limit:20}") int initialLimit,
+            @Value("${app.limiter.min-limit:4}") int minLimit,
+            @Value("${app.limiter.max-limit:500}") int maxLimit,
+            @Value("${app.limiter.backoff-ratio:0.9}") double backoffRatio,
+            @Value("${app.limiter.timeout-ms:5000}") long timeoutMs,
+            @Value("${app.limiter.max-wait-ms:100}") long maxWaitMs,
+            @Value("${app.limiter.max-queue:100}") int maxQueue,
+            @Value("${app.limiter.retry-after-seconds:1}") long retryAfterSeconds,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.timeoutMs = timeoutMs;
+        this.maxWaitMs = maxWaitMs;
+        this.maxQueue = maxQueue;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Acquires a permit for the named endpoint.
+     *
+     * @throws OverloadedException if the endpoint is at its limit and no slot freed up in time
+     */
+    public ConcurrencyLimiter.Permit acquire(String endpoint) throws InterruptedException {
+        ConcurrencyLimiter limiter = limiters.computeIfAbsent(endpoint, this::createLimiter);
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            rejections.get(endpoint).increment();
+            LOG.debug("Concurrency limit {} reached for {}", limiter.getLimit(), endpoint);
+            throw new OverloadedException("Concurrency limit reached for " + endpoint, retryAfterSeconds);
+        }
+        return permit;
+    }
+
+    private ConcurrencyLimiter createLimiter(String endpoint) {
+        // a disabled limiter is a limiter that never runs out of slots
+        ConcurrencyLimiter limiter = enabled
+                ? new ConcurrencyLimiter(
+                        endpoint, initialLimit, minLimit, maxLimit, backoffRatio, timeoutMs, maxWaitMs, maxQueue)
+                : new ConcurrencyLimiter(endpoint, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 0, 0, 0);
+        Gauge.builder("simulator.limiter.limit", limiter, ConcurrencyLimiter::getLimit)
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+        Gauge.builder("simulator.limiter.inflight", limiter, ConcurrencyLimiter::getInflight)
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+        rejections.put(
+                endpoint,
+                Counter.builder("simulator.limiter.rejected")
+                        .tag("endpoint", endpoint)
+                        .register(meterRegistry));
+        return limiter;
+    }
+}
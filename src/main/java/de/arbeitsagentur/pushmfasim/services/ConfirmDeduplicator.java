@@ -0,0 +1,158 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+/**
+ * Single-flight for {@code /confirm/login}: concurrent requests for the same realm, challenge,
+ * action and user verification (double clicks, retrying harnesses, replayed pushes) share one
+ * token/pending/respond pipeline instead of all but one failing at Keycloak.
+ *
+ * <p>The first request runs the pipeline; duplicates arriving while it runs wait for its result.
+ * Only {@linkplain Outcome#definitive definitive} results are kept for {@code result-ttl-ms} (at
+ * most {@code max-results}) to answer late duplicates: the challenge was answered, or Keycloak
+ * rejected the answer. Anything else, and exceptions, is not cached, so a retry runs again.
+ */
+@Service
+public class ConfirmDeduplicator {
+
+    /**
+     * The response of one confirm pipeline run and whether a repeat would get the same one.
+     */
+    public record Outcome(ResponseEntity<String> response, boolean definitive) {
+
+        public static Outcome definitive(ResponseEntity<String> response) {
+            return new Outcome(response, true);
+        }
+
+        public static Outcome transientFailure(ResponseEntity<String> response) {
+            return new Outcome(response, false);
+        }
+    }
+
+    private record Result(String key, ResponseEntity<String> response, long storedAt) {}
+
+    private final boolean enabled;
+    private final long resultTtlNanos;
+    private final int maxResults;
+    private final LongSupplier nanoClock;
+
+    private final Map<String, CompletableFuture<ResponseEntity<String>>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    // insertion order for expiry and size eviction
+    private final ConcurrentLinkedQueue<Result> resultOrder = new ConcurrentLinkedQueue<>();
+
+    private final Counter executedCounter;
+    private final Counter joinedCounter;
+    private final Counter cachedCounter;
+
+    @Autowired
+    public ConfirmDeduplicator(
+            @Value("${app.confirm.dedup.enabled:true}") boolean enabled,
+            @Value("${app.confirm.dedup.result-ttl-ms:5000}") long resultTtlMs,
+            @Value("${app.confirm.dedup.max-results:10000}") int maxResults,
+            MeterRegistry meterRegistry) {
+        this(enabled, resultTtlMs, maxResults, System::nanoTime, meterRegistry);
+    }
+
+    ConfirmDeduplicator(
+            boolean enabled, long resultTtlMs, int maxResults, LongSupplier nanoClock, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.resultTtlNanos = TimeUnit.MILLISECONDS.toNanos(resultTtlMs);
+        this.maxResults = maxResults;
+        this.nanoClock = nanoClock;
+        this.executedCounter = Counter.builder("simulator.confirm.dedup")
+                .description("Confirm requests by how they were answered")
+                .tag("result", "executed")
+                .register(meterRegistry);
+        this.joinedCounter = Counter.builder("simulator.confirm.dedup")
+                .description("Confirm requests by how they were answered")
+                .tag("result", "joined")
+                .register(meterRegistry);
+        this.cachedCounter = Counter.builder("simulator.confirm.dedup")
+                .description("Confirm requests by how they were answered")
+                .tag("result", "cached")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code confirm} unless a confirm for the same realm, challenge, action and user
+     * verification is in flight or has just finished definitively, in which case its result is
+     * returned.
+     */
+    public ResponseEntity<String> execute(
+            String realmUrl, String challengeId, String action, String userVerification, Callable<Outcome> confirm)
+            throws Exception {
+        if (!enabled) {
+            return confirm.call().response();
+        }
+        String key = String.join("\n", realmUrl, challengeId, action, Objects.toString(userVerification, ""));
+        Result recent = results.get(key);
+        if (recent != null && nanoClock.getAsLong() - recent.storedAt() < resultTtlNanos) {
+            cachedCounter.increment();
+            return recent.response();
+        }
+        CompletableFuture<ResponseEntity<String>> flight = new CompletableFuture<>();
+        CompletableFuture<ResponseEntity<String>> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            joinedCounter.increment();
+            return await(running);
+        }
+        executedCounter.increment();
+        try {
+            Outcome outcome = confirm.call();
+            ResponseEntity<String> response = outcome.response();
+            if (outcome.definitive()) {
+                // stored before the flight ends, so a newcomer either joins or finds the result
+                store(new Result(key, response, nanoClock.getAsLong()));
+            }
+            flight.complete(response);
+            return response;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static ResponseEntity<String> await(CompletableFuture<ResponseEntity<String>> flight) throws Exception {
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    private void store(Result result) {
+        results.put(result.key(), result);
+        resultOrder.add(result);
+        long expiredBefore = result.storedAt() - resultTtlNanos;
+        Result oldest;
+        while ((oldest = resultOrder.peek()) != null
+                && (results.size() > maxResults || oldest.storedAt() - expiredBefore <= 0)) {
+            resultOrder.poll();
+            results.remove(oldest.key(), oldest);
+        }
+    }
+
+    int cachedResults() {
+        return results.size();
+    }
+}
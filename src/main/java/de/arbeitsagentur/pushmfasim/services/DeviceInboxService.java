@@ -0,0 +1,269 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory inbox per device token, so polling clients can fetch their pushes without an open
+ * SSE stream. Every message gets a global sequence number that serves as the read cursor.
+ *
+ * <p>Entries are evicted when a token holds more than {@code max-messages-per-token}, when they
+ * are older than {@code ttl-seconds}, and oldest-first across all tokens while the estimated
+ * size of all inboxes exceeds {@code max-total-bytes}.
+ *
+ * <p>The inboxes and the arrival order across them are changed together under one lock, so every
+ * stored message is in both and counted in the size exactly once.
+ */
+@Service
+public class DeviceInboxService implements SmartLifecycle, FcmMessageListener {
+
+    public record InboxMessage(long sequence, long receivedAt, FcmMessageRequestMessage message) {}
+
+    public record InboxPage(List<InboxMessage> messages, long cursor) {}
+
+    private record Slot(String token, InboxMessage message, long size) {}
+
+    private final boolean enabled;
+    private final int maxMessagesPerToken;
+    private final long ttlMs;
+    private final long maxTotalBytes;
+    private final Clock clock;
+
+    private final Map<String, Deque<Slot>> inboxes = new ConcurrentHashMap<>();
+    // all stored slots by sequence number, which is arrival order; for TTL and memory cap eviction
+    private final LinkedHashMap<Long, Slot> arrivalOrder = new LinkedHashMap<>();
+    // guards the inboxes and arrivalOrder
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+    private final List<Consumer<String>> arrivalListeners = new CopyOnWriteArrayList<>();
+
+    private final Counter evictedCounter;
+
+    private volatile boolean running;
+
+    @Autowired
+    public DeviceInboxService(
+            @Value("${app.inbox.enabled:true}") boolean enabled,
+            @Value("${app.inbox.max-messages-per-token:100}") int maxMessagesPerToken,
+            @Value("${app.inbox.ttl-seconds:600}") long ttlSeconds,
+            @Value("${app.inbox.max-total-bytes:67108864}") long maxTotalBytes,
+            MeterRegistry meterRegistry) {
+        this(enabled, maxMessagesPerToken, ttlSeconds, maxTotalBytes, Clock.systemUTC(), meterRegistry);
+    }
+
+    DeviceInboxService(
+            boolean enabled,
+            int maxMessagesPerToken,
+            long ttlSeconds,
+            long maxTotalBytes,
+            Clock clock,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.maxMessagesPerToken = maxMessagesPerToken;
+        this.ttlMs = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.maxTotalBytes = maxTotalBytes;
+        this.clock = clock;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inbox-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictedCounter = Counter.builder("simulator.inbox.evicted")
+                .description("Inbox messages removed by TTL, per-token or memory limits")
+                .register(meterRegistry);
+        Gauge.builder("simulator.inbox.bytes", totalBytes, AtomicLong::get)
+                .description("Estimated size of all device inboxes")
+                .register(meterRegistry);
+        Gauge.builder("simulator.inbox.tokens", inboxes, Map::size)
+                .description("Device tokens with a non-empty inbox")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void onMessage(FcmMessageRequestMessage message) {
+        if (!enabled || message.getToken() == null) {
+            return;
+        }
+        String token = message.getToken();
+        long size = estimateSize(message);
+        lock.lock();
+        try {
+            // numbered under the lock so the inboxes and the arrival order stay ordered by sequence
+            Slot slot = new Slot(token, new InboxMessage(sequence.incrementAndGet(), clock.millis(), message), size);
+            Deque<Slot> inbox = inboxes.computeIfAbsent(token, t -> new ArrayDeque<>());
+            inbox.addLast(slot);
+            arrivalOrder.put(slot.message().sequence(), slot);
+            totalBytes.addAndGet(size);
+            while (inbox.size() > maxMessagesPerToken) {
+                evicted(inbox.removeFirst());
+            }
+            while (totalBytes.get() > maxTotalBytes && evictOldest()) {
+                // keep evicting until the cap holds again
+            }
+        } finally {
+            lock.unlock();
+        }
+        arrivalListeners.forEach(listener -> listener.accept(message.getToken()));
+    }
+
+    /**
+     * Returns up to {@code limit} messages for the token with a sequence number greater than
+     * {@code cursor}, oldest first. The returned cursor is passed in by the next call.
+     */
+    public InboxPage messagesSince(String token, long cursor, int limit) {
+        long notBefore = clock.millis() - ttlMs;
+        List<InboxMessage> messages = new ArrayList<>();
+        long next = cursor;
+        lock.lock();
+        try {
+            Deque<Slot> inbox = inboxes.get(token);
+            if (inbox != null) {
+                for (Slot slot : inbox) {
+                    InboxMessage message = slot.message();
+                    if (message.sequence() <= cursor || message.receivedAt() < notBefore) {
+                        continue;
+                    }
+                    if (messages.size() == limit) {
+                        break;
+                    }
+                    messages.add(message);
+                    next = message.sequence();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new InboxPage(messages, next);
+    }
+
+    /**
+     * Registers a callback that receives the device token after a message was stored for it.
+     */
+    public void addArrivalListener(Consumer<String> listener) {
+        arrivalListeners.add(listener);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sequence number of the newest message received so far, on any token.
+     */
+    public long currentSequence() {
+        return sequence.get();
+    }
+
+    void evictExpired() {
+        long notBefore = clock.millis() - ttlMs;
+        lock.lock();
+        try {
+            Map.Entry<Long, Slot> head;
+            while ((head = arrivalOrder.firstEntry()) != null
+                    && head.getValue().message().receivedAt() < notBefore) {
+                evictOldest();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Messages stored across all inboxes.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return arrivalOrder.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // called with the lock held
+    private boolean evictOldest() {
+        Map.Entry<Long, Slot> oldest = arrivalOrder.firstEntry();
+        if (oldest == null) {
+            return false;
+        }
+        Slot slot = oldest.getValue();
+        Deque<Slot> inbox = inboxes.get(slot.token());
+        // every inbox is ordered by sequence, so the oldest slot overall is at the head of its inbox
+        evicted(inbox.removeFirst());
+        if (inbox.isEmpty()) {
+            inboxes.remove(slot.token());
+        }
+        return true;
+    }
+
+    // called with the lock held, after the slot was taken from its inbox
+    private void evicted(Slot slot) {
+        arrivalOrder.remove(slot.message().sequence());
+        totalBytes.addAndGet(-slot.size());
+        evictedCounter.increment();
+    }
+
+    private static long estimateSize(FcmMessageRequestMessage message) {
+        // object headers and references, strings as two bytes per char
+        long size = 160;
+        size += length(message.getToken());
+        FcmMessageNotification notification = message.getNotification();
+        if (notification != null) {
+            size += length(notification.getTitle()) + length(notification.getBody());
+        }
+        FcmMessageData data = message.getData();
+        if (data != null) {
+            size += length(data.getToken());
+        }
+        return size;
+    }
+
+    private static long length(String value) {
+        return value != null ? 40L + 2L * value.length() : 0;
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        sweeper.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,259 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.nimbusds.jose.jwk.JWK;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Generates device key pairs in bulk and serves them from a {@link DeviceKeystore}.
+ *
+ * <p>Credential IDs have the form {@code <userId>-device-alias-<context>} that the enroll flow
+ * builds and the confirm flow reads from the {@code credId} claim, and keys are RS256 because
+ * both flows sign with it.
+ *
+ * <p>Key pairs are generated in batches on a fork-join pool with one worker per core. While the
+ * calling thread writes one batch to the keystore file, the pool already generates the next, so
+ * at most two batches are held in memory regardless of the key count. The file is written next
+ * to the target and moved into place when complete.
+ *
+ * <p>The keystore at {@code app.keystore.path} is mapped at startup and after every provisioning
+ * run into that path, so {@link #find(String)} serves the new keys right away.
+ */
+@Service
+public class DeviceKeyProvisioner implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceKeyProvisioner.class);
+    private static final int KEYS_PER_WORKER_BATCH = 16;
+    private static final String DEVICE_ALIAS = "-device-alias-";
+
+    public static final String DEFAULT_ID_PATTERN = "user-%d" + DEVICE_ALIAS + "phone";
+
+    public record Result(int count, DeviceKeystore.Algorithm algorithm, String path, long durationMs) {}
+
+    private final Path keystorePath;
+    private final int maxCount;
+    private final ForkJoinPool pool;
+    private final AtomicBoolean provisioning = new AtomicBoolean();
+    private final Counter generatedCounter;
+
+    private volatile DeviceKeystore keystore;
+
+    @Autowired
+    public DeviceKeyProvisioner(
+            @Value("${app.keystore.path:static/keys/devices.keystore}") String keystorePath,
+            @Value("${app.keystore.max-count:1000000}") int maxCount,
+            MeterRegistry meterRegistry) {
+        this(Path.of(keystorePath), maxCount, Runtime.getRuntime().availableProcessors(), meterRegistry);
+    }
+
+    DeviceKeyProvisioner(Path keystorePath, int maxCount, int parallelism, MeterRegistry meterRegistry) {
+        this.keystorePath = keystorePath;
+        this.maxCount = maxCount;
+        this.pool = new ForkJoinPool(
+                parallelism,
+                forkJoinPool -> {
+                    var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                    thread.setName("key-provisioner-" + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                null,
+                false);
+        this.generatedCounter = Counter.builder("simulator.keystore.generated")
+                .description("Device key pairs generated by bulk provisioning")
+                .register(meterRegistry);
+        Gauge.builder("simulator.keystore.keys", this, provisioner -> {
+                    DeviceKeystore current = provisioner.keystore;
+                    return current != null ? current.size() : 0;
+                })
+                .description("Key pairs in the mapped device keystore")
+                .register(meterRegistry);
+        if (Files.isRegularFile(keystorePath)) {
+            try {
+                keystore = DeviceKeystore.map(keystorePath);
+                LOG.info("Mapped device keystore {} with {} keys", keystorePath, keystore.size());
+            } catch (IOException e) {
+                LOG.warn("Cannot map device keystore {}: {}", keystorePath, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Generates {@code count} key pairs into the configured keystore and maps it. Credential IDs
+     * are {@code String.format(idPattern, i)} for {@code i} from 0.
+     *
+     * @throws IllegalArgumentException for counts out of range, algorithms other than RS256 or a
+     *     pattern without an index or not of the credential ID form
+     * @throws IllegalStateException if another provisioning run is in progress
+     */
+    public Result provision(int count, DeviceKeystore.Algorithm algorithm, String idPattern) throws IOException {
+        Result result = provision(count, algorithm, idPattern, keystorePath);
+        keystore = DeviceKeystore.map(keystorePath);
+        return result;
+    }
+
+    /**
+     * Generates {@code count} key pairs into the keystore file at {@code target}.
+     */
+    public Result provision(int count, DeviceKeystore.Algorithm algorithm, String idPattern, Path target)
+            throws IOException {
+        if (count < 1 || count > maxCount) {
+            throw new IllegalArgumentException("count must be between 1 and " + maxCount);
+        }
+        if (algorithm != DeviceKeystore.Algorithm.RS256) {
+            throw new IllegalArgumentException(
+                    algorithm + " keys are not supported, the enroll and confirm flows sign with RS256");
+        }
+        String firstId = String.format(idPattern, 0);
+        if (firstId.equals(String.format(idPattern, 1))) {
+            throw new IllegalArgumentException("idPattern must contain the key index, e.g. " + DEFAULT_ID_PATTERN);
+        }
+        int alias = firstId.indexOf(DEVICE_ALIAS);
+        if (alias < 1 || alias + DEVICE_ALIAS.length() == firstId.length()) {
+            throw new IllegalArgumentException(
+                    "idPattern must produce credential IDs <userId>-device-alias-<context>, e.g. "
+                            + DEFAULT_ID_PATTERN);
+        }
+        if (!provisioning.compareAndSet(false, true)) {
+            throw new IllegalStateException("Provisioning is already running");
+        }
+        long startedAt = System.nanoTime();
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            try (DeviceKeystore.Writer writer = DeviceKeystore.writer(temporary)) {
+                int batchSize = pool.getParallelism() * KEYS_PER_WORKER_BATCH;
+                ForkJoinTask<List<KeyPair>> next = submitBatch(algorithm, 0, Math.min(batchSize, count));
+                for (int from = 0; from < count; ) {
+                    List<KeyPair> batch = next.get();
+                    int batchStart = from;
+                    from += batch.size();
+                    next = from < count ? submitBatch(algorithm, from, Math.min(from + batchSize, count)) : null;
+                    for (int i = 0; i < batch.size(); i++) {
+                        writer.add(String.format(idPattern, batchStart + i), algorithm, batch.get(i));
+                    }
+                    generatedCounter.increment(batch.size());
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating keys", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Key generation failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            Files.deleteIfExists(temporary);
+            provisioning.set(false);
+        }
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        LOG.info("Provisioned {} {} keys into {} in {} ms", count, algorithm, target, durationMs);
+        return new Result(count, algorithm, target.toString(), durationMs);
+    }
+
+    private ForkJoinTask<List<KeyPair>> submitBatch(DeviceKeystore.Algorithm algorithm, int from, int to) {
+        // a parallel stream started inside the pool runs on the pool's workers
+        return pool.submit(() -> IntStream.range(from, to)
+                .parallel()
+                .mapToObj(i -> generate(algorithm))
+                .toList());
+    }
+
+    static KeyPair generate(DeviceKeystore.Algorithm algorithm) {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm.keyType());
+            switch (algorithm) {
+                case RS256 -> generator.initialize(2048);
+                case ES256 -> generator.initialize(new ECGenParameterSpec("secp256r1"));
+            }
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot generate " + algorithm + " key pair", e);
+        }
+    }
+
+    /**
+     * Returns the private JWK for the credential ID from the mapped keystore, or {@code null} if
+     * no keystore is mapped or it has no key for the ID.
+     */
+    public JWK find(String credentialId) {
+        DeviceKeystore current = keystore;
+        if (current == null || credentialId == null) {
+            return null;
+        }
+        try {
+            return current.find(credentialId);
+        } catch (IOException e) {
+            LOG.warn("Cannot read key for credential {}: {}", credentialId, e.getMessage());
+            return null;
+        }
+    }
+
+    public int size() {
+        DeviceKeystore current = keystore;
+        return current != null ? current.size() : 0;
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Command line entry point, see {@code provision-keys} in {@code MainApplication}.
+     */
+    public static void runCommand(String... args) throws IOException {
+        int count = 1000;
+        DeviceKeystore.Algorithm algorithm = DeviceKeystore.Algorithm.RS256;
+        String idPattern = DEFAULT_ID_PATTERN;
+        Path out = Path.of("static/keys/devices.keystore");
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--count=")) {
+                count = Integer.parseInt(value);
+            } else if (arg.startsWith("--algorithm=")) {
+                algorithm = DeviceKeystore.Algorithm.valueOf(value);
+            } else if (arg.startsWith("--id-pattern=")) {
+                idPattern = value;
+            } else if (arg.startsWith("--out=")) {
+                out = Path.of(value);
+            } else {
+                throw new IllegalArgumentException(
+                        "Unknown option " + arg + ", expected --count=, --algorithm=RS256, --id-pattern= or --out=");
+            }
+        }
+        DeviceKeyProvisioner provisioner = new DeviceKeyProvisioner(
+                out, Integer.MAX_VALUE, Runtime.getRuntime().availableProcessors(), new SimpleMeterRegistry());
+        try {
+            Result result = provisioner.provision(count, algorithm, idPattern, out);
+            System.out.printf(
+                    "Wrote %d %s keys to %s in %d ms%n",
+                    result.count(), result.algorithm(), result.path(), result.durationMs());
+        } finally {
+            provisioner.destroy();
+        }
+    }
+}
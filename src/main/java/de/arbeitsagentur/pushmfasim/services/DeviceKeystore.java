@@ -0,0 +1,295 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * Read-only, memory-mapped file of device key pairs, looked up by credential ID without
+ * parsing JSON. Files are written with {@link #writer(Path)}.
+ *
+ * <p>Layout: a header {@code magic:int version:short reserved:short count:int reserved:int
+ * indexOffset:long}, then one record per key {@code idLength:short id:utf8 algorithm:byte
+ * publicLength:short publicKey:X.509 privateLength:short privateKey:PKCS#8}, then the index:
+ * {@code count} entries {@code idHash:long recordOffset:long} sorted by hash. Lookups binary
+ * search the index and compare the ID of every record with a matching hash.
+ */
+public final class DeviceKeystore {
+
+    static final int MAGIC = 0x504D4B53; // "PMKS"
+    static final short VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * Key algorithms a keystore can hold, with the code stored per record.
+     */
+    public enum Algorithm {
+        RS256(1, "RSA"),
+        ES256(2, "EC");
+
+        private final byte code;
+        private final String keyType;
+
+        Algorithm(int code, String keyType) {
+            this.code = (byte) code;
+            this.keyType = keyType;
+        }
+
+        public String keyType() {
+            return keyType;
+        }
+
+        static Algorithm of(byte code) throws IOException {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.code == code) {
+                    return algorithm;
+                }
+            }
+            throw new IOException("Unknown key algorithm code " + code);
+        }
+    }
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int indexOffset;
+
+    private DeviceKeystore(Path path, MappedByteBuffer buffer, int count, int indexOffset) {
+        this.path = path;
+        this.buffer = buffer;
+        this.count = count;
+        this.indexOffset = indexOffset;
+    }
+
+    /**
+     * Maps the keystore file; only the header is read.
+     */
+    public static DeviceKeystore map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Keystore " + path + " is larger than 2 GiB");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a device keystore");
+            }
+            if (buffer.getShort(4) != VERSION) {
+                throw new IOException("Unsupported keystore version " + buffer.getShort(4));
+            }
+            int count = buffer.getInt(8);
+            long indexOffset = buffer.getLong(16);
+            if (indexOffset < HEADER_SIZE || indexOffset + (long) count * INDEX_ENTRY_SIZE > buffer.limit()) {
+                throw new IOException("Keystore " + path + " is truncated");
+            }
+            return new DeviceKeystore(path, buffer, count, (int) indexOffset);
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the key pair stored under the credential ID as a private JWK with the credential
+     * ID as key ID, or {@code null} if there is none.
+     */
+    public JWK find(String credentialId) throws IOException {
+        byte[] id = credentialId.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(id);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midHash = buffer.getLong(indexOffset + mid * INDEX_ENTRY_SIZE);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // low is the first entry with a hash >= the one searched for
+        for (int entry = low; entry < count; entry++) {
+            int position = indexOffset + entry * INDEX_ENTRY_SIZE;
+            if (buffer.getLong(position) != hash) {
+                return null;
+            }
+            int recordOffset = (int) buffer.getLong(position + 8);
+            if (idMatches(recordOffset, id)) {
+                return readKey(recordOffset, credentialId);
+            }
+        }
+        return null;
+    }
+
+    private boolean idMatches(int recordOffset, byte[] id) {
+        if ((buffer.getShort(recordOffset) & 0xFFFF) != id.length) {
+            return false;
+        }
+        byte[] stored = new byte[id.length];
+        buffer.get(recordOffset + 2, stored);
+        return Arrays.equals(stored, id);
+    }
+
+    private JWK readKey(int recordOffset, String credentialId) throws IOException {
+        int position = recordOffset + 2 + (buffer.getShort(recordOffset) & 0xFFFF);
+        Algorithm algorithm = Algorithm.of(buffer.get(position));
+        position++;
+        byte[] publicKey = new byte[buffer.getShort(position) & 0xFFFF];
+        buffer.get(position + 2, publicKey);
+        position += 2 + publicKey.length;
+        byte[] privateKey = new byte[buffer.getShort(position) & 0xFFFF];
+        buffer.get(position + 2, privateKey);
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance(algorithm.keyType());
+            KeyPair keyPair = new KeyPair(
+                    keyFactory.generatePublic(new X509EncodedKeySpec(publicKey)),
+                    keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+            return toJwk(credentialId, algorithm, keyPair);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Corrupt key for credential " + credentialId, e);
+        }
+    }
+
+    static JWK toJwk(String credentialId, Algorithm algorithm, KeyPair keyPair) {
+        return switch (algorithm) {
+            case RS256 ->
+                new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                        .privateKey((RSAPrivateKey) keyPair.getPrivate())
+                        .keyID(credentialId)
+                        .keyUse(KeyUse.SIGNATURE)
+                        .algorithm(JWSAlgorithm.RS256)
+                        .build();
+            case ES256 ->
+                new ECKey.Builder(Curve.P_256, (ECPublicKey) keyPair.getPublic())
+                        .privateKey((ECPrivateKey) keyPair.getPrivate())
+                        .keyID(credentialId)
+                        .keyUse(KeyUse.SIGNATURE)
+                        .algorithm(JWSAlgorithm.ES256)
+                        .build();
+        };
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 credential ID.
+     */
+    static long hash(byte[] id) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : id) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Opens a writer that streams records into the file and appends the index on close.
+     */
+    public static Writer writer(Path path) throws IOException {
+        return new Writer(path);
+    }
+
+    /**
+     * Streams key records into a keystore file. Only the 16 byte index entry per key is kept in
+     * memory until {@link #close()} writes the index and header.
+     */
+    public static final class Writer implements Closeable {
+        private final Path path;
+        private final DataOutputStream out;
+        private long[] index = new long[2048];
+        private int count;
+        private long position = HEADER_SIZE;
+
+        private Writer(Path path) throws IOException {
+            this.path = path;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        public void add(String credentialId, Algorithm algorithm, KeyPair keyPair) throws IOException {
+            byte[] id = credentialId.getBytes(StandardCharsets.UTF_8);
+            byte[] publicKey = keyPair.getPublic().getEncoded();
+            byte[] privateKey = keyPair.getPrivate().getEncoded();
+            if (id.length > 0xFFFF || publicKey.length > 0xFFFF || privateKey.length > 0xFFFF) {
+                throw new IOException("Credential ID or key too long for credential " + credentialId);
+            }
+            int recordSize = 2 + id.length + 1 + 2 + publicKey.length + 2 + privateKey.length;
+            if (position + recordSize > Integer.MAX_VALUE) {
+                throw new IOException("Keystore would exceed 2 GiB after " + count + " keys");
+            }
+            if (count * 2 == index.length) {
+                index = Arrays.copyOf(index, index.length * 2);
+            }
+            index[count * 2] = hash(id);
+            index[count * 2 + 1] = position;
+            count++;
+            out.writeShort(id.length);
+            out.write(id);
+            out.writeByte(algorithm.code);
+            out.writeShort(publicKey.length);
+            out.write(publicKey);
+            out.writeShort(privateKey.length);
+            out.write(privateKey);
+            position += recordSize;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long indexOffset = position;
+            Long[] order = new Long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = (long) i;
+            }
+            // sort by hash, records with equal hashes stay in write order
+            Arrays.sort(order, (a, b) -> Long.compare(index[(int) (a * 2)], index[(int) (b * 2)]));
+            for (Long entry : order) {
+                out.writeLong(index[(int) (entry * 2)]);
+                out.writeLong(index[(int) (entry * 2 + 1)]);
+            }
+            out.close();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort((short) 0)
+                    .putInt(count)
+                    .putInt(0)
+                    .putLong(indexOffset)
+                    .flip();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.write(header, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding for relaying batches of FCM messages between replicas.
+ *
+ * <pre>
+ * frame   := magic(0x46) version(3) origin:string count:varint message*
+ * message := presence:byte [token] [title] [body] [dataToken] [project] [rawJson:bytes]
+ *            (bits 0..3, 6 and 7: which fields follow, bits 4..5: notification / data object present)
+ * string  := length:varint utf8-bytes
+ * bytes   := length:varint bytes
+ * </pre>
+ *
+ * Version 2 added the project, version 3 the message JSON as the sender posted it, so that
+ * subscribers on every replica receive the same JSON. Frames of versions 1 and 2 are still read,
+ * version 1 with the default project.
+ */
+public final class FcmMessageCodec {
+
+    private static final byte MAGIC = 0x46;
+    private static final byte VERSION = 3;
+
+    private static final int HAS_TOKEN = 1;
+    private static final int HAS_TITLE = 1 << 1;
+    private static final int HAS_BODY = 1 << 2;
+    private static final int HAS_DATA_TOKEN = 1 << 3;
+    private static final int HAS_NOTIFICATION = 1 << 4;
+    private static final int HAS_DATA = 1 << 5;
+    private static final int HAS_PROJECT = 1 << 6;
+    private static final int HAS_RAW_JSON = 1 << 7;
+
+    private FcmMessageCodec() {}
+
+    public record Frame(String origin, List<FcmMessageRequestMessage> messages) {}
+
+    public static byte[] encode(String origin, List<FcmMessageRequestMessage> messages) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + messages.size() * 256);
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeString(out, origin);
+        writeVarInt(out, messages.size());
+        for (FcmMessageRequestMessage message : messages) {
+            FcmMessageNotification notification = message.getNotification();
+            FcmMessageData data = message.getData();
+            String title = notification != null ? notification.getTitle() : null;
+            String body = notification != null ? notification.getBody() : null;
+            String dataToken = data != null ? data.getToken() : null;
+
+            int presence = 0;
+            presence |= message.getToken() != null ? HAS_TOKEN : 0;
+            presence |= title != null ? HAS_TITLE : 0;
+            presence |= body != null ? HAS_BODY : 0;
+            presence |= dataToken != null ? HAS_DATA_TOKEN : 0;
+            presence |= notification != null ? HAS_NOTIFICATION : 0;
+            presence |= data != null ? HAS_DATA : 0;
+            presence |= message.getProject() != null ? HAS_PROJECT : 0;
+            presence |= message.getRawJson() != null ? HAS_RAW_JSON : 0;
+            out.write(presence);
+
+            writeOptional(out, message.getToken());
+            writeOptional(out, title);
+            writeOptional(out, body);
+            writeOptional(out, dataToken);
+            writeOptional(out, message.getProject());
+            if (message.getRawJson() != null) {
+                writeBytes(out, message.getRawJson());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static Frame decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            byte magic = in.get();
+            byte version = in.get();
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                throw new IllegalArgumentException("Not a relay frame");
+            }
+            String origin = readString(in);
+            int count = readVarInt(in);
+            List<FcmMessageRequestMessage> messages = new ArrayList<>(Math.min(count, in.remaining()));
+            for (int i = 0; i < count; i++) {
+                int presence = in.get() & 0xFF;
+                String token = (presence & HAS_TOKEN) != 0 ? readString(in) : null;
+                String title = (presence & HAS_TITLE) != 0 ? readString(in) : null;
+                String body = (presence & HAS_BODY) != 0 ? readString(in) : null;
+                String dataToken = (presence & HAS_DATA_TOKEN) != 0 ? readString(in) : null;
+                String project = (presence & HAS_PROJECT) != 0 ? readString(in) : null;
+                byte[] rawJson = version >= 3 && (presence & HAS_RAW_JSON) != 0 ? readBytes(in) : null;
+                messages.add(FcmMessageRequestMessage.builder()
+                        .token(token)
+                        .notification(
+                                (presence & HAS_NOTIFICATION) != 0 ? new FcmMessageNotification(title, body) : null)
+                        .data((presence & HAS_DATA) != 0 ? new FcmMessageData(dataToken) : null)
+                        .project(project)
+                        .rawJson(rawJson)
+                        .build());
+            }
+            return new Frame(origin, messages);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated relay frame", e);
+        }
+    }
+
+    private static void writeOptional(ByteArrayOutputStream out, String value) {
+        if (value != null) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, utf8.length);
+        out.write(utf8, 0, utf8.length);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] value) {
+        writeVarInt(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated relay frame");
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return value;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated relay frame");
+        }
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in relay frame");
+    }
+}
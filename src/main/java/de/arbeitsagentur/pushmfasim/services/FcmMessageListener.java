@@ -0,0 +1,12 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+
+/**
+ * Local delivery channel for FCM messages. Every listener bean receives each message published
+ * on the {@link MessageBus}, whether it was posted to this replica or relayed from a peer.
+ */
+public interface FcmMessageListener {
+
+    void onMessage(FcmMessageRequestMessage message);
+}
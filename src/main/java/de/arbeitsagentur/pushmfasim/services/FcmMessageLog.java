@@ -0,0 +1,438 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+/**
+ * Append-only log of received FCM messages, written to memory-mapped segment files.
+ *
+ * <p>The request thread only enqueues the message; a single writer thread appends it to the
+ * current segment and rotates to a new segment when it is full. Only the newest
+ * {@code max-segments} segments are kept. On start the newest {@code max-segments} existing
+ * segments are scanned to rebuild the per-token index, so the log survives restarts; older ones
+ * are deleted.
+ *
+ * <p>Record layout: {@code length:int timestamp:long project token title body dataToken},
+ * strings as {@code length:int utf8} with -1 for null. A zero length marks the end of a segment.
+ * A record that does not parse, such as one torn by a crash, also ends its segment: recovery
+ * cuts the segment off there and appends after the last intact record.
+ */
+@Service
+public class FcmMessageLog implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FcmMessageLog.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    public record Entry(long timestamp, String project, String token, String title, String body, String dataToken) {}
+
+    private record Pending(long timestamp, String project, FcmMessageRequestMessage message) {}
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int maxIndexEntriesPerToken;
+    private final BlockingQueue<Pending> queue;
+
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final Map<String, Deque<Long>> tokenIndex = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Counter appendedCounter;
+    private final Counter droppedCounter;
+
+    private MappedByteBuffer current;
+    private long currentSegment = -1;
+    private Thread writer;
+    private volatile boolean running;
+
+    public FcmMessageLog(
+            @Value("${app.message-log.enabled:false}") boolean enabled,
+            @Value("${app.message-log.directory:fcm-message-log}") String directory,
+            @Value("${app.message-log.segment-size-bytes:67108864}") int segmentSize,
+            @Value("${app.message-log.max-segments:8}") int maxSegments,
+            @Value("${app.message-log.queue-capacity:65536}") int queueCapacity,
+            @Value("${app.message-log.max-index-entries-per-token:1000}") int maxIndexEntriesPerToken,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.maxIndexEntriesPerToken = maxIndexEntriesPerToken;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.appendedCounter = Counter.builder("simulator.message-log.appended")
+                .description("FCM messages written to the message log")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("simulator.message-log.dropped")
+                .description("FCM messages not logged because the write queue was full")
+                .register(meterRegistry);
+        Gauge.builder("simulator.message-log.queue.size", queue, BlockingQueue::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues a message for logging. Never blocks; drops the entry if the writer falls behind.
+     */
+    public void append(String project, FcmMessageRequestMessage message) {
+        if (!enabled || !running) {
+            return;
+        }
+        if (!queue.offer(new Pending(System.currentTimeMillis(), project, message))) {
+            droppedCounter.increment();
+        }
+    }
+
+    /**
+     * Sequential scan over all retained segments, oldest first.
+     */
+    public List<Entry> scan(long sinceTimestamp, int limit) {
+        List<Entry> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (MappedByteBuffer segment : segments.values()) {
+                MappedByteBuffer view = segment.duplicate();
+                view.position(0);
+                Entry entry;
+                while (result.size() < limit && (entry = readNext(view)) != null) {
+                    if (entry.timestamp() >= sinceTimestamp) {
+                        result.add(entry);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the most recent entries for a device token, oldest first, via the token index.
+     */
+    public List<Entry> findByToken(String token, int limit) {
+        Deque<Long> positions = tokenIndex.get(token);
+        if (positions == null) {
+            return List.of();
+        }
+        List<Long> snapshot;
+        synchronized (positions) {
+            snapshot = new ArrayList<>(positions);
+        }
+        List<Entry> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int i = Math.max(0, snapshot.size() - limit); i < snapshot.size(); i++) {
+                long position = snapshot.get(i);
+                MappedByteBuffer segment = segments.get(position >>> 32);
+                if (segment == null) {
+                    // segment already removed by retention
+                    continue;
+                }
+                MappedByteBuffer view = segment.duplicate();
+                view.position((int) position);
+                Entry entry = readNext(view);
+                if (entry != null) {
+                    result.add(entry);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private void runWriter() {
+        List<Pending> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, 1023);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                LOG.error("Writing to FCM message log failed: {}", e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        lock.writeLock().lock();
+        try {
+            for (Pending pending : batch) {
+                byte[] record = encode(pending);
+                if (record.length + Integer.BYTES > segmentSize) {
+                    LOG.warn("FCM message of {} bytes exceeds the segment size, not logged", record.length);
+                    droppedCounter.increment();
+                    continue;
+                }
+                if (current == null || current.remaining() < record.length + Integer.BYTES) {
+                    rotate();
+                }
+                long position = (currentSegment << 32) | current.position();
+                current.put(record);
+                index(pending.message().getToken(), position);
+                appendedCounter.increment();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rotate() {
+        if (current != null) {
+            current.force();
+        }
+        currentSegment++;
+        current = map(segmentPath(currentSegment));
+        segments.put(currentSegment, current);
+        while (segments.size() > maxSegments) {
+            Map.Entry<Long, MappedByteBuffer> oldest = segments.pollFirstEntry();
+            deleteSegment(segmentPath(oldest.getKey()));
+            pruneIndex(oldest.getKey());
+        }
+    }
+
+    private static void deleteSegment(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Could not delete expired segment {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    private void index(String token, long position) {
+        if (token == null) {
+            return;
+        }
+        Deque<Long> positions = tokenIndex.computeIfAbsent(token, t -> new ArrayDeque<>());
+        synchronized (positions) {
+            positions.addLast(position);
+            if (positions.size() > maxIndexEntriesPerToken) {
+                positions.removeFirst();
+            }
+        }
+    }
+
+    private void pruneIndex(long removedSegment) {
+        Iterator<Map.Entry<String, Deque<Long>>> iterator =
+                tokenIndex.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Deque<Long> positions = iterator.next().getValue();
+            synchronized (positions) {
+                positions.removeIf(position -> (position >>> 32) <= removedSegment);
+                if (positions.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .toList();
+        }
+        // retention as if the segments had been rotated in this run
+        int expired = Math.max(0, files.size() - maxSegments);
+        files.subList(0, expired).forEach(FcmMessageLog::deleteSegment);
+        for (Path file : files.subList(expired, files.size())) {
+            String name = file.getFileName().toString();
+            long number =
+                    Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            MappedByteBuffer segment = map(file);
+            segments.put(number, segment);
+            Entry entry;
+            int position = 0;
+            while ((entry = readNext(segment)) != null) {
+                index(entry.token(), (number << 32) | position);
+                position = segment.position();
+            }
+            if (position <= segment.capacity() - Integer.BYTES && segment.getInt(position) != 0) {
+                LOG.warn("Malformed record at offset {} of {}, segment truncated there", position, name);
+                truncate(segment, position);
+            }
+            segment.position(position);
+            current = segment;
+            currentSegment = number;
+        }
+        LOG.info("FCM message log opened in {} with {} segment(s)", directory.toAbsolutePath(), segments.size());
+    }
+
+    private static void truncate(MappedByteBuffer segment, int position) {
+        byte[] zeros = new byte[8192];
+        for (int offset = position; offset < segment.capacity(); offset += zeros.length) {
+            segment.put(offset, zeros, 0, Math.min(zeros.length, segment.capacity() - offset));
+        }
+        segment.force();
+    }
+
+    private MappedByteBuffer map(Path file) {
+        try (FileChannel channel =
+                FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map log segment " + file, e);
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] encode(Pending pending) {
+        FcmMessageRequestMessage message = pending.message();
+        byte[][] strings = {
+            utf8(pending.project()),
+            utf8(message.getToken()),
+            utf8(message.getNotification() != null ? message.getNotification().getTitle() : null),
+            utf8(message.getNotification() != null ? message.getNotification().getBody() : null),
+            utf8(message.getData() != null ? message.getData().getToken() : null)
+        };
+        int length = Long.BYTES;
+        for (byte[] string : strings) {
+            length += Integer.BYTES + (string != null ? string.length : 0);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + length);
+        buffer.putInt(length).putLong(pending.timestamp());
+        for (byte[] string : strings) {
+            buffer.putInt(string != null ? string.length : -1);
+            if (string != null) {
+                buffer.put(string);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads the record at the buffer's position and moves past it; returns null, without moving,
+     * at the end of the segment or if the record is malformed.
+     */
+    private static Entry readNext(ByteBuffer buffer) {
+        if (buffer.remaining() < Integer.BYTES) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length <= 0 || length > buffer.remaining() - Integer.BYTES) {
+            return null;
+        }
+        ByteBuffer record = buffer.slice(buffer.position() + Integer.BYTES, length);
+        Entry entry;
+        try {
+            entry = new Entry(
+                    record.getLong(),
+                    readString(record),
+                    readString(record),
+                    readString(record),
+                    readString(record),
+                    readString(record));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+        if (record.hasRemaining()) {
+            return null;
+        }
+        buffer.position(buffer.position() + Integer.BYTES + length);
+        return entry;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] utf8 = new byte[length];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open FCM message log in " + directory, e);
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "fcm-message-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try {
+            if (current != null) {
+                current.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,138 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequest;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for the body of {@code /fcm/messages:send}. Only the modeled fields are read;
+ * the {@code message} object is kept byte for byte in {@link FcmMessageRequestMessage#getRawJson()},
+ * including {@code android}, {@code apns}, {@code webpush} and the full {@code data} map, so SSE
+ * subscribers receive it without binding and re-serializing the message.
+ */
+public final class FcmMessageParser {
+
+    private static final JsonFactory JSON = JsonFactory.builder().build();
+
+    private FcmMessageParser() {}
+
+    /**
+     * Returns the request with the modeled fields of the message; fields missing from the body
+     * are {@code null}, as with data binding, and left to the caller's validation.
+     *
+     * @throws IOException if the body is not valid JSON or a modeled field has the wrong type
+     */
+    public static FcmMessageRequest parse(byte[] body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            expectObject(parser, parser.nextToken());
+            FcmMessageRequest request = new FcmMessageRequest();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"message".equals(field)) {
+                    parser.skipChildren();
+                } else if (value == JsonToken.VALUE_NULL) {
+                    request.setMessage(null);
+                } else {
+                    request.setMessage(readMessage(parser, body));
+                }
+            }
+            return request;
+        }
+    }
+
+    private static FcmMessageRequestMessage readMessage(JsonParser parser, byte[] body) throws IOException {
+        expectObject(parser, parser.currentToken());
+        long start = parser.currentTokenLocation().getByteOffset();
+        FcmMessageRequestMessage message = new FcmMessageRequestMessage();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "token" -> message.setToken(readString(parser, value));
+                case "notification" -> message.setNotification(readNotification(parser, value));
+                case "data" -> message.setData(readData(parser, value));
+                default -> parser.skipChildren();
+            }
+        }
+        // byte offsets are unknown (-1) if the body was not UTF-8; such messages are re-serialized
+        long end = parser.currentLocation().getByteOffset();
+        if (start >= 0 && end > start) {
+            message.setRawJson(singleLine(Arrays.copyOfRange(body, (int) start, (int) end)));
+        }
+        return message;
+    }
+
+    private static FcmMessageNotification readNotification(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expectObject(parser, value);
+        FcmMessageNotification notification = new FcmMessageNotification();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            switch (field) {
+                case "title" -> notification.setTitle(readString(parser, fieldValue));
+                case "body" -> notification.setBody(readString(parser, fieldValue));
+                default -> parser.skipChildren();
+            }
+        }
+        return notification;
+    }
+
+    private static FcmMessageData readData(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expectObject(parser, value);
+        FcmMessageData data = new FcmMessageData();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            if ("token".equals(field)) {
+                data.setToken(readString(parser, fieldValue));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return data;
+    }
+
+    private static String readString(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!value.isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a string for '" + parser.currentName() + "'");
+        }
+        // numbers and booleans are accepted as their text, like data binding does
+        return parser.getValueAsString();
+    }
+
+    private static void expectObject(JsonParser parser, JsonToken value) throws JsonParseException {
+        if (value != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object but got " + value);
+        }
+    }
+
+    /**
+     * An SSE data field ends at a line break. JSON strings cannot contain raw line breaks, so the
+     * ones of a pretty-printed body are whitespace between tokens and can become spaces.
+     */
+    private static byte[] singleLine(byte[] json) {
+        for (int i = 0; i < json.length; i++) {
+            if (json[i] == '\n' || json[i] == '\r') {
+                json[i] = ' ';
+            }
+        }
+        return json;
+    }
+}
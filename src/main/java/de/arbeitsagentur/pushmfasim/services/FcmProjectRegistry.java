@@ -0,0 +1,347 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+/**
+ * FCM projects served by the simulator, keyed by project ID. Keycloak environments that share one
+ * simulator each use their own project: {@code /v1/projects/{project}/messages:send} with the
+ * access token {@code /fcm/token?project=...} issued for it. {@value #DEFAULT_PROJECT} serves the
+ * project-less {@code /fcm/messages:send} and keeps the historic access token.
+ *
+ * <p>The default project and the projects listed in {@code ids} are admitted at startup and kept.
+ * Tokens are issued for any valid project ID without admitting it; the project is admitted by the
+ * first send that carries its token, up to {@code max-projects}, and evicted with its meters once
+ * nothing was sent to it for {@code idle-timeout-seconds}. A project's token is an HMAC of its ID
+ * keyed with {@code token-secret}, so replicas with the same secret accept the tokens the others
+ * issued.
+ *
+ * <p>Every project has its own send quota, a token bucket refilled with {@code rate-per-second}
+ * messages that holds up to {@code burst}, so a burst of one environment is answered with 429
+ * instead of using up the capacity of the others. Its SSE subscribers and their dispatch capacity
+ * are kept apart by {@link SseService}. Metrics are tagged with the project.
+ */
+@Service
+public class FcmProjectRegistry implements SmartLifecycle {
+
+    public static final String DEFAULT_PROJECT = "ba-secure-mock";
+    static final String DEFAULT_ACCESS_TOKEN = "keycloak_push_mfa_simulator_valid_assertion";
+
+    private static final Logger LOG = LoggerFactory.getLogger(FcmProjectRegistry.class);
+    // Google project IDs: lower case letters, digits and hyphens, starting with a letter
+    private static final Pattern PROJECT_ID = Pattern.compile("[a-z][a-z0-9-]{0,62}");
+    private static final long ADMISSION_RETRY_AFTER_SECONDS = 60;
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private final int maxProjects;
+    private final double ratePerSecond;
+    private final double burst;
+    private final long idleTimeoutNanos;
+    private final SecretKeySpec tokenKey;
+    private final LongSupplier nanoClock;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Project> projects = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    // projects admitted by a send, guarded by projects
+    private int admittedBySend;
+
+    private volatile boolean running;
+
+    @Autowired
+    public FcmProjectRegistry(
+            @Value("${app.fcm.projects.ids:}") List<String> projectIds,
+            @Value("${app.fcm.projects.max-projects:64}") int maxProjects,
+            @Value("${app.fcm.projects.idle-timeout-seconds:3600}") long idleTimeoutSeconds,
+            @Value("${app.fcm.projects.token-secret:}") String tokenSecret,
+            @Value("${app.fcm.projects.rate-per-second:1000}") double ratePerSecond,
+            @Value("${app.fcm.projects.burst:2000}") int burst,
+            MeterRegistry meterRegistry) {
+        this(
+                projectIds,
+                maxProjects,
+                idleTimeoutSeconds,
+                tokenSecret,
+                ratePerSecond,
+                burst,
+                System::nanoTime,
+                meterRegistry);
+    }
+
+    FcmProjectRegistry(
+            List<String> projectIds,
+            int maxProjects,
+            long idleTimeoutSeconds,
+            String tokenSecret,
+            double ratePerSecond,
+            int burst,
+            LongSupplier nanoClock,
+            MeterRegistry meterRegistry) {
+        this.maxProjects = maxProjects;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        this.tokenKey = new SecretKeySpec(secret(tokenSecret), "HmacSHA256");
+        this.nanoClock = nanoClock;
+        this.meterRegistry = meterRegistry;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fcm-project-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("simulator.fcm.project.count", projects, Map::size)
+                .description("FCM projects admitted")
+                .register(meterRegistry);
+        projects.put(DEFAULT_PROJECT, new Project(DEFAULT_PROJECT, true));
+        for (String id : projectIds) {
+            String projectId = id.trim();
+            if (projectId.isEmpty() || projects.containsKey(projectId)) {
+                continue;
+            }
+            if (!isValidId(projectId)) {
+                throw new IllegalArgumentException("Invalid project ID in app.fcm.projects.ids: " + projectId);
+            }
+            projects.put(projectId, new Project(projectId, true));
+            LOG.info("FCM project {} admitted from configuration", projectId);
+        }
+    }
+
+    private static byte[] secret(String tokenSecret) {
+        if (tokenSecret != null && !tokenSecret.isEmpty()) {
+            return tokenSecret.getBytes(StandardCharsets.UTF_8);
+        }
+        LOG.info("No app.fcm.projects.token-secret set, project access tokens are valid on this replica only");
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+
+    /**
+     * Whether the ID is a valid project ID; {@code null} stands for {@value #DEFAULT_PROJECT}.
+     */
+    public static boolean isValidId(String projectId) {
+        return projectId == null || PROJECT_ID.matcher(projectId).matches();
+    }
+
+    /**
+     * Returns the admitted project, or {@code null} if there is none with the ID; {@code null}
+     * stands for {@value #DEFAULT_PROJECT}. Does not admit the project.
+     */
+    public Project project(String projectId) {
+        return projects.get(projectId != null ? projectId : DEFAULT_PROJECT);
+    }
+
+    /**
+     * Returns the access token of the project, whether it is admitted or not; {@code null} stands
+     * for {@value #DEFAULT_PROJECT}. Does not admit the project.
+     *
+     * @throws IllegalArgumentException if the ID is not a valid project ID
+     */
+    public String accessToken(String projectId) {
+        String id = projectId != null ? projectId : DEFAULT_PROJECT;
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("Invalid project ID: " + id);
+        }
+        Project project = projects.get(id);
+        return project != null ? project.accessToken : issueAccessToken(id);
+    }
+
+    /**
+     * Returns the project if the bearer token is its access token, admitting it on first use;
+     * {@code null} if the token is not the project's.
+     *
+     * @throws IllegalArgumentException if the ID is not a valid project ID
+     * @throws OverloadedException if {@code max-projects} projects are admitted by sends already
+     */
+    public Project authenticate(String projectId, String bearerToken) {
+        String id = projectId != null ? projectId : DEFAULT_PROJECT;
+        String accessToken = accessToken(id);
+        if (bearerToken == null
+                || !MessageDigest.isEqual(
+                        accessToken.getBytes(StandardCharsets.UTF_8), bearerToken.getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        Project project = projects.get(id);
+        if (project == null) {
+            project = admit(id);
+        }
+        project.lastUsed = nanoClock.getAsLong();
+        return project;
+    }
+
+    private Project admit(String id) {
+        synchronized (projects) {
+            Project project = projects.get(id);
+            if (project != null) {
+                return project;
+            }
+            if (admittedBySend >= maxProjects) {
+                evictIdle();
+            }
+            if (admittedBySend >= maxProjects) {
+                throw new OverloadedException("Too many FCM projects", ADMISSION_RETRY_AFTER_SECONDS);
+            }
+            project = new Project(id, false);
+            projects.put(id, project);
+            admittedBySend++;
+            LOG.info("FCM project {} admitted", id);
+            return project;
+        }
+    }
+
+    /**
+     * Evicts the projects admitted by a send that nothing was sent to for
+     * {@code idle-timeout-seconds}, and their meters.
+     */
+    void evictIdle() {
+        long idleSince = nanoClock.getAsLong() - idleTimeoutNanos;
+        synchronized (projects) {
+            for (Project project : projects.values()) {
+                if (!project.configured && project.lastUsed - idleSince < 0 && projects.remove(project.id, project)) {
+                    admittedBySend--;
+                    project.meters.forEach(meterRegistry::remove);
+                    LOG.info("FCM project {} evicted after being idle", project.id);
+                }
+            }
+        }
+    }
+
+    private String issueAccessToken(String id) {
+        if (DEFAULT_PROJECT.equals(id)) {
+            return DEFAULT_ACCESS_TOKEN;
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(tokenKey);
+            byte[] signature = mac.doFinal(id.getBytes(StandardCharsets.UTF_8));
+            return DEFAULT_ACCESS_TOKEN + "." + id + "."
+                    + Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        sweeper.scheduleWithFixedDelay(
+                this::evictIdle, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Access token, send quota and metrics of one project.
+     */
+    public final class Project {
+        private final String id;
+        private final String accessToken;
+        // admitted at startup and never evicted
+        private final boolean configured;
+        private final Counter accepted;
+        private final Counter quotaExceeded;
+        private final List<Meter> meters;
+        private volatile long lastUsed;
+        // token bucket, guarded by this
+        private double available;
+        private long refilledAt;
+
+        private Project(String id, boolean configured) {
+            this.id = id;
+            this.accessToken = issueAccessToken(id);
+            this.configured = configured;
+            this.available = burst;
+            this.refilledAt = nanoClock.getAsLong();
+            this.lastUsed = refilledAt;
+            this.accepted = Counter.builder("simulator.fcm.messages")
+                    .description("Messages sent to the project, by whether its quota admitted them")
+                    .tag("project", id)
+                    .tag("result", "accepted")
+                    .register(meterRegistry);
+            this.quotaExceeded = Counter.builder("simulator.fcm.messages")
+                    .description("Messages sent to the project, by whether its quota admitted them")
+                    .tag("project", id)
+                    .tag("result", "quota-exceeded")
+                    .register(meterRegistry);
+            this.meters = List.of(accepted, quotaExceeded);
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String accessToken() {
+            return accessToken;
+        }
+
+        /**
+         * Takes one message from the project's quota; returns false if the quota is used up.
+         * A {@code rate-per-second} of 0 or less disables the quota.
+         */
+        public boolean tryAcquire() {
+            if (ratePerSecond <= 0) {
+                accepted.increment();
+                return true;
+            }
+            synchronized (this) {
+                refill();
+                if (available < 1) {
+                    quotaExceeded.increment();
+                    return false;
+                }
+                available--;
+            }
+            accepted.increment();
+            return true;
+        }
+
+        /**
+         * Seconds until the quota admits the next message, at least 1.
+         */
+        public synchronized long retryAfterSeconds() {
+            if (ratePerSecond <= 0) {
+                return 1;
+            }
+            refill();
+            return Math.max(1, (long) Math.ceil((1 - available) / ratePerSecond));
+        }
+
+        private void refill() {
+            long now = nanoClock.getAsLong();
+            double elapsedSeconds = (now - refilledAt) / (double) TimeUnit.SECONDS.toNanos(1);
+            available = Math.min(burst, available + elapsedSeconds * ratePerSecond);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * WebSocket alternative to {@link SseService}. Like an SSE stream, a new socket receives every
+ * FCM message. Once a client sends {@code {"subscribe":["token-a","token-b"]}} it only receives
+ * messages for the subscribed device tokens ({@code "unsubscribe"} works the same way), so one
+ * socket can stand in for many devices.
+ *
+ * <p>With {@code ?format=json} (default) messages arrive as
+ * {@code {"event":"fcm-message","data":{...}}} and heartbeats as
+ * {@code {"event":"heartbeat","data":"ping"}}. With {@code ?format=binary} messages are
+ * {@link FcmMessageCodec} frames and heartbeats are WebSocket pings.
+ *
+ * <p>Every session is wrapped in a {@link ConcurrentWebSocketSessionDecorator}, so a slow client
+ * only fills its own send buffer and is disconnected when the buffer or send time limit is exceeded.
+ */
+@Service
+public class FcmWebSocketHandler extends TextWebSocketHandler implements SmartLifecycle, FcmMessageListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FcmWebSocketHandler.class);
+    private static final long HEARTBEAT_INTERVAL_MS = 10000;
+    private static final TextMessage HEARTBEAT = new TextMessage("{\"event\":\"heartbeat\",\"data\":\"ping\"}");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int sendTimeLimitMs;
+    private final int bufferSizeLimit;
+
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    // sessions that have not subscribed to any token receive every message, like SSE
+    private final Set<Client> unfiltered = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<Client>> subscriptions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat;
+
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+
+    private volatile boolean running;
+
+    public FcmWebSocketHandler(
+            @Value("${app.websocket.send-time-limit-ms:5000}") int sendTimeLimitMs,
+            @Value("${app.websocket.buffer-size-bytes:524288}") int bufferSizeLimit,
+            MeterRegistry meterRegistry) {
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sentCounter = Counter.builder("simulator.websocket.sent")
+                .description("FCM messages sent over WebSocket sessions")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("simulator.websocket.failed")
+                .description("WebSocket sends that failed or overflowed the session buffer")
+                .register(meterRegistry);
+        Gauge.builder("simulator.websocket.sessions", clients, Map::size)
+                .description("Open WebSocket sessions")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        boolean binary = session.getUri() != null
+                && "binary"
+                        .equalsIgnoreCase(UriComponentsBuilder.fromUri(session.getUri())
+                                .build()
+                                .getQueryParams()
+                                .getFirst("format"));
+        Client client =
+                new Client(new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, bufferSizeLimit), binary);
+        clients.put(session.getId(), client);
+        unfiltered.add(client);
+        LOG.debug("WebSocket session {} connected (binary: {})", session.getId(), binary);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        Client client = clients.get(session.getId());
+        if (client == null) {
+            return;
+        }
+        JsonNode command;
+        try {
+            command = objectMapper.readTree(message.getPayload());
+        } catch (JsonProcessingException e) {
+            session.close(CloseStatus.BAD_DATA.withReason("Invalid JSON"));
+            return;
+        }
+        for (JsonNode token : command.path("subscribe")) {
+            subscribe(client, token.asText());
+        }
+        for (JsonNode token : command.path("unsubscribe")) {
+            unsubscribe(client, token.asText());
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        LOG.debug("WebSocket session {} transport error: {}", session.getId(), exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Client client = clients.remove(session.getId());
+        if (client != null) {
+            unfiltered.remove(client);
+            client.tokens.forEach(token -> unsubscribe(client, token));
+        }
+    }
+
+    @Override
+    public void onMessage(FcmMessageRequestMessage message) {
+        if (!running || clients.isEmpty()) {
+            return;
+        }
+        Set<Client> subscribed = message.getToken() != null ? subscriptions.get(message.getToken()) : null;
+        if (unfiltered.isEmpty() && subscribed == null) {
+            return;
+        }
+        // encode once for all sessions
+        TextMessage text;
+        try {
+            ObjectNode event = objectMapper.createObjectNode().put("event", "fcm-message");
+            event.set("data", objectMapper.valueToTree(message));
+            text = new TextMessage(objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            LOG.error("Cannot serialize FCM message for WebSocket delivery: {}", e.getMessage());
+            return;
+        }
+        byte[] binary = FcmMessageCodec.encode("", List.of(message));
+        int sent = 0;
+        for (Client client : unfiltered) {
+            sent += send(client, frame(client, text, binary)) ? 1 : 0;
+        }
+        if (subscribed != null) {
+            for (Client client : subscribed) {
+                sent += send(client, frame(client, text, binary)) ? 1 : 0;
+            }
+        }
+        sentCounter.increment(sent);
+    }
+
+    private static WebSocketMessage<?> frame(Client client, TextMessage text, byte[] binary) {
+        // a BinaryMessage wraps a ByteBuffer whose position advances on send, so it cannot be shared
+        return client.binary ? new BinaryMessage(binary) : text;
+    }
+
+    private void subscribe(Client client, String token) {
+        if (token.isEmpty() || !client.tokens.add(token)) {
+            return;
+        }
+        unfiltered.remove(client);
+        subscriptions.computeIfAbsent(token, t -> ConcurrentHashMap.newKeySet()).add(client);
+    }
+
+    private void unsubscribe(Client client, String token) {
+        if (!client.tokens.remove(token)) {
+            return;
+        }
+        subscriptions.computeIfPresent(token, (t, subscribers) -> {
+            subscribers.remove(client);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private boolean send(Client client, WebSocketMessage<?> message) {
+        if (!client.session.isOpen()) {
+            return false;
+        }
+        try {
+            client.session.sendMessage(message);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // the decorator closes the session when its buffer or send time limit is exceeded
+            failedCounter.increment();
+            LOG.debug("WebSocket send to session {} failed: {}", client.session.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void sendHeartbeat() {
+        PingMessage ping = new PingMessage();
+        for (Client client : clients.values()) {
+            send(client, client.binary ? ping : HEARTBEAT);
+        }
+    }
+
+    int sessionCount() {
+        return clients.size();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        heartbeat.scheduleWithFixedDelay(
+                this::sendHeartbeat, HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        heartbeat.shutdownNow();
+        for (Client client : clients.values()) {
+            try {
+                client.session.close(CloseStatus.GOING_AWAY);
+            } catch (IOException e) {
+                LOG.debug("Closing WebSocket session {} failed: {}", client.session.getId(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static final class Client {
+        private final WebSocketSession session;
+        private final boolean binary;
+        private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+
+        private Client(WebSocketSession session, boolean binary) {
+            this.session = session;
+            this.binary = binary;
+        }
+    }
+}
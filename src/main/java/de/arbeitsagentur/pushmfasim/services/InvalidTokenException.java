@@ -0,0 +1,12 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+/**
+ * Thrown when an enrollment or confirm token fails signature or expiry verification.
+ * Translated into a 401 response before any call to Keycloak.
+ */
+public class InvalidTokenException extends Exception {
+
+    public InvalidTokenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,262 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Retries and hedging for the idempotent Keycloak calls of the confirm flow, the token request
+ * and the pending challenges lookup.
+ *
+ * <p>A call that fails with an I/O error, 429, 502, 503 or 504 is made up to
+ * {@code app.keycloak.retry.max-attempts} times. Before each retry it waits a random time between
+ * 0 and {@code initial-backoff-ms}, doubled per retry and capped at {@code max-backoff-ms}, so
+ * that the retries of many confirms do not reach Keycloak at the same moment. Every attempt builds
+ * its request again: Keycloak rejects a DPoP proof that it has seen before.
+ *
+ * <p>With {@code app.keycloak.hedge.enabled}, {@link #callHedged} sends a second request when the
+ * first has not been answered within the 95th percentile of the call's recent latencies (kept
+ * between {@code min-delay-ms} and {@code max-delay-ms}) and takes whichever answers first. The
+ * other response is discarded when it arrives. Hedging starts once {@code min-samples} latencies
+ * are known, and with stable latencies it affects about one call in twenty.
+ */
+@Service
+public class KeycloakCallPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeycloakCallPolicy.class);
+    private static final Set<Integer> RETRYABLE_STATUS = Set.of(429, 502, 503, 504);
+    // recent latencies per call that the hedge delay is taken from
+    private static final int LATENCY_WINDOW = 256;
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final boolean hedging;
+    private final long minHedgeDelayNanos;
+    private final long maxHedgeDelayNanos;
+    private final int minSamples;
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private final Map<String, Call> calls = new ConcurrentHashMap<>();
+
+    @Autowired
+    public KeycloakCallPolicy(
+            @Value("${app.keycloak.retry.max-attempts:3}") int maxAttempts,
+            @Value("${app.keycloak.retry.initial-backoff-ms:50}") long initialBackoffMs,
+            @Value("${app.keycloak.retry.max-backoff-ms:500}") long maxBackoffMs,
+            @Value("${app.keycloak.hedge.enabled:false}") boolean hedging,
+            @Value("${app.keycloak.hedge.min-delay-ms:20}") long minHedgeDelayMs,
+            @Value("${app.keycloak.hedge.max-delay-ms:1000}") long maxHedgeDelayMs,
+            @Value("${app.keycloak.hedge.min-samples:20}") int minSamples,
+            MeterRegistry meterRegistry,
+            ObservationRegistry observationRegistry) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.hedging = hedging;
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMs);
+        this.maxHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(minHedgeDelayMs, maxHedgeDelayMs));
+        this.minSamples = Math.max(1, Math.min(minSamples, LATENCY_WINDOW));
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+    }
+
+    /**
+     * Makes the call, retrying it on transient failures.
+     */
+    public <T> T call(String name, Callable<T> attempt) throws Exception {
+        Call call = call(name);
+        return withRetries(call, () -> timed(call, attempt));
+    }
+
+    /**
+     * Makes the call like {@link #call}, hedging every attempt if hedging is enabled.
+     */
+    public <T> T callHedged(String name, Callable<T> attempt) throws Exception {
+        Call call = call(name);
+        return withRetries(call, () -> hedging ? hedged(call, attempt) : timed(call, attempt));
+    }
+
+    private Call call(String name) {
+        return calls.computeIfAbsent(name, Call::new);
+    }
+
+    private <T> T withRetries(Call call, Callable<T> attempt) throws Exception {
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.call();
+            } catch (Exception e) {
+                if (attempts >= maxAttempts || !retryable(e)) {
+                    throw e;
+                }
+                long backoffMs = backoffMs(attempts);
+                call.retries.increment();
+                LOG.debug(
+                        "Keycloak {} call failed ({}), retry {} in {} ms",
+                        call.name,
+                        e.getMessage(),
+                        attempts,
+                        backoffMs);
+                Thread.sleep(backoffMs);
+            }
+        }
+    }
+
+    long backoffMs(int retry) {
+        long ceiling = Math.min(maxBackoffMs, initialBackoffMs << Math.min(retry - 1, 30));
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+
+    static boolean retryable(Exception e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        return e instanceof RestClientResponseException response
+                && RETRYABLE_STATUS.contains(response.getStatusCode().value());
+    }
+
+    private static <T> T timed(Call call, Callable<T> attempt) throws Exception {
+        long start = System.nanoTime();
+        T result = attempt.call();
+        // only answers count, a refused connection says nothing about Keycloak's latency
+        call.record(System.nanoTime() - start);
+        return result;
+    }
+
+    private <T> T hedged(Call call, Callable<T> attempt) throws Exception {
+        long delayNanos = call.hedgeDelayNanos();
+        if (delayNanos < 0) {
+            return timed(call, attempt);
+        }
+        // the span of the confirm phase, for the HTTP client observations of both requests
+        Observation parent = observationRegistry.getCurrentObservation();
+        CompletableFuture<T> primary = start(call, attempt, parent);
+        try {
+            T result = primary.get(delayNanos, TimeUnit.NANOSECONDS);
+            call.hedged("none");
+            return result;
+        } catch (TimeoutException e) {
+            // no answer within the delay, send the hedge
+        } catch (ExecutionException e) {
+            call.hedged("none");
+            throw unwrap(e);
+        }
+        CompletableFuture<T> hedge = start(call, attempt, parent);
+        CompletableFuture<Answer<T>> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((value, error) -> answer(first, failures, value, error, false));
+        hedge.whenComplete((value, error) -> answer(first, failures, value, error, true));
+        try {
+            Answer<T> answer = first.get();
+            call.hedged(answer.fromHedge() ? "won" : "lost");
+            return answer.value();
+        } catch (ExecutionException e) {
+            call.hedged("failed");
+            throw unwrap(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> start(Call call, Callable<T> attempt, Observation parent) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Thread.ofVirtual().name("keycloak-" + call.name).start(() -> {
+            try (Observation.Scope scope = parent != null ? parent.openScope() : null) {
+                future.complete(timed(call, attempt));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    // the first answer wins; an error only counts once both requests have failed
+    private static <T> void answer(
+            CompletableFuture<Answer<T>> first, AtomicInteger failures, T value, Throwable error, boolean fromHedge) {
+        if (error == null) {
+            first.complete(new Answer<>(value, fromHedge));
+        } else if (failures.incrementAndGet() == 2) {
+            first.completeExceptionally(error);
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        if (e.getCause() instanceof Error error) {
+            throw error;
+        }
+        return e.getCause() instanceof Exception cause ? cause : e;
+    }
+
+    private record Answer<T>(T value, boolean fromHedge) {}
+
+    /**
+     * Recent latencies and metrics of one kind of call.
+     */
+    private final class Call {
+        private final String name;
+        private final Counter retries;
+        private final Map<String, Counter> hedges = new ConcurrentHashMap<>();
+        // ring of the last LATENCY_WINDOW latencies, guarded by this
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int recorded;
+
+        private Call(String name) {
+            this.name = name;
+            this.retries = Counter.builder("simulator.keycloak.retries")
+                    .description("Keycloak calls repeated after a transient failure")
+                    .tag("call", name)
+                    .register(meterRegistry);
+        }
+
+        private synchronized void record(long nanos) {
+            latencies[recorded++ % LATENCY_WINDOW] = nanos;
+            if (recorded == 2 * LATENCY_WINDOW) {
+                // keeps the counter from overflowing, the ring stays full
+                recorded = LATENCY_WINDOW;
+            }
+        }
+
+        /**
+         * The p95 of the recent latencies within the configured bounds, or -1 while there are
+         * too few of them.
+         */
+        private long hedgeDelayNanos() {
+            long[] window;
+            synchronized (this) {
+                if (recorded < minSamples) {
+                    return -1;
+                }
+                window = Arrays.copyOf(latencies, Math.min(recorded, LATENCY_WINDOW));
+            }
+            Arrays.sort(window);
+            long p95 = window[(int) Math.ceil(window.length * 0.95) - 1];
+            return Math.min(maxHedgeDelayNanos, Math.max(minHedgeDelayNanos, p95));
+        }
+
+        private void hedged(String result) {
+            hedges.computeIfAbsent(result, key -> Counter.builder("simulator.keycloak.hedge")
+                            .description("Hedgeable Keycloak calls, by whether a hedge was sent and answered first")
+                            .tag("call", name)
+                            .tag("result", key)
+                            .register(meterRegistry))
+                    .increment();
+        }
+    }
+}
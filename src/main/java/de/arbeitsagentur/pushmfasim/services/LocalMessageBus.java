@@ -0,0 +1,38 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process bus for a single replica: hands each message to the local listeners.
+ */
+public class LocalMessageBus implements MessageBus {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalMessageBus.class);
+
+    private final List<FcmMessageListener> listeners;
+
+    public LocalMessageBus(List<FcmMessageListener> listeners) {
+        this.listeners = List.copyOf(listeners);
+    }
+
+    @Override
+    public void publish(FcmMessageRequestMessage message) {
+        deliverLocally(message);
+    }
+
+    protected void deliverLocally(FcmMessageRequestMessage message) {
+        for (FcmMessageListener listener : listeners) {
+            try {
+                listener.onMessage(message);
+            } catch (RuntimeException e) {
+                LOG.error(
+                        "FCM message listener {} failed: {}",
+                        listener.getClass().getSimpleName(),
+                        e.getMessage());
+            }
+        }
+    }
+}
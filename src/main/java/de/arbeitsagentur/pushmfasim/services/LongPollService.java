@@ -0,0 +1,163 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Long-poll delivery on top of {@link DeviceInboxService}. A poll without new messages is parked
+ * as a {@link DeferredResult} under its device token and completed when the inbox reports a
+ * message for that token, or with an empty page when the timeout elapses. No thread is held
+ * while a request is parked.
+ */
+@Service
+public class LongPollService implements SmartLifecycle {
+
+    private final DeviceInboxService inbox;
+    private final int maxParked;
+    private final int retryAfterSeconds;
+
+    private final Map<String, Queue<Waiter>> parked = new ConcurrentHashMap<>();
+    private final AtomicInteger parkedCount = new AtomicInteger();
+
+    private final Counter deliveredCounter;
+    private final Counter timeoutCounter;
+
+    private volatile boolean running;
+
+    public LongPollService(
+            DeviceInboxService inbox,
+            @Value("${app.long-poll.max-parked:100000}") int maxParked,
+            @Value("${app.long-poll.retry-after-seconds:1}") int retryAfterSeconds,
+            MeterRegistry meterRegistry) {
+        this.inbox = inbox;
+        this.maxParked = maxParked;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.deliveredCounter = Counter.builder("simulator.longpoll.delivered")
+                .description("Parked polls completed with messages")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("simulator.longpoll.timeouts")
+                .description("Parked polls completed empty after the timeout")
+                .register(meterRegistry);
+        Gauge.builder("simulator.longpoll.parked", parkedCount, AtomicInteger::get)
+                .description("Polls currently waiting for a message")
+                .register(meterRegistry);
+        inbox.addArrivalListener(this::onArrival);
+    }
+
+    /**
+     * Returns messages for the token newer than the cursor, waiting up to {@code timeoutMs}
+     * for the first one to arrive.
+     *
+     * @throws OverloadedException if {@code max-parked} polls are already waiting
+     */
+    public DeferredResult<DeviceInboxService.InboxPage> poll(String token, long cursor, int limit, long timeoutMs) {
+        DeviceInboxService.InboxPage empty = new DeviceInboxService.InboxPage(List.of(), cursor);
+        DeferredResult<DeviceInboxService.InboxPage> result = new DeferredResult<>(timeoutMs, empty);
+        DeviceInboxService.InboxPage available = inbox.messagesSince(token, cursor, limit);
+        if (!available.messages().isEmpty() || !running) {
+            result.setResult(available);
+            return result;
+        }
+        if (parkedCount.incrementAndGet() > maxParked) {
+            parkedCount.decrementAndGet();
+            throw new OverloadedException("Too many parked polls", retryAfterSeconds);
+        }
+        Waiter waiter = new Waiter(token, cursor, limit, result);
+        result.onTimeout(() -> {
+            if (release(waiter)) {
+                timeoutCounter.increment();
+            }
+        });
+        result.onCompletion(() -> release(waiter));
+        parked.compute(token, (t, waiters) -> {
+            Queue<Waiter> target = waiters != null ? waiters : new ConcurrentLinkedQueue<>();
+            target.add(waiter);
+            return target;
+        });
+        // a message may have arrived between the first check and parking
+        tryDeliver(waiter);
+        return result;
+    }
+
+    int parkedCount() {
+        return parkedCount.get();
+    }
+
+    private void onArrival(String token) {
+        Queue<Waiter> waiters = parked.get(token);
+        if (waiters != null) {
+            waiters.forEach(this::tryDeliver);
+        }
+    }
+
+    private void tryDeliver(Waiter waiter) {
+        DeviceInboxService.InboxPage page = inbox.messagesSince(waiter.token, waiter.cursor, waiter.limit);
+        if (!page.messages().isEmpty() && release(waiter) && waiter.result.setResult(page)) {
+            deliveredCounter.increment();
+        }
+    }
+
+    /**
+     * Removes the waiter from the index; returns true only for the first caller.
+     */
+    private boolean release(Waiter waiter) {
+        if (!waiter.released.compareAndSet(false, true)) {
+            return false;
+        }
+        parkedCount.decrementAndGet();
+        parked.computeIfPresent(waiter.token, (token, waiters) -> {
+            waiters.remove(waiter);
+            return waiters.isEmpty() ? null : waiters;
+        });
+        return true;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        // answer parked polls right away instead of letting them hold up the shutdown
+        parked.values()
+                .forEach(waiters -> waiters.forEach(waiter -> {
+                    if (release(waiter)) {
+                        waiter.result.setResult(new DeviceInboxService.InboxPage(List.of(), waiter.cursor));
+                    }
+                }));
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static final class Waiter {
+        private final String token;
+        private final long cursor;
+        private final int limit;
+        private final DeferredResult<DeviceInboxService.InboxPage> result;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Waiter(String token, long cursor, int limit, DeferredResult<DeviceInboxService.InboxPage> result) {
+            this.token = token;
+            this.cursor = cursor;
+            this.limit = limit;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+
+/**
+ * Fans an accepted FCM message out to all subscribers, locally and, depending on the
+ * implementation, on other simulator replicas. Selected with {@code app.bus.type}.
+ */
+public interface MessageBus {
+
+    void publish(FcmMessageRequestMessage message);
+}
@@ -0,0 +1,19 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+/**
+ * Thrown when the simulator sheds load instead of queueing work it cannot finish in time.
+ * Translated into a 503 response with a Retry-After header.
+ */
+public class OverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public OverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,191 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * Bus for several replicas behind a load balancer. Messages are delivered to the local
+ * listeners immediately and queued per peer; a flusher relays them in batches, encoded with
+ * {@link FcmMessageCodec}, to each configured peer. Relayed messages are only delivered
+ * locally on the receiving side, so messages never bounce between replicas.
+ * A full peer queue drops messages instead of blocking the publisher.
+ */
+public class PeerMessageBus extends LocalMessageBus implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PeerMessageBus.class);
+
+    /**
+     * Sends one encoded batch to a peer base URL.
+     */
+    @FunctionalInterface
+    public interface PeerTransport {
+        void send(String peerUrl, byte[] frame) throws Exception;
+    }
+
+    private final String instanceId;
+    private final List<Peer> peers;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final PeerTransport transport;
+    private final ScheduledExecutorService flusher;
+
+    private final Counter droppedCounter;
+    private final Counter relayFailedCounter;
+    private final Counter receivedCounter;
+    private final DistributionSummary batchSizeSummary;
+
+    private volatile boolean running;
+
+    public PeerMessageBus(
+            String instanceId,
+            List<String> peerUrls,
+            int batchSize,
+            long flushIntervalMs,
+            int maxPending,
+            PeerTransport transport,
+            List<FcmMessageListener> listeners,
+            MeterRegistry meterRegistry) {
+        super(listeners);
+        this.instanceId = instanceId;
+        this.peers = peerUrls.stream()
+                .filter(url -> !url.isBlank())
+                .map(url -> new Peer(url.trim(), maxPending))
+                .toList();
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.transport = transport;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bus-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.droppedCounter = Counter.builder("simulator.bus.relay.dropped")
+                .description("Messages not relayed because a peer queue was full")
+                .register(meterRegistry);
+        this.relayFailedCounter = Counter.builder("simulator.bus.relay.failed")
+                .description("Batches that could not be delivered to a peer")
+                .register(meterRegistry);
+        this.receivedCounter = Counter.builder("simulator.bus.relay.received")
+                .description("Messages received from peers")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("simulator.bus.relay.batch.size")
+                .description("Messages per relayed batch")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void publish(FcmMessageRequestMessage message) {
+        deliverLocally(message);
+        for (Peer peer : peers) {
+            if (!peer.queue.offer(message)) {
+                droppedCounter.increment();
+                continue;
+            }
+            if (running && peer.queue.size() >= batchSize) {
+                try {
+                    flusher.execute(() -> flush(peer));
+                } catch (RejectedExecutionException e) {
+                    // shutting down, stop() flushes what is left
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers a batch relayed by a peer to the local listeners.
+     *
+     * @throws IllegalArgumentException if the frame cannot be decoded
+     */
+    public void receive(byte[] frame) {
+        FcmMessageCodec.Frame decoded = FcmMessageCodec.decode(frame);
+        if (instanceId.equals(decoded.origin())) {
+            // this replica is listed in its own peer list
+            return;
+        }
+        receivedCounter.increment(decoded.messages().size());
+        decoded.messages().forEach(this::deliverLocally);
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    void flushAll() {
+        peers.forEach(this::flush);
+    }
+
+    private void flush(Peer peer) {
+        if (!peer.flushLock.tryLock()) {
+            // another flush of this peer is already draining the queue
+            return;
+        }
+        try {
+            List<FcmMessageRequestMessage> batch = new ArrayList<>(batchSize);
+            while (peer.queue.drainTo(batch, batchSize) > 0) {
+                batchSizeSummary.record(batch.size());
+                try {
+                    transport.send(peer.url, FcmMessageCodec.encode(instanceId, batch));
+                } catch (Exception e) {
+                    relayFailedCounter.increment();
+                    LOG.warn("Relaying {} message(s) to {} failed: {}", batch.size(), peer.url, e.getMessage());
+                }
+                batch.clear();
+            }
+        } finally {
+            peer.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        flusher.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        LOG.info(
+                "Peer message bus {} relaying to {}",
+                instanceId,
+                peers.stream().map(p -> p.url).toList());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // last attempt so messages accepted before shutdown still reach the peers
+        flushAll();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static final class Peer {
+        private final String url;
+        private final BlockingQueue<FcmMessageRequestMessage> queue;
+        private final ReentrantLock flushLock = new ReentrantLock();
+
+        private Peer(String url, int maxPending) {
+            this.url = url;
+            this.queue = new ArrayBlockingQueue<>(maxPending);
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import de.arbeitsagentur.pushmfasim.config.ProxyConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.routing.DefaultProxyRoutePlanner;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keycloak realms the simulator talks to, keyed by realm URL (e.g.
+ * {@code http://localhost:8080/realms/demo}). A realm is admitted on first use: its token endpoint
+ * is taken from {@code .well-known/openid-configuration} once and the push-mfa extension endpoints
+ * are built once, so requests only look the realm up.
+ *
+ * <p>Every realm has its own HTTP connection pool (used through {@link #requestFactory}), a cache
+ * for DPoP-bound access tokens, its JWKS signing keys indexed by key ID and metrics tagged with
+ * the realm. At most {@code max-realms} are kept; admitting another one closes the least recently
+ * used realm.
+ *
+ * <p>Admitting a realm does no I/O. Discovery runs afterwards, under a lock of the realm's own, so a
+ * Keycloak that does not answer only holds up requests for its realm, and at most for
+ * {@code response-timeout-ms}.
+ */
+@Service
+public class RealmRegistry implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RealmRegistry.class);
+    private static final String ENROLL_COMPLETE_PATH = "/push-mfa/enroll/complete";
+    private static final String REALMS_SEGMENT = "/realms/";
+    // tokens are refreshed this long before Keycloak expires them
+    private static final long TOKEN_EXPIRY_MARGIN_MS = 30000;
+
+    private final boolean discovery;
+    private final int maxRealms;
+    private final int maxConnections;
+    private final long responseTimeoutMs;
+    private final boolean cacheTokens;
+    private final ProxyConfig proxyConfig;
+    private final Clock clock;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Realm> realms = new ConcurrentHashMap<>();
+    private final Counter evictedCounter;
+
+    @Autowired
+    public RealmRegistry(
+            @Value("${app.realms.discovery:true}") boolean discovery,
+            @Value("${app.realms.max-realms:64}") int maxRealms,
+            @Value("${app.realms.max-connections:50}") int maxConnections,
+            @Value("${app.realms.response-timeout-ms:10000}") long responseTimeoutMs,
+            @Value("${app.realms.cache-tokens:true}") boolean cacheTokens,
+            ProxyConfig proxyConfig,
+            MeterRegistry meterRegistry) {
+        this(
+                discovery,
+                maxRealms,
+                maxConnections,
+                responseTimeoutMs,
+                cacheTokens,
+                proxyConfig,
+                Clock.systemUTC(),
+                meterRegistry);
+    }
+
+    RealmRegistry(
+            boolean discovery,
+            int maxRealms,
+            int maxConnections,
+            long responseTimeoutMs,
+            boolean cacheTokens,
+            ProxyConfig proxyConfig,
+            Clock clock,
+            MeterRegistry meterRegistry) {
+        this.discovery = discovery;
+        this.maxRealms = maxRealms;
+        this.maxConnections = maxConnections;
+        this.responseTimeoutMs = responseTimeoutMs;
+        this.cacheTokens = cacheTokens;
+        this.proxyConfig = proxyConfig;
+        this.clock = clock;
+        this.meterRegistry = meterRegistry;
+        this.evictedCounter = Counter.builder("simulator.realm.evicted")
+                .description("Realms closed to admit a new one")
+                .register(meterRegistry);
+        Gauge.builder("simulator.realm.count", realms, Map::size)
+                .description("Realms with an open connection pool")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the realm for the given realm URL, admitting it on first use.
+     */
+    public Realm realm(String iamUrl) {
+        String url = normalize(iamUrl);
+        Realm realm = realms.get(url);
+        if (realm == null) {
+            realm = realms.computeIfAbsent(url, this::admit);
+            if (realms.size() > maxRealms) {
+                evictLeastRecentlyUsed(realm);
+            }
+        }
+        realm.lastUsed = clock.millis();
+        if (!realm.discovered) {
+            discoverOnce(realm);
+        }
+        return realm;
+    }
+
+    private void discoverOnce(Realm realm) {
+        realm.discoveryLock.lock();
+        try {
+            if (!realm.discovered) {
+                if (discovery) {
+                    discover(realm);
+                }
+                realm.discovered = true;
+                LOG.info("Realm {} admitted, token endpoint {}", realm.url, realm.tokenEndpoint);
+            }
+        } finally {
+            realm.discoveryLock.unlock();
+        }
+    }
+
+    /**
+     * Request factory for the realm the URI belongs to, or {@code null} if it belongs to no
+     * admitted realm.
+     */
+    public ClientHttpRequestFactory requestFactory(URI uri) {
+        String path = uri.getRawPath();
+        int realmsIndex = path != null ? path.indexOf(REALMS_SEGMENT) : -1;
+        if (realmsIndex < 0) {
+            return null;
+        }
+        int nameEnd = path.indexOf('/', realmsIndex + REALMS_SEGMENT.length());
+        String realmPath = nameEnd < 0 ? path : path.substring(0, nameEnd);
+        Realm realm = realms.get(uri.getScheme() + "://" + uri.getRawAuthority() + realmPath);
+        return realm != null ? realm.requestFactory : null;
+    }
+
+    /**
+     * Admits the realm and opens up to {@code connections} pooled connections to it with
+     * concurrent GETs on the realm URL. Returns the number of requests that got a response.
+     */
+    public int preconnect(String iamUrl, int connections) {
+        Realm realm = realm(iamUrl);
+        URI uri = URI.create(realm.url);
+        AtomicInteger opened = new AtomicInteger();
+        // concurrent requests, otherwise the pool would hand out the same connection every time
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < Math.min(connections, maxConnections); i++) {
+                executor.execute(() -> {
+                    try (ClientHttpResponse response = realm.requestFactory
+                            .createRequest(uri, HttpMethod.GET)
+                            .execute()) {
+                        response.getBody().transferTo(OutputStream.nullOutputStream());
+                        opened.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        LOG.debug("Preconnect to {} failed: {}", realm.url, e.getMessage());
+                    }
+                });
+            }
+        }
+        return opened.get();
+    }
+
+    int size() {
+        return realms.size();
+    }
+
+    static String normalize(String iamUrl) {
+        String url = iamUrl.trim();
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        // app.enroll.complete.url historically points at the endpoint instead of the realm
+        if (url.endsWith(ENROLL_COMPLETE_PATH)) {
+            url = url.substring(0, url.length() - ENROLL_COMPLETE_PATH.length());
+        }
+        return url;
+    }
+
+    private Realm admit(String url) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofSeconds(5))
+                        .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                        .build())
+                .build();
+        HttpClientBuilder clientBuilder = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                        .build());
+        if (proxyConfig.getHttpHost() != null && proxyConfig.getHttpPort() != -1) {
+            clientBuilder.setRoutePlanner(
+                    new DefaultProxyRoutePlanner(new HttpHost(proxyConfig.getHttpHost(), proxyConfig.getHttpPort())));
+        }
+        CloseableHttpClient httpClient = clientBuilder.build();
+        Realm realm = new Realm(url, httpClient, new HttpComponentsClientHttpRequestFactory(httpClient));
+        realm.meters.add(Gauge.builder(
+                        "simulator.realm.connections.leased", connectionManager, manager -> manager.getTotalStats()
+                                .getLeased())
+                .description("Connections of the realm's pool in use")
+                .tag("realm", url)
+                .register(meterRegistry));
+        realm.tokenHits = Counter.builder("simulator.realm.token.cache")
+                .description("Access token lookups in the realm's token cache")
+                .tag("realm", url)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        realm.tokenMisses = Counter.builder("simulator.realm.token.cache")
+                .description("Access token lookups in the realm's token cache")
+                .tag("realm", url)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        realm.keysFetched = Counter.builder("simulator.realm.jwks.fetch")
+                .description("Fetches of the realm's signing keys")
+                .tag("realm", url)
+                .tag("result", "success")
+                .register(meterRegistry);
+        realm.keysFetchFailures = Counter.builder("simulator.realm.jwks.fetch")
+                .description("Fetches of the realm's signing keys")
+                .tag("realm", url)
+                .tag("result", "failure")
+                .register(meterRegistry);
+        realm.meters.add(realm.tokenHits);
+        realm.meters.add(realm.tokenMisses);
+        realm.meters.add(realm.keysFetched);
+        realm.meters.add(realm.keysFetchFailures);
+        return realm;
+    }
+
+    private void discover(Realm realm) {
+        URI uri = URI.create(realm.url + "/.well-known/openid-configuration");
+        try {
+            ClientHttpRequest request = realm.requestFactory.createRequest(uri, HttpMethod.GET);
+            try (ClientHttpResponse response = request.execute()) {
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    LOG.debug("Discovery for {} returned {}", realm.url, response.getStatusCode());
+                    return;
+                }
+                JsonNode configuration = objectMapper.readTree(response.getBody());
+                String tokenEndpoint = configuration.path("token_endpoint").asText(null);
+                // Keycloak reports its frontend URL, which may not be reachable from here
+                if (tokenEndpoint != null && tokenEndpoint.startsWith(realm.url + "/")) {
+                    realm.tokenEndpoint = tokenEndpoint;
+                } else {
+                    LOG.debug("Ignoring token endpoint {} outside of realm URL {}", tokenEndpoint, realm.url);
+                }
+                String jwksUri = configuration.path("jwks_uri").asText(null);
+                if (jwksUri != null && jwksUri.startsWith(realm.url + "/")) {
+                    realm.jwksUri = jwksUri;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Discovery for {} failed, using default endpoints: {}", realm.url, e.getMessage());
+        }
+    }
+
+    /**
+     * Refetches the signing keys of every realm whose keys were requested before.
+     */
+    public void refreshSigningKeys() {
+        for (Realm realm : realms.values()) {
+            if (realm.keysFetchedAt > 0) {
+                realm.keysLock.lock();
+                try {
+                    fetchSigningKeys(realm);
+                } finally {
+                    realm.keysLock.unlock();
+                }
+            }
+        }
+    }
+
+    private void fetchSigningKeys(Realm realm) {
+        realm.lastKeysFetch = clock.millis();
+        try {
+            ClientHttpRequest request = realm.requestFactory.createRequest(URI.create(realm.jwksUri), HttpMethod.GET);
+            try (ClientHttpResponse response = request.execute()) {
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    LOG.warn("Fetching JWKS of {} returned {}", realm.url, response.getStatusCode());
+                    realm.keysFetchFailures.increment();
+                    return;
+                }
+                JWKSet jwkSet = JWKSet.parse(new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8));
+                Map<String, JWSVerifier> verifiers = new HashMap<>();
+                for (JWK jwk : jwkSet.getKeys()) {
+                    JWSVerifier verifier = verifier(jwk);
+                    if (verifier != null && jwk.getKeyID() != null) {
+                        verifiers.put(jwk.getKeyID(), verifier);
+                    }
+                }
+                realm.verifiers = Map.copyOf(verifiers);
+                realm.keysFetchedAt = realm.lastKeysFetch;
+                realm.keysFetched.increment();
+                LOG.debug("Fetched {} signing keys of {}", verifiers.size(), realm.url);
+            }
+        } catch (IOException | ParseException | JOSEException | RuntimeException e) {
+            realm.keysFetchFailures.increment();
+            LOG.warn("Fetching JWKS of {} failed: {}", realm.url, e.getMessage());
+        }
+    }
+
+    private static JWSVerifier verifier(JWK jwk) throws JOSEException {
+        if (jwk.getKeyUse() != null && !KeyUse.SIGNATURE.equals(jwk.getKeyUse())) {
+            return null;
+        }
+        if (jwk instanceof RSAKey rsaKey) {
+            return new RSASSAVerifier(rsaKey);
+        }
+        if (jwk instanceof ECKey ecKey) {
+            return new ECDSAVerifier(ecKey);
+        }
+        return null;
+    }
+
+    private void evictLeastRecentlyUsed(Realm keep) {
+        List<Realm> candidates = new ArrayList<>(realms.values());
+        candidates.remove(keep);
+        candidates.sort(Comparator.comparingLong(realm -> realm.lastUsed));
+        for (Realm realm : candidates) {
+            if (realms.size() <= maxRealms) {
+                return;
+            }
+            if (realms.remove(realm.url, realm)) {
+                evictedCounter.increment();
+                close(realm);
+                LOG.debug("Realm {} evicted", realm.url);
+            }
+        }
+    }
+
+    private void close(Realm realm) {
+        realm.meters.forEach(meterRegistry::remove);
+        realm.httpClient.close(CloseMode.GRACEFUL);
+    }
+
+    @Override
+    public void destroy() {
+        realms.values().forEach(this::close);
+        realms.clear();
+    }
+
+    /**
+     * Endpoints, connection pool and token cache of one realm.
+     */
+    public final class Realm {
+        private final String url;
+        private final String pendingEndpoint;
+        private final String enrollCompleteEndpoint;
+        private final CloseableHttpClient httpClient;
+        private final ClientHttpRequestFactory requestFactory;
+        private final Map<String, CachedToken> tokens = new ConcurrentHashMap<>();
+        private final List<Meter> meters = new ArrayList<>();
+        private final ReentrantLock keysLock = new ReentrantLock();
+        private final ReentrantLock discoveryLock = new ReentrantLock();
+        private volatile boolean discovered;
+        private volatile String tokenEndpoint;
+        private volatile String jwksUri;
+        private volatile Map<String, JWSVerifier> verifiers = Map.of();
+        private volatile long keysFetchedAt;
+        private volatile long lastKeysFetch;
+        private volatile long lastUsed;
+        private Counter tokenHits;
+        private Counter tokenMisses;
+        private Counter keysFetched;
+        private Counter keysFetchFailures;
+
+        private Realm(String url, CloseableHttpClient httpClient, ClientHttpRequestFactory requestFactory) {
+            this.url = url;
+            this.tokenEndpoint = url + "/protocol/openid-connect/token";
+            this.jwksUri = url + "/protocol/openid-connect/certs";
+            this.pendingEndpoint = url + "/push-mfa/login/pending";
+            this.enrollCompleteEndpoint = url + ENROLL_COMPLETE_PATH;
+            this.httpClient = httpClient;
+            this.requestFactory = requestFactory;
+        }
+
+        public String url() {
+            return url;
+        }
+
+        public String tokenEndpoint() {
+            return tokenEndpoint;
+        }
+
+        public String pendingEndpoint() {
+            return pendingEndpoint;
+        }
+
+        public String respondEndpoint(String challengeId) {
+            return url + "/push-mfa/login/challenges/" + challengeId + "/respond";
+        }
+
+        public String enrollCompleteEndpoint() {
+            return enrollCompleteEndpoint;
+        }
+
+        public String jwksUri() {
+            return jwksUri;
+        }
+
+        /**
+         * Returns a verifier for the realm's signing key with the given key ID, or {@code null}
+         * if the realm has no such key. The JWKS is fetched on first use; an unknown key ID
+         * triggers a refetch at most once per {@code minRefetchIntervalMs}, for key rotation.
+         */
+        public JWSVerifier signingKey(String keyId, long minRefetchIntervalMs) {
+            JWSVerifier verifier = keyId != null ? verifiers.get(keyId) : null;
+            if (verifier != null) {
+                return verifier;
+            }
+            keysLock.lock();
+            try {
+                verifier = keyId != null ? verifiers.get(keyId) : null;
+                if (verifier == null
+                        && (lastKeysFetch == 0 || clock.millis() - lastKeysFetch >= minRefetchIntervalMs)) {
+                    fetchSigningKeys(this);
+                    verifier = keyId != null ? verifiers.get(keyId) : null;
+                }
+            } finally {
+                keysLock.unlock();
+            }
+            return verifier;
+        }
+
+        /**
+         * Returns a cached access token for the key, or {@code null} if there is none that is
+         * still valid.
+         */
+        public String cachedAccessToken(String keyThumbprint) {
+            if (!cacheTokens) {
+                return null;
+            }
+            CachedToken cached = tokens.get(keyThumbprint);
+            if (cached != null && cached.refreshAt() > clock.millis()) {
+                tokenHits.increment();
+                return cached.value();
+            }
+            tokenMisses.increment();
+            return null;
+        }
+
+        /**
+         * Caches an access token bound to the key until shortly before it expires.
+         */
+        public void cacheAccessToken(String keyThumbprint, String accessToken, long expiresInSeconds) {
+            long lifetimeMs = TimeUnit.SECONDS.toMillis(expiresInSeconds) - TOKEN_EXPIRY_MARGIN_MS;
+            if (cacheTokens && lifetimeMs > 0) {
+                tokens.put(keyThumbprint, new CachedToken(accessToken, clock.millis() + lifetimeMs));
+            }
+        }
+
+        /**
+         * Forgets the cached access token for the key if it is still the given one, which Keycloak
+         * rejected. A token another request cached meanwhile is kept.
+         */
+        public void evictAccessToken(String keyThumbprint, String accessToken) {
+            tokens.computeIfPresent(
+                    keyThumbprint, (key, cached) -> cached.value().equals(accessToken) ? null : cached);
+        }
+    }
+
+    private record CachedToken(String value, long refreshAt) {}
+}
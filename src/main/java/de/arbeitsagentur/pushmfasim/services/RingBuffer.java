@@ -0,0 +1,71 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer. Producers claim a sequence
+ * number with a CAS and publish into the slot; when the buffer is full {@link #offer} returns
+ * false instead of blocking. Only one thread may call {@link #drain}.
+ */
+public final class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    // written by the consumer only; a slot is cleared before this moves past it
+    private volatile long consumed;
+
+    public RingBuffer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Adds the element, or returns false if the buffer is full.
+     */
+    public boolean offer(T element) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed > mask) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        slots.lazySet((int) (sequence & mask), element);
+        return true;
+    }
+
+    /**
+     * Hands up to {@code max} published elements to the consumer in claim order and returns how
+     * many were taken. Stops early at a slot that was claimed but not yet published.
+     */
+    public int drain(Consumer<? super T> consumer, int max) {
+        long next = consumed;
+        int taken = 0;
+        while (taken < max) {
+            int index = (int) (next & mask);
+            T element = slots.get(index);
+            if (element == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            consumed = ++next;
+            taken++;
+            consumer.accept(element);
+        }
+        return taken;
+    }
+
+    public int size() {
+        return (int) Math.max(0, claimed.get() - consumed);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
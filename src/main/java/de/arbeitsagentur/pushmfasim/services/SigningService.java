@@ -0,0 +1,129 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import de.arbeitsagentur.pushmfasim.jfr.JwtSignEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs RSA signing on a fixed, core-sized pool with a bounded queue.
+ * Request threads (virtual threads) only wait for the result, so CPU-bound signing
+ * can never oversubscribe the cores. When the queue is full the caller gets an
+ * {@link OverloadedException} immediately instead of timing out.
+ */
+@Service
+public class SigningService implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SigningService.class);
+
+    private final ThreadPoolExecutor executor;
+    private final long retryAfterSeconds;
+    private final Timer queueTimer;
+    private final Timer signTimer;
+    private final Counter rejectedCounter;
+
+    public SigningService(
+            @Value("${app.signing.threads:0}") int threads,
+            @Value("${app.signing.queue-capacity:256}") int queueCapacity,
+            @Value("${app.signing.retry-after-seconds:1}") long retryAfterSeconds,
+            MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "jwt-signer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.queueTimer = Timer.builder("simulator.signing.queue.time")
+                .description("Time a signing task waited for a signer thread")
+                .register(meterRegistry);
+        this.signTimer = Timer.builder("simulator.signing.duration")
+                .description("Time spent computing the signature")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("simulator.signing.rejected")
+                .description("Signing tasks rejected because the queue was full")
+                .register(meterRegistry);
+        Gauge.builder("simulator.signing.queue.size", executor.getQueue(), Collection::size)
+                .register(meterRegistry);
+        LOG.debug("Signing executor started with {} threads and queue capacity {}", poolSize, queueCapacity);
+    }
+
+    /**
+     * Signs the claims with RS256 on the signing pool and returns the compact serialization.
+     *
+     * @throws OverloadedException if the signing queue is full
+     */
+    public String sign(JWSHeader header, JWTClaimsSet claims, RSAKey privateJwk) throws JOSEException {
+        long submittedAt = System.nanoTime();
+        Future<String> future;
+        try {
+            future = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                queueTimer.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+                JwtSignEvent event = new JwtSignEvent();
+                event.begin();
+                SignedJWT signedJWT = new SignedJWT(header, claims);
+                signedJWT.sign(new RSASSASigner(privateJwk));
+                signTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                if (event.shouldCommit()) {
+                    event.algorithm = header.getAlgorithm().getName();
+                    event.tokenType =
+                            header.getType() != null ? header.getType().getType() : null;
+                    event.queueTime = startedAt - submittedAt;
+                    event.commit();
+                }
+                return signedJWT.serialize();
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            LOG.warn("Signing queue full, rejecting request");
+            throw new OverloadedException("Signing capacity exhausted", retryAfterSeconds);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new JOSEException("Interrupted while waiting for signature", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JOSEException joseException) {
+                throw joseException;
+            }
+            throw new JOSEException("Signing failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
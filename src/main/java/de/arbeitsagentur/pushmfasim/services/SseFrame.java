@@ -0,0 +1,43 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * A server-sent event encoded once, so that a broadcast writes the same bytes to every emitter.
+ * {@link SseEmitter#event()} keeps the data as an object that the message converters serialize
+ * again for each emitter; this frame reaches them as a single byte array that the byte array
+ * converter copies to the response as is.
+ */
+final class SseFrame {
+
+    private final Set<DataWithMediaType> content;
+
+    private SseFrame(byte[] frame) {
+        this.content = Set.of(new DataWithMediaType(frame, MediaType.TEXT_EVENT_STREAM));
+    }
+
+    /**
+     * Encodes an event with one data line; the data must not contain line breaks.
+     */
+    static SseFrame of(String name, byte[] data) {
+        byte[] event = ("event:" + name + "\ndata:").getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(event.length + data.length + 2);
+        frame.writeBytes(event);
+        frame.writeBytes(data);
+        frame.write('\n');
+        frame.write('\n');
+        return new SseFrame(frame.toByteArray());
+    }
+
+    /**
+     * The frame as {@link SseEmitter#send(java.util.Set)} takes it.
+     */
+    Set<DataWithMediaType> content() {
+        return content;
+    }
+}
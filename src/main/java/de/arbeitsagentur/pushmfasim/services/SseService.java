@@ -1,13 +1,39 @@
 package de.arbeitsagentur.pushmfasim.services;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.arbeitsagentur.pushmfasim.jfr.SseSendEvent;
 import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
@@ -15,66 +41,479 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 /**
  * SmartLifecycle is needed to gracefully shutdown server sent events.
  * @PreDestroy is not sufficient because it runs after gracefull shutdown.
+ *
+ * Emitters created with coalescing collect messages for up to {@code app.sse.coalescing.window-ms}
+ * or {@code max-batch} messages and receive them as one {@code fcm-messages} event with an array.
+ * Every event is encoded once into an {@link SseFrame} and the same bytes are written to all
+ * emitters it goes to.
+ *
+ * Broken connections are evicted when the container reports an error, after
+ * {@code app.sse.max-consecutive-failures} failed sends in a row, or by the sweep every
+ * {@code app.sse.sweep-interval-ms} once nothing could be sent to them for {@code stale-after-ms}
+ * (healthy emitters get a heartbeat every 10 seconds). New emitters beyond {@code max-emitters},
+ * {@code max-emitters-per-project} for one FCM project or {@code max-emitters-per-client} for one
+ * client address are rejected.
+ *
+ * Emitters subscribe to one FCM project (see {@link FcmProjectRegistry}) and receive only its
+ * messages. Every project has its own subscriber list and a delivery thread with a queue of
+ * {@code app.sse.max-pending-deliveries} messages, so a burst on one project cannot hold up the
+ * deliveries of others. {@code messages:send} asks {@link #acceptsMessage} first and answers 429
+ * while the queue is full; only messages relayed by a peer can still find it full and are
+ * dropped. A project's delivery thread ends when it is idle and its state is removed with its last
+ * emitter.
  */
 @Service
-public class SseService implements SmartLifecycle {
+public class SseService implements SmartLifecycle, FcmMessageListener {
     private final Logger LOG = org.slf4j.LoggerFactory.getLogger(SseService.class);
-    // list of SseEmitters could be added here if needed for broadcasting
-    private final List<SseEmitter> emitters = new ArrayList<>();
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    // copy-on-write so that an emitter can be evicted while a send loop iterates over the list
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    // connection state of the emitters in the list; registration guards adding and removing so
+    // that the caps hold, and is taken last, after the emitters and batch locks
+    private final Map<SseEmitter, Client> clients = new ConcurrentHashMap<>();
+    private final Map<String, Integer> emittersPerClient = new HashMap<>();
+    private final Object registration = new Object();
+    // the emitters above by FCM project, for delivery
+    private final Map<String, Subscribers> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService heartbeat = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sse-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // pending messages of emitters that use coalescing
+    private final Map<SseEmitter, List<FcmMessageRequestMessage>> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService batchFlusher;
+    private final long coalescingWindowMs;
+    private final int maxBatch;
+    private final DistributionSummary batchSizeSummary;
+    private final ObservationRegistry observationRegistry;
+    private final int maxEmitters;
+    private final int maxEmittersPerClient;
+    private final int maxEmittersPerProject;
+    private final int maxPendingDeliveries;
+    private final int maxConsecutiveFailures;
+    private final long staleAfterMs;
+    private final long sweepIntervalMs;
+    private final LongSupplier clock;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
     private boolean running = false;
     private static final long HEARTBEAT_INTERVAL_MS = 10000;
+    private static final SseFrame HEARTBEAT = SseFrame.of("heartbeat", "ping".getBytes(StandardCharsets.UTF_8));
+    private static final long REJECTED_RETRY_AFTER_SECONDS = 10;
     public static final long MESSAGE_SEND_TIMEOUT_MS = 360000;
 
+    private static final class Client {
+        private final String project;
+        private final String address;
+        private final long connectedAt;
+        private volatile long lastSentAt;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private Client(String project, String address, long connectedAt) {
+            this.project = project;
+            this.address = address;
+            this.connectedAt = connectedAt;
+            this.lastSentAt = connectedAt;
+        }
+    }
+
+    private final class Subscribers {
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        // one thread delivers the project's messages in order; the queue holds the rest
+        private final ThreadPoolExecutor delivery;
+        // deliveries queued or running, never more than maxPendingDeliveries
+        private final AtomicInteger pendingDeliveries = new AtomicInteger();
+        private final Counter rejected;
+        private final Counter dropped;
+        private final List<Meter> meters;
+
+        private Subscribers(String project) {
+            this.delivery = new ThreadPoolExecutor(
+                    1,
+                    1,
+                    60,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, maxPendingDeliveries)),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "sse-delivery-" + project);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            delivery.allowCoreThreadTimeOut(true);
+            Gauge subscribed = Gauge.builder("simulator.sse.subscribers", emitters, List::size)
+                    .description("Open SSE emitters of the project")
+                    .tag("project", project)
+                    .register(meterRegistry);
+            Gauge pending = Gauge.builder("simulator.sse.dispatch.pending", pendingDeliveries, AtomicInteger::get)
+                    .description("Messages of the project waiting for delivery to its SSE emitters")
+                    .tag("project", project)
+                    .register(meterRegistry);
+            this.rejected = Counter.builder("simulator.sse.dispatch.rejected")
+                    .description("Sends answered with 429 because the project's delivery queue was full")
+                    .tag("project", project)
+                    .register(meterRegistry);
+            this.dropped = Counter.builder("simulator.sse.dispatch.dropped")
+                    .description("Relayed messages not delivered because the project's delivery queue was full")
+                    .tag("project", project)
+                    .register(meterRegistry);
+            this.meters = List.of(subscribed, pending, rejected, dropped);
+        }
+    }
+
+    @Autowired
+    public SseService(
+            @Value("${app.sse.coalescing.window-ms:20}") long coalescingWindowMs,
+            @Value("${app.sse.coalescing.max-batch:100}") int maxBatch,
+            @Value("${app.sse.max-emitters:10000}") int maxEmitters,
+            @Value("${app.sse.max-emitters-per-client:500}") int maxEmittersPerClient,
+            @Value("${app.sse.max-emitters-per-project:5000}") int maxEmittersPerProject,
+            @Value("${app.sse.max-pending-deliveries:1000}") int maxPendingDeliveries,
+            @Value("${app.sse.max-consecutive-failures:3}") int maxConsecutiveFailures,
+            @Value("${app.sse.stale-after-ms:30000}") long staleAfterMs,
+            @Value("${app.sse.sweep-interval-ms:10000}") long sweepIntervalMs,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            ObservationRegistry observationRegistry) {
+        this(
+                coalescingWindowMs,
+                maxBatch,
+                maxEmitters,
+                maxEmittersPerClient,
+                maxEmittersPerProject,
+                maxPendingDeliveries,
+                maxConsecutiveFailures,
+                staleAfterMs,
+                sweepIntervalMs,
+                System::currentTimeMillis,
+                objectMapper,
+                meterRegistry,
+                observationRegistry);
+    }
+
+    SseService(
+            long coalescingWindowMs,
+            int maxBatch,
+            int maxEmitters,
+            int maxEmittersPerClient,
+            int maxEmittersPerProject,
+            int maxPendingDeliveries,
+            int maxConsecutiveFailures,
+            long staleAfterMs,
+            long sweepIntervalMs,
+            LongSupplier clock,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            ObservationRegistry observationRegistry) {
+        this.coalescingWindowMs = coalescingWindowMs;
+        this.observationRegistry = observationRegistry;
+        this.maxBatch = maxBatch;
+        this.maxEmitters = maxEmitters;
+        this.maxEmittersPerClient = maxEmittersPerClient;
+        this.maxEmittersPerProject = maxEmittersPerProject;
+        this.maxPendingDeliveries = maxPendingDeliveries;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.staleAfterMs = staleAfterMs;
+        this.sweepIntervalMs = sweepIntervalMs;
+        this.clock = clock;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.batchFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sse-batch-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchSizeSummary = DistributionSummary.builder("simulator.sse.batch.size")
+                .description("Messages per coalesced SSE event")
+                .register(meterRegistry);
+        Gauge.builder("simulator.sse.emitters", emitters, List::size)
+                .description("Open SSE emitters")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void onMessage(FcmMessageRequestMessage message) {
+        sendMessageToAllEmitters(message);
+    }
+
+    /**
+     * Returns whether the project's delivery queue has room for another message; the sender is
+     * asked to retry later otherwise, which is counted in {@code simulator.sse.dispatch.rejected}.
+     */
+    public boolean acceptsMessage(String project) {
+        Subscribers group = subscribers.get(project);
+        if (group == null || group.pendingDeliveries.get() < maxPendingDeliveries) {
+            return true;
+        }
+        group.rejected.increment();
+        return false;
+    }
+
     @SuppressWarnings("null")
     public void sendMessageToAllEmitters(FcmMessageRequestMessage request) {
-        executorService.execute(() -> {
-            synchronized (emitters) {
-                for (SseEmitter emitter : emitters) {
-                    if (!running) {
-                        break;
+        String project = request.getProject() != null ? request.getProject() : FcmProjectRegistry.DEFAULT_PROJECT;
+        Subscribers group = subscribers.get(project);
+        if (group == null) {
+            // nobody has subscribed to the project yet
+            return;
+        }
+        if (group.pendingDeliveries.incrementAndGet() > maxPendingDeliveries) {
+            // relayed by a peer, or a send that passed acceptsMessage at the same time as others
+            group.pendingDeliveries.decrementAndGet();
+            group.dropped.increment();
+            LOG.warn("Delivery queue of project {} is full, message not delivered", project);
+            return;
+        }
+        // the span of the incoming /fcm/messages:send request, if any
+        Observation parent = observationRegistry.getCurrentObservation();
+        try {
+            group.delivery.execute(() -> {
+                try {
+                    Observation.createNotStarted("simulator.sse.delivery", observationRegistry)
+                            .contextualName("sse delivery")
+                            .parentObservation(parent)
+                            .observe(() -> deliver(group, request));
+                } finally {
+                    group.pendingDeliveries.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, or the last emitter of the project has just left
+            group.pendingDeliveries.decrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("null")
+    private void deliver(Subscribers group, FcmMessageRequestMessage request) {
+        SseSendEvent event = new SseSendEvent();
+        event.begin();
+        int sent = 0;
+        // encoded on first use, then the same bytes for every emitter without coalescing
+        SseFrame frame = null;
+        synchronized (group) {
+            for (SseEmitter emitter : group.emitters) {
+                if (!running) {
+                    break;
+                }
+                List<FcmMessageRequestMessage> batch = batches.get(emitter);
+                if (batch != null) {
+                    boolean full;
+                    synchronized (batch) {
+                        batch.add(request);
+                        full = batch.size() >= maxBatch;
                     }
-                    try {
-                        emitter.send(SseEmitter.event().name("fcm-message").data(request));
-                    } catch (IOException e) {
-                        LOG.error("Error sending message to emitter: {}", e.getMessage());
+                    if (full) {
+                        flushBatch(emitter, batch);
                     }
+                    continue;
+                }
+                if (frame == null) {
+                    frame = SseFrame.of("fcm-message", payload(request));
+                }
+                if (send(emitter, frame)) {
+                    sent++;
                 }
             }
-            // work done, end thread
-            Thread.currentThread().interrupt();
-        });
+        }
+        if (event.shouldCommit()) {
+            event.eventType = "fcm-message";
+            event.emitterCount = sent;
+            event.messageCount = 1;
+            event.commit();
+        }
     }
 
-    public SseEmitter createSseEmitter() {
+    /**
+     * Creates an emitter that receives the messages of the given FCM project; {@code clientAddress}
+     * may be {@code null} if unknown, which exempts it from {@code max-emitters-per-client}.
+     *
+     * @throws OverloadedException if the total, the project's or the client's number of emitters
+     *     is exhausted
+     */
+    public SseEmitter createSseEmitter(String project, boolean coalesce, String clientAddress) {
         if (!running) {
             return null;
         }
-        SseEmitter sseEmitter = new SseEmitter(MESSAGE_SEND_TIMEOUT_MS);
-        sseEmitter.onCompletion(() -> removeEmitter(sseEmitter));
-        sseEmitter.onTimeout(() -> removeEmitter(sseEmitter));
-        synchronized (emitters) {
+        return register(new SseEmitter(MESSAGE_SEND_TIMEOUT_MS), project, coalesce, clientAddress);
+    }
+
+    SseEmitter register(SseEmitter sseEmitter, String project, boolean coalesce, String clientAddress) {
+        synchronized (registration) {
+            if (emitters.size() >= maxEmitters) {
+                rejected("total");
+                throw new OverloadedException("Too many SSE connections", REJECTED_RETRY_AFTER_SECONDS);
+            }
+            Subscribers existing = subscribers.get(project);
+            if ((existing != null ? existing.emitters.size() : 0) >= maxEmittersPerProject) {
+                rejected("per-project");
+                throw new OverloadedException(
+                        "Too many SSE connections for project " + project, REJECTED_RETRY_AFTER_SECONDS);
+            }
+            if (clientAddress != null && emittersPerClient.getOrDefault(clientAddress, 0) >= maxEmittersPerClient) {
+                rejected("per-client");
+                throw new OverloadedException(
+                        "Too many SSE connections from " + clientAddress, REJECTED_RETRY_AFTER_SECONDS);
+            }
+            // created with the first emitter of the project, removed with its last
+            Subscribers group = existing != null ? existing : subscribers.computeIfAbsent(project, Subscribers::new);
+            if (coalesce) {
+                batches.put(sseEmitter, new ArrayList<>());
+            }
+            clients.put(sseEmitter, new Client(project, clientAddress, clock.getAsLong()));
+            if (clientAddress != null) {
+                emittersPerClient.merge(clientAddress, 1, Integer::sum);
+            }
             emitters.add(sseEmitter);
+            group.emitters.add(sseEmitter);
         }
+        sseEmitter.onCompletion(() -> removeEmitter(sseEmitter, "completed"));
+        sseEmitter.onTimeout(() -> removeEmitter(sseEmitter, "timeout"));
+        sseEmitter.onError(e -> evict(sseEmitter, "error"));
 
         return sseEmitter;
     }
 
+    private void rejected(String reason) {
+        Counter.builder("simulator.sse.rejected")
+                .description("SSE emitters rejected because of the emitter caps")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Sends one event and tracks the outcome; returns whether it was sent. The emitter is evicted
+     * once it is closed or has failed {@code max-consecutive-failures} sends in a row.
+     */
+    private boolean send(SseEmitter emitter, SseFrame event) {
+        Client client = clients.get(emitter);
+        try {
+            emitter.send(event.content());
+            if (client != null) {
+                client.lastSentAt = clock.getAsLong();
+                client.consecutiveFailures.set(0);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.debug("Error sending to emitter: {}", e.getMessage());
+            if (client != null && client.consecutiveFailures.incrementAndGet() >= maxConsecutiveFailures) {
+                evict(emitter, "send-failures");
+            }
+        } catch (IllegalStateException e) {
+            // the emitter has been completed, e.g. after a failed send
+            LOG.debug("Emitter already closed: {}", e.getMessage());
+            evict(emitter, "closed");
+        }
+        return false;
+    }
+
+    private void evict(SseEmitter emitter, String reason) {
+        if (removeEmitter(emitter, reason)) {
+            Counter.builder("simulator.sse.evictions")
+                    .description("SSE emitters removed because their connection is broken")
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+            // no-op if the emitter is already completed or a send on it failed
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Evicts emitters that nothing could be sent to for {@code stale-after-ms}.
+     */
+    void sweep() {
+        long staleBefore = clock.getAsLong() - staleAfterMs;
+        clients.forEach((emitter, client) -> {
+            if (client.lastSentAt < staleBefore) {
+                evict(emitter, "stale");
+            }
+        });
+    }
+
+    private void flushBatch(SseEmitter emitter, List<FcmMessageRequestMessage> batch) {
+        // sent under the lock so a full batch and the timed flush cannot overtake each other
+        synchronized (batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            batchSizeSummary.record(batch.size());
+            SseSendEvent event = new SseSendEvent();
+            event.begin();
+            try {
+                if (send(emitter, SseFrame.of("fcm-messages", payload(batch))) && event.shouldCommit()) {
+                    event.eventType = "fcm-messages";
+                    event.emitterCount = 1;
+                    event.messageCount = batch.size();
+                    event.commit();
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * The message JSON as received by {@code /fcm/messages:send}; other messages, e.g. relayed by a
+     * replica of an older version, are serialized with the application's object mapper.
+     */
+    private byte[] payload(FcmMessageRequestMessage message) {
+        return message.getRawJson() != null ? message.getRawJson() : json(message);
+    }
+
+    private byte[] payload(List<FcmMessageRequestMessage> batch) {
+        // one JSON array of the received messages, unless some have to be serialized anyway
+        int length = 1 + batch.size();
+        for (FcmMessageRequestMessage message : batch) {
+            if (message.getRawJson() == null) {
+                return json(batch);
+            }
+            length += message.getRawJson().length;
+        }
+        ByteArrayOutputStream json = new ByteArrayOutputStream(length);
+        json.write('[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                json.write(',');
+            }
+            json.writeBytes(batch.get(i).getRawJson());
+        }
+        json.write(']');
+        return json.toByteArray();
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushBatches() {
+        batches.forEach(this::flushBatch);
+    }
+
     public void sendHeartbeat() {
-        executorService.execute(() -> {
+        heartbeat.execute(() -> {
             while (running) {
+                SseSendEvent event = new SseSendEvent();
+                event.begin();
+                int sent = 0;
                 synchronized (emitters) {
                     for (SseEmitter emitter : emitters) {
                         if (!running) {
                             break;
                         }
-                        try {
-                            emitter.send(SseEmitter.event().name("heartbeat").data("ping"));
-                        } catch (IOException e) {
-                            LOG.error("Error sending heartbeat to emitter: {}", e.getMessage());
+                        if (send(emitter, HEARTBEAT)) {
+                            sent++;
                         }
                     }
                 }
+                if (event.shouldCommit()) {
+                    event.eventType = "heartbeat";
+                    event.emitterCount = sent;
+                    event.commit();
+                }
                 try {
                     Thread.sleep(HEARTBEAT_INTERVAL_MS);
                 } catch (InterruptedException e) {
@@ -88,22 +527,59 @@ public class SseService implements SmartLifecycle {
         });
     }
 
-    private void removeEmitter(SseEmitter emitter) {
-        synchronized (emitters) {
-            emitters.remove(emitter);
+    /**
+     * Removes the emitter and records its lifetime; returns false if it was already removed.
+     */
+    private boolean removeEmitter(SseEmitter emitter, String reason) {
+        Client client;
+        synchronized (registration) {
+            if (!emitters.remove(emitter)) {
+                return false;
+            }
+            batches.remove(emitter);
+            client = clients.remove(emitter);
+            if (client != null) {
+                Subscribers group = subscribers.get(client.project);
+                group.emitters.remove(emitter);
+                if (group.emitters.isEmpty()) {
+                    // projects come and go, see FcmProjectRegistry
+                    subscribers.remove(client.project, group);
+                    group.delivery.shutdown();
+                    group.meters.forEach(meterRegistry::remove);
+                }
+            }
+            if (client != null && client.address != null) {
+                emittersPerClient.computeIfPresent(client.address, (address, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+        if (client != null) {
+            Timer.builder("simulator.sse.emitter.lifetime")
+                    .description("Time from opening an SSE emitter until it was removed")
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .record(clock.getAsLong() - client.connectedAt, TimeUnit.MILLISECONDS);
         }
+        return true;
     }
 
     private void doShutdown() {
         running = false;
-        executorService.shutdown();
+        batchFlusher.shutdown();
+        flushBatches();
+        List<ExecutorService> executors = new ArrayList<>();
+        executors.add(heartbeat);
+        subscribers.values().forEach(group -> executors.add(group.delivery));
+        executors.forEach(ExecutorService::shutdown);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
         try {
-            if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
-                List<Runnable> unfinished = executorService.shutdownNow();
-                LOG.warn("SseService unfinished thread count {}", unfinished.size());
+            for (ExecutorService executor : executors) {
+                if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    List<Runnable> unfinished = executor.shutdownNow();
+                    LOG.warn("SseService unfinished thread count {}", unfinished.size());
+                }
             }
         } catch (InterruptedException e) {
-            executorService.shutdownNow();
+            executors.forEach(ExecutorService::shutdownNow);
         }
         synchronized (emitters) {
             for (SseEmitter emitter : emitters) {
@@ -117,6 +593,11 @@ public class SseService implements SmartLifecycle {
     public void start() {
         running = true;
         sendHeartbeat();
+        if (!batchFlusher.isShutdown()) {
+            batchFlusher.scheduleWithFixedDelay(
+                    this::flushBatches, coalescingWindowMs, coalescingWindowMs, TimeUnit.MILLISECONDS);
+            batchFlusher.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
@@ -0,0 +1,169 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.text.ParseException;
+import java.time.Clock;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+/**
+ * Optional verification of incoming enrollment and confirm tokens against the signing keys of
+ * the realm they are sent to, so malformed or stale tokens are rejected before any signing or
+ * Keycloak call.
+ *
+ * <p>Keys come from the realm's JWKS, fetched on first use and cached by key ID in
+ * {@link RealmRegistry.Realm}; a token with an unknown {@code kid} refetches the JWKS at most
+ * once per {@code min-refetch-interval-seconds}. The keys of every realm in use are refreshed
+ * every {@code refresh-interval-seconds} in the background.
+ */
+@Service
+public class TokenVerifier implements SmartLifecycle {
+
+    private final boolean enabled;
+    private final long refreshIntervalSeconds;
+    private final long minRefetchIntervalMs;
+    private final long clockSkewMs;
+    private final RealmRegistry realms;
+    private final Clock clock;
+    private final ScheduledExecutorService refresher;
+
+    private final Counter acceptedCounter;
+    private final Counter rejectedCounter;
+
+    private volatile boolean running;
+
+    @Autowired
+    public TokenVerifier(
+            @Value("${app.token-verification.enabled:false}") boolean enabled,
+            @Value("${app.token-verification.refresh-interval-seconds:300}") long refreshIntervalSeconds,
+            @Value("${app.token-verification.min-refetch-interval-seconds:10}") long minRefetchIntervalSeconds,
+            @Value("${app.token-verification.clock-skew-seconds:30}") long clockSkewSeconds,
+            RealmRegistry realms,
+            MeterRegistry meterRegistry) {
+        this(
+                enabled,
+                refreshIntervalSeconds,
+                minRefetchIntervalSeconds,
+                clockSkewSeconds,
+                realms,
+                Clock.systemUTC(),
+                meterRegistry);
+    }
+
+    TokenVerifier(
+            boolean enabled,
+            long refreshIntervalSeconds,
+            long minRefetchIntervalSeconds,
+            long clockSkewSeconds,
+            RealmRegistry realms,
+            Clock clock,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.refreshIntervalSeconds = refreshIntervalSeconds;
+        this.minRefetchIntervalMs = TimeUnit.SECONDS.toMillis(minRefetchIntervalSeconds);
+        this.clockSkewMs = TimeUnit.SECONDS.toMillis(clockSkewSeconds);
+        this.realms = realms;
+        this.clock = clock;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.acceptedCounter = Counter.builder("simulator.token.verification")
+                .description("Incoming enrollment and confirm tokens checked against the realm's keys")
+                .tag("result", "accepted")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("simulator.token.verification")
+                .description("Incoming enrollment and confirm tokens checked against the realm's keys")
+                .tag("result", "rejected")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Checks signature, expiry and not-before of the token against the realm's signing keys.
+     * Does nothing when verification is disabled.
+     *
+     * @throws InvalidTokenException with the reason the token was rejected
+     */
+    public void verify(RealmRegistry.Realm realm, JWT jwt) throws InvalidTokenException {
+        if (!enabled) {
+            return;
+        }
+        try {
+            check(realm, jwt);
+            acceptedCounter.increment();
+        } catch (InvalidTokenException e) {
+            rejectedCounter.increment();
+            throw e;
+        }
+    }
+
+    private void check(RealmRegistry.Realm realm, JWT jwt) throws InvalidTokenException {
+        if (!(jwt instanceof SignedJWT signedJWT)) {
+            throw new InvalidTokenException("token is not signed");
+        }
+        String keyId = signedJWT.getHeader().getKeyID();
+        JWSVerifier verifier = realm.signingKey(keyId, minRefetchIntervalMs);
+        if (verifier == null) {
+            throw new InvalidTokenException("unknown signing key " + keyId);
+        }
+        try {
+            if (!signedJWT.verify(verifier)) {
+                throw new InvalidTokenException("signature does not match");
+            }
+        } catch (JOSEException e) {
+            throw new InvalidTokenException("signature cannot be verified: " + e.getMessage());
+        }
+        JWTClaimsSet claims;
+        try {
+            claims = signedJWT.getJWTClaimsSet();
+        } catch (ParseException e) {
+            throw new InvalidTokenException("claims cannot be parsed");
+        }
+        long now = clock.millis();
+        Date expiration = claims.getExpirationTime();
+        if (expiration != null && expiration.getTime() + clockSkewMs < now) {
+            throw new InvalidTokenException("token expired");
+        }
+        Date notBefore = claims.getNotBeforeTime();
+        if (notBefore != null && notBefore.getTime() - clockSkewMs > now) {
+            throw new InvalidTokenException("token not yet valid");
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (enabled) {
+            refresher.scheduleWithFixedDelay(
+                    realms::refreshSigningKeys, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
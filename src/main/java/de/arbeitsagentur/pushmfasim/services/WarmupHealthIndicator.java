@@ -0,0 +1,27 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports {@code OUT_OF_SERVICE} while {@link WarmupService} is still running. Part of the
+ * {@code readiness} health group, so load balancers only route to warmed-up instances.
+ */
+@Component
+public class WarmupHealthIndicator implements HealthIndicator {
+
+    private final WarmupService warmup;
+
+    public WarmupHealthIndicator(WarmupService warmup) {
+        this.warmup = warmup;
+    }
+
+    @Override
+    public Health health() {
+        if (!warmup.isComplete()) {
+            return Health.outOfService().withDetail("phase", warmup.phase()).build();
+        }
+        return Health.up().withDetail("durationMs", warmup.durationMs()).build();
+    }
+}
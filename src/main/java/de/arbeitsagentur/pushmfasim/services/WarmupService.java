@@ -0,0 +1,226 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.SignedJWT;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequest;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Warms up a freshly started instance before it takes traffic: JIT-compiles the signing, JWT
+ * parsing and Jackson paths with synthetic loops, opens pooled connections to the configured
+ * realms and renders every view once through the local web server.
+ *
+ * <p>Warm-up runs on a background thread after the application is ready. Until it has finished,
+ * or {@code max-duration-seconds} have passed, {@link WarmupHealthIndicator} keeps the readiness
+ * probe out of service.
+ */
+@Service
+public class WarmupService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WarmupService.class);
+    private static final List<String> VIEW_PATHS = List.of("/", "/confirm", "/enroll");
+
+    private final boolean enabled;
+    private final int iterations;
+    private final Set<String> realmUrls = new LinkedHashSet<>();
+    private final int connections;
+    private final long maxDurationNanos;
+    private final String contextPath;
+    private final RealmRegistry realms;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile String phase = "pending";
+    private volatile boolean complete;
+    private volatile long deadline;
+    private volatile boolean started;
+    private volatile long durationMs;
+
+    @Autowired
+    public WarmupService(
+            @Value("${app.warmup.enabled:true}") boolean enabled,
+            @Value("${app.warmup.iterations:500}") int iterations,
+            @Value("${app.warmup.realms:}") List<String> realmUrls,
+            @Value("${app.warmup.connections:4}") int connections,
+            @Value("${app.warmup.max-duration-seconds:60}") long maxDurationSeconds,
+            @Value("${app.defaultIamUrl:http://localhost:8080/realms/demo}") String defaultIamUrl,
+            @Value("${app.enroll.complete.url:http://localhost:8080/realms/demo/push-mfa/enroll/complete}")
+                    String enrollCompleteUrl,
+            @Value("${server.servlet.context-path:}") String contextPath,
+            RealmRegistry realms) {
+        this.enabled = enabled;
+        this.iterations = iterations;
+        realmUrls.stream().filter(url -> !url.isBlank()).forEach(this.realmUrls::add);
+        if (this.realmUrls.isEmpty()) {
+            this.realmUrls.add(RealmRegistry.normalize(defaultIamUrl));
+            this.realmUrls.add(RealmRegistry.normalize(enrollCompleteUrl));
+        }
+        this.connections = connections;
+        this.maxDurationNanos = TimeUnit.SECONDS.toNanos(maxDurationSeconds);
+        this.contextPath = contextPath;
+        this.realms = realms;
+        this.complete = !enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void onApplicationReady(ApplicationReadyEvent event) {
+        if (!enabled) {
+            return;
+        }
+        int port = event.getApplicationContext() instanceof WebServerApplicationContext context
+                ? context.getWebServer().getPort()
+                : -1;
+        Thread thread = new Thread(() -> run(port), "warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs all warm-up phases; views are skipped when {@code port} is not positive.
+     */
+    void run(int port) {
+        long startedAt = System.nanoTime();
+        deadline = startedAt + maxDurationNanos;
+        started = true;
+        try {
+            phase = "signing";
+            warmUpSigning();
+            phase = "connections";
+            warmUpConnections();
+            if (port > 0) {
+                phase = "views";
+                warmUpViews(port);
+            }
+        } catch (Exception e) {
+            LOG.warn("Warm-up failed in phase {}, continuing cold: {}", phase, e.getMessage());
+        } finally {
+            durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            phase = "done";
+            complete = true;
+            LOG.info("Warm-up finished after {} ms", durationMs);
+        }
+    }
+
+    private void warmUpSigning() throws JOSEException, IOException, ParseException {
+        RSAKey key =
+                new RSAKeyGenerator(2048).keyID(UUID.randomUUID().toString()).generate();
+        RSASSASigner signer = new RSASSASigner(key);
+        RSASSAVerifier verifier = new RSASSAVerifier(key.toPublicJWK());
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256)
+                .type(new JOSEObjectType("dpop+jwt"))
+                .jwk(key.toPublicJWK())
+                .build();
+        FcmMessageNotification notification = FcmMessageNotification.builder()
+                .title("warm-up")
+                .body("warm-up")
+                .build();
+        for (int i = 0; i < iterations && System.nanoTime() - deadline < 0; i++) {
+            JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                    .claim("htm", "POST")
+                    .claim("htu", "http://localhost/realms/warm-up/protocol/openid-connect/token")
+                    .jwtID(UUID.randomUUID().toString())
+                    .issueTime(new Date())
+                    .claim("cid", "warm-up-" + i)
+                    .build();
+            SignedJWT signed = new SignedJWT(header, claims);
+            signed.sign(signer);
+            FcmMessageRequest request = FcmMessageRequest.builder()
+                    .message(FcmMessageRequestMessage.builder()
+                            .token("warm-up")
+                            .notification(notification)
+                            .data(FcmMessageData.builder()
+                                    .token(signed.serialize())
+                                    .build())
+                            .build())
+                    .build();
+            String json = objectMapper.writeValueAsString(request);
+            JsonNode tree = objectMapper.readTree(json);
+            SignedJWT parsed =
+                    (SignedJWT) JWTParser.parse(tree.at("/message/data/token").asText());
+            if (!parsed.verify(verifier)) {
+                throw new JOSEException("Warm-up signature did not verify");
+            }
+            objectMapper.readValue(json, FcmMessageRequest.class);
+            objectMapper.convertValue(parsed.getJWTClaimsSet().toJSONObject(), Map.class);
+        }
+    }
+
+    private void warmUpConnections() {
+        for (String realmUrl : realmUrls) {
+            int opened = realms.preconnect(realmUrl, connections);
+            LOG.debug("Warm-up opened {} of {} connections to {}", opened, connections, realmUrl);
+        }
+    }
+
+    private void warmUpViews(int port) {
+        HttpClient client =
+                HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        for (String path : VIEW_PATHS) {
+            URI uri = URI.create("http://localhost:" + port + contextPath + path);
+            try {
+                HttpResponse<Void> response = client.send(
+                        HttpRequest.newBuilder(uri)
+                                .timeout(Duration.ofSeconds(10))
+                                .GET()
+                                .build(),
+                        HttpResponse.BodyHandlers.discarding());
+                LOG.debug("Warm-up rendered {} with status {}", uri, response.statusCode());
+            } catch (IOException e) {
+                LOG.debug("Warm-up request to {} failed: {}", uri, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * True once warm-up has finished, is disabled or has run longer than
+     * {@code max-duration-seconds}; a phase that is still running then continues in the background.
+     */
+    public boolean isComplete() {
+        return complete || (started && System.nanoTime() - deadline > 0);
+    }
+
+    public String phase() {
+        return phase;
+    }
+
+    public long durationMs() {
+        return durationMs;
+    }
+}
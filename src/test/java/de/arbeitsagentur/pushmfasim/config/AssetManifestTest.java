@@ -0,0 +1,30 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+
+class AssetManifestTest {
+
+    @Test
+    void bundle_shouldResolveHashedNamesFromManifest() {
+        AssetManifest manifest = AssetManifest.load(
+                new ByteArrayResource("{\"confirm\":\"confirm.5K2QXN7A.js\",\"enroll\":\"enroll.PL3VW6TE.js\"}"
+                        .getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("confirm.5K2QXN7A.js", manifest.bundle("confirm"));
+        assertEquals("enroll.PL3VW6TE.js", manifest.bundle("enroll"));
+        // entries missing from the manifest keep their watch-mode name
+        assertEquals("info.bundle.js", manifest.bundle("info"));
+    }
+
+    @Test
+    void load_withoutManifest_shouldUseWatchModeNames() {
+        AssetManifest manifest = AssetManifest.load(new ClassPathResource("static/js/missing-manifest.json"));
+
+        assertEquals("confirm.bundle.js", manifest.bundle("confirm"));
+    }
+}
@@ -0,0 +1,50 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+class NativeRuntimeHintsTest {
+
+    private RuntimeHints hints;
+
+    @BeforeEach
+    void setUp() {
+        hints = new RuntimeHints();
+        new NativeRuntimeHints().registerHints(hints, getClass().getClassLoader());
+    }
+
+    @Test
+    void shouldRegisterModelClassesForJsonBinding() {
+        for (Class<?> type : NativeRuntimeHints.JSON_BOUND_TYPES) {
+            assertThat(RuntimeHintsPredicates.reflection()
+                            .onType(type)
+                            .withMemberCategories(
+                                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                                    MemberCategory.INVOKE_DECLARED_METHODS,
+                                    MemberCategory.DECLARED_FIELDS))
+                    .accepts(hints);
+        }
+    }
+
+    @Test
+    void shouldRegisterNimbusTypes() {
+        for (Class<?> type : NativeRuntimeHints.NIMBUS_TYPES) {
+            assertThat(RuntimeHintsPredicates.reflection().onType(type)).accepts(hints);
+        }
+    }
+
+    @Test
+    void shouldRegisterViewsAndKeyResources() {
+        assertThat(RuntimeHintsPredicates.resource().forResource("views/confirm-page.html"))
+                .accepts(hints);
+        assertThat(RuntimeHintsPredicates.resource().forResource("views/fragments/snippets.html"))
+                .accepts(hints);
+        assertThat(RuntimeHintsPredicates.resource().forResource("static/keys/rsa-jwk.json"))
+                .accepts(hints);
+    }
+}
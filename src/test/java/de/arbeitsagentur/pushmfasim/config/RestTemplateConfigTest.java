@@ -2,10 +2,15 @@ package de.arbeitsagentur.pushmfasim.config;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import de.arbeitsagentur.pushmfasim.services.RealmRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.boot.actuate.metrics.web.client.ObservationRestTemplateCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.observation.DefaultClientRequestObservationConvention;
 import org.springframework.web.client.RestTemplate;
 
 class RestTemplateConfigTest {
@@ -63,4 +68,19 @@ class RestTemplateConfigTest {
         // then
         assertThat(restTemplate.getRequestFactory()).isSameAs(originalFactory);
     }
+
+    @Test
+    void shouldKeepObservationCustomizerForTracePropagation() {
+        // given
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        RestTemplateBuilder builder = new RestTemplateBuilder(new ObservationRestTemplateCustomizer(
+                observationRegistry, new DefaultClientRequestObservationConvention()));
+        RestTemplateConfig config = new RestTemplateConfig(new ProxyConfig());
+
+        // when
+        RestTemplate restTemplate = config.restTemplate(builder, Mockito.mock(RealmRegistry.class));
+
+        // then
+        assertThat(restTemplate.getObservationRegistry()).isSameAs(observationRegistry);
+    }
 }
@@ -0,0 +1,55 @@
+package de.arbeitsagentur.pushmfasim.config;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import de.arbeitsagentur.pushmfasim.controller.DeviceKeyController;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+@WebMvcTest(controllers = DeviceKeyController.class)
+@Import(StaticResourceConfig.class)
+@ActiveProfiles("prod")
+class StaticResourceConfigTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private DeviceKeyProvisioner provisioner;
+
+    @Test
+    void hashedBundle_shouldBeImmutable() throws Exception {
+        mockMvc.perform(get("/js/confirm.ABCDEFGH.js"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", containsString("immutable")));
+        mockMvc.perform(get("/js/chunks/chunk.QRSTUV23.js"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", containsString("immutable")));
+    }
+
+    @Test
+    void unhashedBundle_shouldBeRevalidated() throws Exception {
+        // written by npm run dev, whose content changes under the same name
+        mockMvc.perform(get("/js/confirm.bundle.js"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(header().string("Cache-Control", not(containsString("immutable"))));
+    }
+
+    @Test
+    void versionlessWebjarPath_shouldBeResolved() throws Exception {
+        mockMvc.perform(get("/webjars/bootstrap/css/bootstrap.min.css"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", containsString("immutable")));
+    }
+}
@@ -1,19 +1,63 @@
 package de.arbeitsagentur.pushmfasim.controller;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
 import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import de.arbeitsagentur.pushmfasim.config.ProxyConfig;
+import de.arbeitsagentur.pushmfasim.services.ApprovalLatencyTracker;
+import de.arbeitsagentur.pushmfasim.services.AuditLog;
+import de.arbeitsagentur.pushmfasim.services.ConcurrencyLimiterRegistry;
+import de.arbeitsagentur.pushmfasim.services.ConfirmDeduplicator;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeystore;
+import de.arbeitsagentur.pushmfasim.services.InvalidTokenException;
+import de.arbeitsagentur.pushmfasim.services.KeycloakCallPolicy;
+import de.arbeitsagentur.pushmfasim.services.OverloadedException;
+import de.arbeitsagentur.pushmfasim.services.RealmRegistry;
+import de.arbeitsagentur.pushmfasim.services.SigningService;
+import de.arbeitsagentur.pushmfasim.services.TokenVerifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,6 +67,39 @@ class ConfirmControllerTest {
     @Mock
     private RestTemplate restTemplate;
 
+    @Spy
+    private ConcurrencyLimiterRegistry concurrencyLimiters =
+            new ConcurrencyLimiterRegistry(true, 20, 4, 500, 0.9, 5000, 100, 100, 1, new SimpleMeterRegistry());
+
+    @Spy
+    private ObservationRegistry observationRegistry = ObservationRegistry.create();
+
+    @Mock
+    private AuditLog auditLog;
+
+    @Spy
+    private RealmRegistry realms =
+            new RealmRegistry(false, 8, 4, 10000, true, new ProxyConfig(), new SimpleMeterRegistry());
+
+    @Mock
+    private DeviceKeyProvisioner deviceKeys;
+
+    @Mock
+    private TokenVerifier tokenVerifier;
+
+    @Mock
+    private SigningService signingService;
+
+    @Mock
+    private ApprovalLatencyTracker approvalLatency;
+
+    @Spy
+    private ConfirmDeduplicator confirmations = new ConfirmDeduplicator(true, 5000, 100, new SimpleMeterRegistry());
+
+    @Spy
+    private KeycloakCallPolicy keycloakCalls =
+            new KeycloakCallPolicy(3, 1, 5, false, 20, 1000, 20, new SimpleMeterRegistry(), ObservationRegistry.NOOP);
+
     @InjectMocks
     private ConfirmController confirmController;
 
@@ -331,4 +408,168 @@ class ConfirmControllerTest {
         String result = (String) method.invoke(confirmController, credentialId);
         assertEquals(userId, result);
     }
+
+    @Test
+    @DisplayName("Should reject token failing verification before calling Keycloak")
+    void testRejectsUnverifiedTokenBeforeOutboundCalls() throws Exception {
+        String token = new PlainJWT(new JWTClaimsSet.Builder()
+                        .claim("cid", "challenge-1")
+                        .claim("credId", "user-1-device-alias-context")
+                        .build())
+                .serialize();
+        doThrow(new InvalidTokenException("token is not signed"))
+                .when(tokenVerifier)
+                .verify(any(), any());
+
+        ResponseEntity<String> response = confirmController.completeEnrollProcess(
+                token, "test-context", "approve", null, "http://localhost:8080/realms/demo");
+
+        assertEquals(401, response.getStatusCode().value());
+        assertEquals("Invalid token: token is not signed", response.getBody());
+        verifyNoInteractions(restTemplate, deviceKeys);
+    }
+
+    @Test
+    @DisplayName("Should retry the pending challenges lookup with a fresh DPoP proof")
+    void testRetriesPendingChallengesWithFreshProof() throws Exception {
+        String url = "http://localhost:8080/realms/demo/push-mfa/login/pending?userId=user-1";
+        AtomicInteger proofs = new AtomicInteger();
+        when(restTemplate.exchange(eq(url), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+                .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+                .thenReturn(ResponseEntity.ok("{\"challenges\":[]}"));
+
+        JsonNode pending =
+                confirmController.getPendingChallenges(url, () -> "proof-" + proofs.incrementAndGet(), "access-token");
+
+        assertNotNull(pending);
+        assertTrue(pending.has("challenges"));
+        assertEquals(2, proofs.get());
+    }
+
+    @Test
+    @DisplayName("Should drop a cached access token Keycloak rejects and retry once with a fresh one")
+    void testRetriesWithFreshAccessTokenAfterRejection() throws Exception {
+        String realmUrl = "http://localhost:8080/realms/demo";
+        RealmRegistry.Realm realm = realms.realm(realmUrl);
+        RSAKey deviceKey = new RSAKeyGenerator(2048).keyID("device-key").generate();
+        when(deviceKeys.find("user-1-device-alias-context")).thenReturn(deviceKey);
+        when(signingService.sign(any(), any(), any())).thenReturn("signed");
+        String keyThumbprint = deviceKey.computeThumbprint().toString();
+        realm.cacheAccessToken(keyThumbprint, "stale-token", 300);
+
+        String pendingUrl = realm.pendingEndpoint() + "?userId=user-1";
+        when(restTemplate.exchange(
+                        eq(pendingUrl),
+                        eq(HttpMethod.GET),
+                        argThat((HttpEntity<?> request) ->
+                                "Bearer stale-token".equals(request.getHeaders().getFirst("Authorization"))),
+                        eq(String.class)))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.UNAUTHORIZED, "Unauthorized", null, null, null));
+        when(restTemplate.exchange(
+                        eq(pendingUrl),
+                        eq(HttpMethod.GET),
+                        argThat((HttpEntity<?> request) ->
+                                "Bearer fresh-token".equals(request.getHeaders().getFirst("Authorization"))),
+                        eq(String.class)))
+                .thenReturn(ResponseEntity.ok("{\"challenges\":[{\"cid\":\"challenge-1\"}]}"));
+        when(restTemplate.postForEntity(eq(realm.tokenEndpoint()), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(ResponseEntity.ok("{\"access_token\":\"fresh-token\",\"expires_in\":300}"));
+        when(restTemplate.postForEntity(
+                        eq(realm.respondEndpoint("challenge-1")), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(ResponseEntity.ok(""));
+        String token = new PlainJWT(new JWTClaimsSet.Builder()
+                        .claim("cid", "challenge-1")
+                        .claim("credId", "user-1-device-alias-context")
+                        .build())
+                .serialize();
+
+        ResponseEntity<String> response = confirmController.completeEnrollProcess(token, null, "deny", null, realmUrl);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("fresh-token", realm.cachedAccessToken(keyThumbprint));
+        verify(restTemplate, times(1))
+                .postForEntity(eq(realm.tokenEndpoint()), any(HttpEntity.class), eq(String.class));
+    }
+
+    @Test
+    @DisplayName("Should answer 503 with Retry-After when the signer is saturated")
+    void testSaturatedSignerAnswersServiceUnavailable() throws Exception {
+        RSAKey deviceKey = new RSAKeyGenerator(2048).keyID("device-key").generate();
+        when(deviceKeys.find("user-1-device-alias-context")).thenReturn(deviceKey);
+        when(signingService.sign(any(), any(), any()))
+                .thenThrow(new OverloadedException("Signing capacity exhausted", 2));
+        String token = new PlainJWT(new JWTClaimsSet.Builder()
+                        .claim("cid", "challenge-1")
+                        .claim("credId", "user-1-device-alias-context")
+                        .build())
+                .serialize();
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(confirmController)
+                .setControllerAdvice(new OverloadExceptionHandler())
+                .build();
+
+        mockMvc.perform(post("/confirm/login")
+                        .param("token", token)
+                        .param("action", "deny")
+                        .param("iamUrl", "http://localhost:8080/realms/demo"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "2"));
+        verifyNoInteractions(restTemplate);
+    }
+
+    @Test
+    @DisplayName("Should confirm with the key provisioned for the credential")
+    void testConfirmsWithProvisionedKey(@TempDir Path tempDir) throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DeviceKeyProvisioner provisioner =
+                new DeviceKeyProvisioner(tempDir.resolve("devices.keystore").toString(), 10, meterRegistry);
+        SigningService signer = new SigningService(1, 16, 1, meterRegistry);
+        try {
+            provisioner.provision(1, DeviceKeystore.Algorithm.RS256, DeviceKeyProvisioner.DEFAULT_ID_PATTERN);
+            String credentialId = String.format(DeviceKeyProvisioner.DEFAULT_ID_PATTERN, 0);
+            RSAKey provisioned = (RSAKey) provisioner.find(credentialId);
+            ConfirmController controller = new ConfirmController(
+                    restTemplate,
+                    signer,
+                    concurrencyLimiters,
+                    approvalLatency,
+                    observationRegistry,
+                    auditLog,
+                    realms,
+                    provisioner,
+                    tokenVerifier,
+                    confirmations,
+                    keycloakCalls);
+            String realmUrl = "http://localhost:8080/realms/demo";
+            RealmRegistry.Realm realm = realms.realm(realmUrl);
+            when(restTemplate.postForEntity(eq(realm.tokenEndpoint()), any(HttpEntity.class), eq(String.class)))
+                    .thenReturn(ResponseEntity.ok("{\"access_token\":\"token\",\"expires_in\":300}"));
+            when(restTemplate.exchange(
+                            eq(realm.pendingEndpoint() + "?userId=user-0"),
+                            eq(HttpMethod.GET),
+                            any(HttpEntity.class),
+                            eq(String.class)))
+                    .thenReturn(ResponseEntity.ok("{\"challenges\":[{\"cid\":\"challenge-1\"}]}"));
+            when(restTemplate.postForEntity(
+                            eq(realm.respondEndpoint("challenge-1")), any(HttpEntity.class), eq(String.class)))
+                    .thenReturn(ResponseEntity.ok(""));
+            String token = new PlainJWT(new JWTClaimsSet.Builder()
+                            .claim("cid", "challenge-1")
+                            .claim("credId", credentialId)
+                            .build())
+                    .serialize();
+
+            ResponseEntity<String> response = controller.completeEnrollProcess(token, null, "deny", null, realmUrl);
+
+            assertEquals(200, response.getStatusCode().value());
+            ArgumentCaptor<HttpEntity<?>> respond = ArgumentCaptor.captor();
+            verify(restTemplate)
+                    .postForEntity(eq(realm.respondEndpoint("challenge-1")), respond.capture(), eq(String.class));
+            SignedJWT dpop = SignedJWT.parse(respond.getValue().getHeaders().getFirst("DPoP"));
+            assertEquals(provisioned.toPublicJWK(), dpop.getHeader().getJWK());
+            assertTrue(dpop.verify(new RSASSAVerifier(provisioned.toPublicJWK())));
+        } finally {
+            signer.destroy();
+            provisioner.destroy();
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package de.arbeitsagentur.pushmfasim.controller;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+@WebMvcTest(controllers = DeviceKeyController.class)
+class DeviceKeyControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private DeviceKeyProvisioner provisioner;
+
+    @Test
+    void rsaJwk_shouldStillBeServedAsStaticResource() throws Exception {
+        // the UI loads this file; the key lookup must not shadow it
+        mockMvc.perform(get("/keys/rsa-jwk.json"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.private").exists());
+    }
+
+    @Test
+    void key_withUnknownCredentialId_shouldReturnNotFound() throws Exception {
+        mockMvc.perform(get("/keys/devices/unknown-device")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void key_shouldReturnThePublicKeyOnly() throws Exception {
+        when(provisioner.find("user-1-device-alias-phone"))
+                .thenReturn(new RSAKeyGenerator(2048)
+                        .keyID("user-1-device-alias-phone")
+                        .generate());
+
+        mockMvc.perform(get("/keys/devices/user-1-device-alias-phone"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.public.kid").value("user-1-device-alias-phone"))
+                .andExpect(jsonPath("$.public.d").doesNotExist())
+                .andExpect(jsonPath("$.private").doesNotExist());
+    }
+}
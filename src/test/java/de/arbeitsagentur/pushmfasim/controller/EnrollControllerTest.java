@@ -12,6 +12,15 @@ import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
+import de.arbeitsagentur.pushmfasim.config.ProxyConfig;
+import de.arbeitsagentur.pushmfasim.services.AuditLog;
+import de.arbeitsagentur.pushmfasim.services.ConcurrencyLimiterRegistry;
+import de.arbeitsagentur.pushmfasim.services.DeviceKeyProvisioner;
+import de.arbeitsagentur.pushmfasim.services.RealmRegistry;
+import de.arbeitsagentur.pushmfasim.services.SigningService;
+import de.arbeitsagentur.pushmfasim.services.TokenVerifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import java.lang.reflect.Field;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -48,7 +57,17 @@ class EnrollControllerTest {
     @BeforeEach
     void setUp() throws Exception {
         // Create controller manually to inject mocks
-        enrollController = new EnrollController(mock(RestTemplate.class));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RealmRegistry realms = new RealmRegistry(false, 8, 4, 10000, true, new ProxyConfig(), meterRegistry);
+        enrollController = new EnrollController(
+                mock(RestTemplate.class),
+                new SigningService(2, 16, 1, meterRegistry),
+                new ConcurrencyLimiterRegistry(true, 20, 4, 500, 0.9, 5000, 100, 100, 1, meterRegistry),
+                ObservationRegistry.NOOP,
+                mock(AuditLog.class),
+                realms,
+                mock(DeviceKeyProvisioner.class),
+                new TokenVerifier(false, 300, 10, 30, realms, meterRegistry));
 
         // Generate a test RSA key pair
         java.security.KeyPairGenerator kpg = java.security.KeyPairGenerator.getInstance("RSA");
@@ -0,0 +1,99 @@
+package de.arbeitsagentur.pushmfasim.jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+class KeycloakCallInterceptorTest {
+
+    private RestTemplate restTemplate;
+    private MockRestServiceServer server;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        restTemplate.getInterceptors().add(new KeycloakCallInterceptor());
+        file = Files.createTempFile("keycloak-call", ".jfr");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void intercept_shouldRecordEndpointStatusAndBytes() throws Exception {
+        server.expect(requestTo("http://keycloak/realms/demo/push-mfa/login/pending?userId=u1"))
+                .andRespond(withSuccess("{\"challenges\":[]}", MediaType.APPLICATION_JSON));
+
+        List<RecordedEvent> events = record(() -> {
+            String body = restTemplate.getForObject(
+                    "http://keycloak/realms/demo/push-mfa/login/pending?userId=u1", String.class);
+            assertEquals("{\"challenges\":[]}", body);
+        });
+
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("GET", event.getString("method"));
+        assertEquals("http://keycloak/realms/demo/push-mfa/login/pending", event.getString("endpoint"));
+        assertEquals(200, event.getInt("status"));
+        assertEquals(0, event.getLong("requestBytes"));
+        assertEquals(18, event.getLong("responseBytes"));
+    }
+
+    @Test
+    void intercept_withErrorStatus_shouldRecordStatus() throws Exception {
+        server.expect(requestTo("http://keycloak/realms/demo/protocol/openid-connect/token"))
+                .andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+
+        List<RecordedEvent> events = record(() -> {
+            assertThrows(
+                    HttpClientErrorException.class,
+                    () -> restTemplate.postForEntity(
+                            "http://keycloak/realms/demo/protocol/openid-connect/token", "grant_type=x", String.class));
+        });
+
+        assertEquals(1, events.size());
+        assertEquals(401, events.get(0).getInt("status"));
+        assertEquals(12, events.get(0).getLong("requestBytes"));
+    }
+
+    @Test
+    void intercept_withEventDisabled_shouldPassResponseThrough() {
+        server.expect(requestTo("http://keycloak/realms/demo")).andRespond(withSuccess("ok", MediaType.TEXT_PLAIN));
+
+        assertEquals("ok", restTemplate.getForObject("http://keycloak/realms/demo", String.class));
+        server.verify();
+    }
+
+    private List<RecordedEvent> record(Runnable calls) throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable("de.arbeitsagentur.pushmfasim.KeycloakCall").withoutThreshold();
+            recording.start();
+            calls.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        server.verify();
+        return RecordingFile.readAllEvents(file);
+    }
+}
@@ -0,0 +1,89 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ApprovalLatencyTrackerTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private SimpleMeterRegistry registry;
+    private ApprovalLatencyTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        tracker = new ApprovalLatencyTracker(60, 3, nanos::get, registry);
+    }
+
+    @Test
+    void challengeAnswered_shouldRecordTimeSincePush() {
+        tracker.pushReceived(confirmToken("cid-1"));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+
+        tracker.challengeAnswered("cid-1");
+
+        Timer timer = registry.get("simulator.approval.latency").timer();
+        assertEquals(1, timer.count());
+        assertEquals(250, timer.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(0.0, registry.get("simulator.approval.in-flight").gauge().value());
+    }
+
+    @Test
+    void challengeAnswered_withoutPush_shouldCountUnmatched() {
+        tracker.challengeAnswered("unknown");
+        tracker.pushReceived("not-a-jwt");
+        tracker.challengeAnswered(null);
+
+        assertEquals(2, registry.get("simulator.approval.unmatched").counter().count());
+        assertEquals(0, registry.get("simulator.approval.latency").timer().count());
+    }
+
+    @Test
+    void expireOrphans_shouldCountChallengesNeverAnswered() {
+        tracker.pushReceived(confirmToken("cid-1"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(45));
+        tracker.pushReceived(confirmToken("cid-2"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+        tracker.expireOrphans();
+        tracker.challengeAnswered("cid-2");
+
+        assertEquals(1.0, orphaned("expired"));
+        assertEquals(1, registry.get("simulator.approval.latency").timer().count());
+    }
+
+    @Test
+    void pushReceived_overCapacity_shouldEvictOldestChallenge() {
+        for (int i = 1; i <= 4; i++) {
+            tracker.pushReceived(confirmToken("cid-" + i));
+        }
+
+        tracker.challengeAnswered("cid-1");
+
+        assertEquals(1.0, orphaned("evicted"));
+        assertEquals(1, registry.get("simulator.approval.unmatched").counter().count());
+    }
+
+    private double orphaned(String reason) {
+        return registry.get("simulator.approval.orphaned")
+                .tag("reason", reason)
+                .counter()
+                .count();
+    }
+
+    private static String confirmToken(String challengeId) {
+        return new PlainJWT(new JWTClaimsSet.Builder()
+                        .claim("cid", challengeId)
+                        .claim("credId", "user-device-alias-x")
+                        .build())
+                .serialize();
+    }
+}
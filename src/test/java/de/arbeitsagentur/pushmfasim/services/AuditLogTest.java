@@ -0,0 +1,74 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AuditLogTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private List<String> lines;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        lines = new CopyOnWriteArrayList<>();
+    }
+
+    @Test
+    void record_shouldWriteOneJsonLinePerFlow() throws Exception {
+        AuditLog auditLog = new AuditLog(true, 1.0, 1.0, 16, lines::add, meterRegistry);
+
+        auditLog.record("confirm", 200, System.nanoTime(), Map.of("challengeId", "c-1"));
+        assertEquals(1, auditLog.flush());
+
+        JsonNode line = new ObjectMapper().readTree(lines.get(0));
+        assertEquals("confirm", line.get("flow").asText());
+        assertEquals("success", line.get("outcome").asText());
+        assertEquals(200, line.get("status").asInt());
+        assertEquals("c-1", line.get("challengeId").asText());
+        assertTrue(line.has("durationUs"));
+    }
+
+    @Test
+    void record_shouldKeepFailuresAndSampleOutSuccesses() {
+        AuditLog auditLog = new AuditLog(true, 0.0, 1.0, 16, lines::add, meterRegistry);
+
+        auditLog.record("confirm", 200, System.nanoTime(), Map.of());
+        auditLog.record("confirm", 404, System.nanoTime(), Map.of());
+        auditLog.flush();
+
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"outcome\":\"failure\""));
+        assertEquals(
+                1.0, meterRegistry.get("simulator.audit.sampled-out").counter().count());
+    }
+
+    @Test
+    void record_withFullBuffer_shouldDropInsteadOfBlocking() {
+        AuditLog auditLog = new AuditLog(true, 1.0, 1.0, 2, lines::add, meterRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            auditLog.record("fcm-send", 200, System.nanoTime(), Map.of());
+        }
+
+        assertEquals(1.0, meterRegistry.get("simulator.audit.dropped").counter().count());
+        assertEquals(2, auditLog.flush());
+    }
+
+    @Test
+    void record_whenDisabled_shouldIgnoreFlows() {
+        AuditLog auditLog = new AuditLog(false, 1.0, 1.0, 16, lines::add, meterRegistry);
+
+        auditLog.record("enroll", 500, System.nanoTime(), Map.of());
+
+        assertEquals(0, auditLog.flush());
+    }
+}
@@ -0,0 +1,111 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyLimiterTest {
+
+    @Test
+    void tryAcquire_beyondLimit_shouldReject() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1, 10, 0.5, 1000, 0, 0);
+
+        ConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        ConcurrencyLimiter.Permit second = limiter.tryAcquire();
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(limiter.tryAcquire());
+        assertEquals(2, limiter.getInflight());
+    }
+
+    @Test
+    void success_atFullUtilisation_shouldIncreaseLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1, 10, 0.5, 1000, 0, 0);
+
+        ConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        limiter.tryAcquire();
+        first.success();
+
+        assertEquals(3, limiter.getLimit());
+        assertEquals(1, limiter.getInflight());
+    }
+
+    @Test
+    void dropped_shouldDecreaseLimitButNotBelowMinimum() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 8, 3, 10, 0.5, 1000, 0, 0);
+
+        limiter.tryAcquire().dropped();
+        assertEquals(4, limiter.getLimit());
+
+        limiter.tryAcquire().dropped();
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    void record_withServerError_shouldCountAsDropped() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 10, 1, 10, 0.5, 1000, 0, 0);
+
+        limiter.tryAcquire().record(503);
+
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    void close_withoutOutcome_shouldReleaseSlotAndKeepLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10, 0.5, 1000, 0, 0);
+
+        try (ConcurrencyLimiter.Permit permit = limiter.tryAcquire()) {
+            assertNotNull(permit);
+        }
+
+        assertEquals(0, limiter.getInflight());
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void tryAcquire_withQueueing_shouldWaitForReleasedSlot() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 1, 0.5, 1000, 2000, 10);
+        ConcurrencyLimiter.Permit held = limiter.tryAcquire();
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            held.close();
+        });
+        releaser.start();
+
+        assertNotNull(limiter.tryAcquire());
+        releaser.join();
+    }
+
+    @Test
+    void registry_whenRejected_shouldThrowOverloadedAndCount() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ConcurrencyLimiterRegistry registry =
+                new ConcurrencyLimiterRegistry(true, 1, 1, 1, 0.9, 1000, 0, 0, 2, meterRegistry);
+
+        registry.acquire("confirm-login");
+        OverloadedException e = assertThrows(OverloadedException.class, () -> registry.acquire("confirm-login"));
+
+        assertEquals(2, e.getRetryAfterSeconds());
+        assertEquals(
+                1.0,
+                meterRegistry
+                        .get("simulator.limiter.rejected")
+                        .tag("endpoint", "confirm-login")
+                        .counter()
+                        .count());
+        assertEquals(
+                1.0,
+                meterRegistry
+                        .get("simulator.limiter.limit")
+                        .tag("endpoint", "confirm-login")
+                        .gauge()
+                        .value());
+    }
+}
@@ -0,0 +1,170 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.arbeitsagentur.pushmfasim.services.ConfirmDeduplicator.Outcome;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+class ConfirmDeduplicatorTest {
+
+    private static final String REALM = "http://kc/realms/demo";
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+    private SimpleMeterRegistry meterRegistry;
+    private ConfirmDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        deduplicator = new ConfirmDeduplicator(true, 5000, 3, nanos::get, meterRegistry);
+    }
+
+    @Test
+    void execute_withConcurrentDuplicates_shouldRunPipelineOnce() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Future<ResponseEntity<String>> leader =
+                    executor.submit(() -> deduplicator.execute(REALM, "c1", "approve", null, () -> {
+                        started.countDown();
+                        release.await();
+                        calls.incrementAndGet();
+                        return Outcome.definitive(ResponseEntity.ok("done"));
+                    }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<ResponseEntity<String>> duplicate =
+                    executor.submit(() -> deduplicator.execute(REALM, "c1", "approve", null, this::unexpectedCall));
+            while (meterRegistry
+                            .get("simulator.confirm.dedup")
+                            .tag("result", "joined")
+                            .counter()
+                            .count()
+                    < 1) {
+                Thread.yield();
+            }
+            release.countDown();
+
+            assertEquals("done", leader.get(5, TimeUnit.SECONDS).getBody());
+            assertSame(leader.get(), duplicate.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_afterCompletion_shouldAnswerFromCacheUntilExpired() throws Exception {
+        deduplicator.execute(REALM, "c1", "approve", null, this::ok);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(4));
+
+        assertEquals(
+                "ok",
+                deduplicator
+                        .execute(REALM, "c1", "approve", null, this::unexpectedCall)
+                        .getBody());
+        // a different action is a different confirm
+        deduplicator.execute(REALM, "c1", "deny", null, this::ok);
+        assertEquals(2, calls.get());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        deduplicator.execute(REALM, "c1", "approve", null, this::ok);
+        assertEquals(3, calls.get());
+        assertEquals(
+                1.0,
+                meterRegistry
+                        .get("simulator.confirm.dedup")
+                        .tag("result", "cached")
+                        .counter()
+                        .count());
+    }
+
+    @Test
+    void execute_withTransientFailureOrException_shouldNotCache() throws Exception {
+        deduplicator.execute(REALM, "c1", "approve", null, () -> {
+            calls.incrementAndGet();
+            return Outcome.transientFailure(ResponseEntity.status(502).body("bad gateway"));
+        });
+        assertThrows(
+                OverloadedException.class,
+                () -> deduplicator.execute(REALM, "c1", "approve", null, () -> {
+                    calls.incrementAndGet();
+                    throw new OverloadedException("confirm-login", 1);
+                }));
+        assertEquals(
+                "ok",
+                deduplicator.execute(REALM, "c1", "approve", null, this::ok).getBody());
+
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void execute_beyondMaxResults_shouldEvictOldestResults() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            deduplicator.execute(REALM, "c" + i, "approve", null, this::ok);
+        }
+
+        assertEquals(3, deduplicator.cachedResults());
+        deduplicator.execute(REALM, "c0", "approve", null, this::ok);
+        deduplicator.execute(REALM, "c4", "approve", null, this::unexpectedCall);
+        assertEquals(6, calls.get());
+    }
+
+    @Test
+    void execute_withTransientClientError_shouldRunAgain() throws Exception {
+        // the push arrived before Keycloak listed the challenge
+        deduplicator.execute(REALM, "c1", "approve", null, () -> {
+            calls.incrementAndGet();
+            return Outcome.transientFailure(ResponseEntity.status(404).body("Challenge not found"));
+        });
+        assertEquals(
+                "ok",
+                deduplicator.execute(REALM, "c1", "approve", null, this::ok).getBody());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void execute_withDefinitiveRejection_shouldAnswerFromCache() throws Exception {
+        deduplicator.execute(REALM, "c1", "approve", null, () -> {
+            calls.incrementAndGet();
+            return Outcome.definitive(ResponseEntity.status(409).body("already answered"));
+        });
+
+        assertEquals(
+                409,
+                deduplicator
+                        .execute(REALM, "c1", "approve", null, this::unexpectedCall)
+                        .getStatusCode()
+                        .value());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void execute_withOtherRealmOrUserVerification_shouldRunAgain() throws Exception {
+        deduplicator.execute(REALM, "c1", "approve", null, this::ok);
+        deduplicator.execute("http://kc/realms/other", "c1", "approve", null, this::ok);
+        deduplicator.execute(REALM, "c1", "approve", "42", this::ok);
+
+        assertEquals(3, calls.get());
+    }
+
+    private Outcome ok() {
+        calls.incrementAndGet();
+        return Outcome.definitive(ResponseEntity.ok("ok"));
+    }
+
+    private Outcome unexpectedCall() {
+        throw new AssertionError("duplicate must not run the pipeline");
+    }
+}
@@ -0,0 +1,154 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class DeviceInboxServiceTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void messagesSince_shouldReturnOnlyMessagesAfterCursor() {
+        DeviceInboxService inbox = newInbox(10, 600, Long.MAX_VALUE);
+        inbox.onMessage(message("device-1", "cid-1"));
+        inbox.onMessage(message("device-2", "cid-2"));
+        inbox.onMessage(message("device-1", "cid-3"));
+
+        DeviceInboxService.InboxPage first = inbox.messagesSince("device-1", 0, 1);
+        DeviceInboxService.InboxPage second = inbox.messagesSince("device-1", first.cursor(), 10);
+        DeviceInboxService.InboxPage empty = inbox.messagesSince("device-1", second.cursor(), 10);
+
+        assertEquals(List.of("cid-1"), dataTokens(first));
+        assertEquals(List.of("cid-3"), dataTokens(second));
+        assertTrue(empty.messages().isEmpty());
+        assertEquals(second.cursor(), empty.cursor());
+        assertEquals(3, inbox.currentSequence());
+    }
+
+    @Test
+    void onMessage_shouldKeepOnlyNewestMessagesPerToken() {
+        DeviceInboxService inbox = newInbox(2, 600, Long.MAX_VALUE);
+        for (int i = 1; i <= 5; i++) {
+            inbox.onMessage(message("device-1", "cid-" + i));
+        }
+
+        assertEquals(List.of("cid-4", "cid-5"), dataTokens(inbox.messagesSince("device-1", 0, 10)));
+    }
+
+    @Test
+    void evictExpired_shouldDropMessagesOlderThanTtl() {
+        DeviceInboxService inbox = newInbox(10, 60, Long.MAX_VALUE);
+        inbox.onMessage(message("device-1", "cid-1"));
+        clock.advance(Duration.ofSeconds(45));
+        inbox.onMessage(message("device-1", "cid-2"));
+        clock.advance(Duration.ofSeconds(30));
+
+        // expired entries are hidden before the sweeper runs
+        assertEquals(List.of("cid-2"), dataTokens(inbox.messagesSince("device-1", 0, 10)));
+        inbox.evictExpired();
+        assertEquals(List.of("cid-2"), dataTokens(inbox.messagesSince("device-1", 0, 10)));
+
+        clock.advance(Duration.ofSeconds(60));
+        inbox.evictExpired();
+        assertTrue(inbox.messagesSince("device-1", 0, 10).messages().isEmpty());
+    }
+
+    @Test
+    void onMessage_overMemoryCap_shouldEvictOldestAcrossTokens() {
+        // room for roughly two messages
+        DeviceInboxService inbox = newInbox(10, 600, 700);
+        inbox.onMessage(message("device-1", "cid-1"));
+        inbox.onMessage(message("device-2", "cid-2"));
+        inbox.onMessage(message("device-3", "cid-3"));
+
+        assertTrue(inbox.messagesSince("device-1", 0, 10).messages().isEmpty());
+        assertEquals(List.of("cid-3"), dataTokens(inbox.messagesSince("device-3", 0, 10)));
+    }
+
+    @Test
+    void onMessage_concurrentlyOnOneToken_shouldLeaveNothingBehindAfterTtl() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DeviceInboxService inbox = new DeviceInboxService(true, 10, 60, Long.MAX_VALUE, clock, meterRegistry);
+        Thread[] senders = new Thread[4];
+        for (int t = 0; t < senders.length; t++) {
+            senders[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    inbox.onMessage(message("device-1", "cid-" + i));
+                }
+            });
+            senders[t].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        // messages dropped by the per-token cap are gone from the arrival order too
+        assertEquals(10, inbox.size());
+        clock.advance(Duration.ofSeconds(61));
+        inbox.evictExpired();
+
+        assertEquals(0, inbox.size());
+        assertEquals(0.0, meterRegistry.get("simulator.inbox.bytes").gauge().value());
+        assertEquals(0.0, meterRegistry.get("simulator.inbox.tokens").gauge().value());
+    }
+
+    @Test
+    void disabledInbox_shouldIgnoreMessages() {
+        DeviceInboxService inbox =
+                new DeviceInboxService(false, 10, 600, Long.MAX_VALUE, clock, new SimpleMeterRegistry());
+        inbox.onMessage(message("device-1", "cid-1"));
+
+        assertTrue(inbox.messagesSince("device-1", 0, 10).messages().isEmpty());
+    }
+
+    private DeviceInboxService newInbox(int maxPerToken, long ttlSeconds, long maxBytes) {
+        return new DeviceInboxService(true, maxPerToken, ttlSeconds, maxBytes, clock, new SimpleMeterRegistry());
+    }
+
+    private static List<String> dataTokens(DeviceInboxService.InboxPage page) {
+        return page.messages().stream()
+                .map(m -> m.message().getData().getToken())
+                .toList();
+    }
+
+    private static FcmMessageRequestMessage message(String deviceToken, String dataToken) {
+        return FcmMessageRequestMessage.builder()
+                .token(deviceToken)
+                .notification(new FcmMessageNotification("Login", "Approve login?"))
+                .data(new FcmMessageData(dataToken))
+                .build();
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
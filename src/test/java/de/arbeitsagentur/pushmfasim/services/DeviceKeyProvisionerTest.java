@@ -0,0 +1,134 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DeviceKeyProvisionerTest {
+
+    @TempDir
+    private Path tempDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private DeviceKeyProvisioner provisioner;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        provisioner = new DeviceKeyProvisioner(tempDir.resolve("devices.keystore"), 1000, 2, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        provisioner.destroy();
+    }
+
+    @Test
+    void provision_shouldMapKeystoreWithUsableRsaKeys() throws Exception {
+        DeviceKeyProvisioner.Result result =
+                provisioner.provision(6, DeviceKeystore.Algorithm.RS256, DeviceKeyProvisioner.DEFAULT_ID_PATTERN);
+
+        assertEquals(6, result.count());
+        assertEquals(6, provisioner.size());
+        assertEquals(6.0, meterRegistry.get("simulator.keystore.keys").gauge().value());
+        // the credential ID the enroll flow builds for user-5 with context phone
+        JWK jwk = provisioner.find("user-5-device-alias-phone");
+        RSAKey rsaKey = assertInstanceOf(RSAKey.class, jwk);
+        assertEquals("user-5-device-alias-phone", rsaKey.getKeyID());
+        assertEquals(JWSAlgorithm.RS256, rsaKey.getAlgorithm());
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader(JWSAlgorithm.RS256),
+                new JWTClaimsSet.Builder().subject("user-5").build());
+        jwt.sign(new RSASSASigner(rsaKey));
+        assertTrue(jwt.verify(new RSASSAVerifier(rsaKey.toPublicJWK())));
+        assertNull(provisioner.find("user-6-device-alias-phone"));
+    }
+
+    @Test
+    void provision_shouldFindEveryKeyOfSeveralBatchesByCredentialId() throws Exception {
+        // two workers generate 32 keys per batch
+        Path target = tempDir.resolve("batches.keystore");
+        provisioner.provision(40, DeviceKeystore.Algorithm.RS256, "load-%d-device-alias-tablet", target);
+
+        DeviceKeystore keystore = DeviceKeystore.map(target);
+        assertEquals(40, keystore.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(
+                    "load-" + i + "-device-alias-tablet",
+                    keystore.find("load-" + i + "-device-alias-tablet").getKeyID());
+        }
+        assertNull(keystore.find("load-40-device-alias-tablet"));
+        // the provisioner's own keystore is only replaced by runs into its configured path
+        assertEquals(0, provisioner.size());
+    }
+
+    @Test
+    void keystore_shouldHoldEcKeys() throws Exception {
+        Path target = tempDir.resolve("ec.keystore");
+        try (DeviceKeystore.Writer writer = DeviceKeystore.writer(target)) {
+            writer.add(
+                    "device-42",
+                    DeviceKeystore.Algorithm.ES256,
+                    DeviceKeyProvisioner.generate(DeviceKeystore.Algorithm.ES256));
+        }
+
+        ECKey ecKey = assertInstanceOf(ECKey.class, DeviceKeystore.map(target).find("device-42"));
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader(JWSAlgorithm.ES256),
+                new JWTClaimsSet.Builder().subject("device").build());
+        jwt.sign(new ECDSASigner(ecKey));
+        assertTrue(jwt.verify(new ECDSAVerifier(ecKey.toPublicJWK())));
+    }
+
+    @Test
+    void provision_withInvalidArguments_shouldBeRejected() {
+        String pattern = DeviceKeyProvisioner.DEFAULT_ID_PATTERN;
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> provisioner.provision(0, DeviceKeystore.Algorithm.RS256, pattern));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> provisioner.provision(1001, DeviceKeystore.Algorithm.RS256, pattern));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> provisioner.provision(2, DeviceKeystore.Algorithm.RS256, "user-device-alias-phone"));
+        // IDs that no enroll or confirm flow looks up
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> provisioner.provision(2, DeviceKeystore.Algorithm.RS256, "device-%d"));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> provisioner.provision(2, DeviceKeystore.Algorithm.RS256, "user-%d-device-alias-"));
+        // the flows sign with RS256 only
+        IllegalArgumentException es256 = assertThrows(
+                IllegalArgumentException.class,
+                () -> provisioner.provision(2, DeviceKeystore.Algorithm.ES256, pattern));
+        assertEquals("ES256 keys are not supported, the enroll and confirm flows sign with RS256", es256.getMessage());
+        assertEquals(0, provisioner.size());
+    }
+
+    @Test
+    void map_shouldRejectFilesThatAreNoKeystore() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("rsa-jwk.json"), "{\"public\":{},\"private\":{}}");
+
+        assertThrows(IOException.class, () -> DeviceKeystore.map(file));
+    }
+}
@@ -0,0 +1,193 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FcmMessageLogTest {
+
+    @TempDir
+    Path directory;
+
+    private FcmMessageLog log;
+
+    @AfterEach
+    void tearDown() {
+        if (log != null) {
+            log.stop();
+        }
+    }
+
+    @Test
+    void append_shouldBeQueryableByScanAndToken() throws Exception {
+        log = newLog(4096, 4);
+        log.append("ba-secure-mock", message("device-1", "cid-1"));
+        log.append("ba-secure-mock", message("device-2", "cid-2"));
+        log.append("ba-secure-mock", message("device-1", "cid-3"));
+
+        await(() -> log.scan(0, 100).size(), 3);
+        List<FcmMessageLog.Entry> forDevice = log.findByToken("device-1", 10);
+
+        assertEquals(
+                List.of("cid-1", "cid-3"),
+                forDevice.stream().map(FcmMessageLog.Entry::dataToken).toList());
+        FcmMessageLog.Entry entry = forDevice.get(0);
+        assertEquals("ba-secure-mock", entry.project());
+        assertEquals("Login", entry.title());
+        assertEquals("Approve login?", entry.body());
+        assertTrue(entry.timestamp() > 0);
+    }
+
+    @Test
+    void rotation_shouldKeepOnlyNewestSegments() throws Exception {
+        // roughly three records per segment
+        log = newLog(256, 2);
+        for (int i = 0; i < 12; i++) {
+            log.append("ba-secure-mock", message("device-1", "cid-" + i));
+        }
+
+        await(
+                () -> log.findByToken("device-1", 100).stream()
+                                .anyMatch(e -> e.dataToken().equals("cid-11"))
+                        ? 1
+                        : 0,
+                1);
+        List<String> retained =
+                log.scan(0, 100).stream().map(FcmMessageLog.Entry::dataToken).toList();
+
+        assertTrue(retained.size() < 12, "expected old segments to be dropped but got " + retained);
+        assertEquals("cid-11", retained.get(retained.size() - 1));
+        assertEquals(
+                retained,
+                log.findByToken("device-1", 100).stream()
+                        .map(FcmMessageLog.Entry::dataToken)
+                        .toList());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void restart_shouldRecoverIndexAndContinueAppending() throws Exception {
+        log = newLog(4096, 4);
+        log.append("ba-secure-mock", message("device-1", "cid-1"));
+        await(() -> log.scan(0, 100).size(), 1);
+        log.stop();
+
+        log = newLog(4096, 4);
+        log.append("ba-secure-mock", message("device-1", "cid-2"));
+
+        await(() -> log.scan(0, 100).size(), 2);
+        assertEquals(
+                List.of("cid-1", "cid-2"),
+                log.findByToken("device-1", 10).stream()
+                        .map(FcmMessageLog.Entry::dataToken)
+                        .toList());
+    }
+
+    @Test
+    void restart_shouldApplyRetentionToExistingSegments() throws Exception {
+        log = newLog(256, 4);
+        for (int i = 0; i < 12; i++) {
+            log.append("ba-secure-mock", message("device-1", "cid-" + i));
+        }
+        await(() -> log.scan(0, 100).size() > 0 && segmentCount() == 4 ? 1 : 0, 1);
+        log.stop();
+
+        log = newLog(256, 2);
+
+        assertEquals(2, segmentCount());
+        List<String> retained =
+                log.scan(0, 100).stream().map(FcmMessageLog.Entry::dataToken).toList();
+        assertEquals("cid-11", retained.get(retained.size() - 1));
+        assertEquals(
+                retained,
+                log.findByToken("device-1", 100).stream()
+                        .map(FcmMessageLog.Entry::dataToken)
+                        .toList());
+    }
+
+    @Test
+    void restart_afterTornRecord_shouldTruncateAndContinueAppending() throws Exception {
+        log = newLog(4096, 4);
+        log.append("ba-secure-mock", message("device-1", "cid-1"));
+        await(() -> log.scan(0, 100).size(), 1);
+        log.stop();
+
+        // a record whose length fits the segment but whose first string claims more bytes than it has
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        byte[] content = Files.readAllBytes(segment);
+        int end = ByteBuffer.wrap(content).getInt() + Integer.BYTES;
+        ByteBuffer.wrap(content, end, 20).putInt(16).putLong(1L).putInt(Integer.MAX_VALUE);
+        Files.write(segment, content);
+
+        log = newLog(4096, 4);
+        log.append("ba-secure-mock", message("device-1", "cid-2"));
+
+        await(() -> log.scan(0, 100).size(), 2);
+        assertEquals(
+                List.of("cid-1", "cid-2"),
+                log.findByToken("device-1", 10).stream()
+                        .map(FcmMessageLog.Entry::dataToken)
+                        .toList());
+    }
+
+    @Test
+    void disabledLog_shouldIgnoreMessages() {
+        log = new FcmMessageLog(false, directory.toString(), 4096, 4, 16, 100, new SimpleMeterRegistry());
+        log.start();
+        log.append("ba-secure-mock", message("device-1", "cid-1"));
+
+        assertTrue(log.scan(0, 100).isEmpty());
+        assertFalse(log.isRunning());
+    }
+
+    private long segmentCount() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FcmMessageLog newLog(int segmentSize, int maxSegments) {
+        FcmMessageLog messageLog = new FcmMessageLog(
+                true, directory.toString(), segmentSize, maxSegments, 1024, 100, new SimpleMeterRegistry());
+        messageLog.start();
+        return messageLog;
+    }
+
+    private static FcmMessageRequestMessage message(String deviceToken, String dataToken) {
+        return FcmMessageRequestMessage.builder()
+                .token(deviceToken)
+                .notification(new FcmMessageNotification("Login", "Approve login?"))
+                .data(new FcmMessageData(dataToken))
+                .build();
+    }
+
+    private static void await(Supplier<Integer> actual, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (actual.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, actual.get());
+    }
+}
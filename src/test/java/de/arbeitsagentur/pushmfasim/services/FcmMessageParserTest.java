@@ -0,0 +1,70 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequest;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class FcmMessageParserTest {
+
+    @Test
+    void parse_shouldReadModeledFieldsAndKeepMessageBytes() throws IOException {
+        String message = "{\"token\":\"device-1\",\"notification\":{\"title\":\"Login\",\"body\":\"Confirm\"},"
+                + "\"data\":{\"token\":\"confirm-jwt\",\"extra\":\"x\"},"
+                + "\"android\":{\"priority\":\"HIGH\"},\"apns\":{\"headers\":{\"apns-priority\":\"10\"}}}";
+
+        FcmMessageRequest request = FcmMessageParser.parse(
+                ("{\"validate_only\":false,\"message\":" + message + "}").getBytes(StandardCharsets.UTF_8));
+
+        FcmMessageRequestMessage parsed = request.getMessage();
+        assertEquals("device-1", parsed.getToken());
+        assertEquals("Login", parsed.getNotification().getTitle());
+        assertEquals("Confirm", parsed.getNotification().getBody());
+        assertEquals("confirm-jwt", parsed.getData().getToken());
+        assertEquals(message, new String(parsed.getRawJson(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parse_withPrettyPrintedBody_shouldKeepMessageOnOneLine() throws IOException {
+        FcmMessageRequest request = FcmMessageParser.parse(
+                "{\n  \"message\": {\r\n    \"token\": \"device-1\",\n    \"data\": {\"token\": \"a\\nb\"}\n  }\n}"
+                        .getBytes(StandardCharsets.UTF_8));
+
+        String raw = new String(request.getMessage().getRawJson(), StandardCharsets.UTF_8);
+        assertFalse(raw.contains("\n") || raw.contains("\r"), raw);
+        // escaped line breaks inside strings are untouched
+        assertEquals("a\nb", request.getMessage().getData().getToken());
+        assertTrue(raw.contains("\"a\\nb\""), raw);
+    }
+
+    @Test
+    void parse_withMissingFields_shouldLeaveThemNull() throws IOException {
+        assertNull(FcmMessageParser.parse("{}".getBytes(StandardCharsets.UTF_8)).getMessage());
+        assertNull(FcmMessageParser.parse("{\"message\":null}".getBytes(StandardCharsets.UTF_8))
+                .getMessage());
+
+        FcmMessageRequestMessage message = FcmMessageParser.parse(
+                        "{\"message\":{\"token\":\"device-1\",\"notification\":null}}".getBytes(StandardCharsets.UTF_8))
+                .getMessage();
+        assertEquals("device-1", message.getToken());
+        assertNull(message.getNotification());
+        assertNull(message.getData());
+    }
+
+    @Test
+    void parse_withInvalidBody_shouldFail() {
+        assertThrows(IOException.class, () -> FcmMessageParser.parse("[]".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(
+                IOException.class, () -> FcmMessageParser.parse("{\"message\":{".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(
+                IOException.class,
+                () -> FcmMessageParser.parse(
+                        "{\"message\":{\"token\":{\"nested\":1}}}".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(
+                IOException.class,
+                () -> FcmMessageParser.parse("{\"message\":{\"data\":\"x\"}}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
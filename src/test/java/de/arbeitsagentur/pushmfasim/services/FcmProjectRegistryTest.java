@@ -0,0 +1,161 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FcmProjectRegistryTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong nanos;
+    private FcmProjectRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        nanos = new AtomicLong();
+        registry = new FcmProjectRegistry(List.of("env-config"), 2, 60, "secret", 10, 3, nanos::get, meterRegistry);
+    }
+
+    @Test
+    void project_shouldIssueOneAccessTokenPerProject() {
+        FcmProjectRegistry.Project defaultProject = registry.project(null);
+        FcmProjectRegistry.Project other = registry.project("env-config");
+
+        assertEquals(FcmProjectRegistry.DEFAULT_PROJECT, defaultProject.id());
+        assertEquals("keycloak_push_mfa_simulator_valid_assertion", defaultProject.accessToken());
+        assertSame(defaultProject, registry.project(FcmProjectRegistry.DEFAULT_PROJECT));
+        assertSame(other, registry.authenticate("env-config", other.accessToken()));
+        assertNull(registry.authenticate("env-config", defaultProject.accessToken()));
+        assertNull(registry.authenticate(null, other.accessToken()));
+    }
+
+    @Test
+    void accessToken_shouldDependOnTheSecretOnly() {
+        String token = registry.project("env-config").accessToken();
+
+        assertEquals(token, replica("secret", "env-config").accessToken());
+        assertNotEquals(token, replica("other-secret", "env-config").accessToken());
+        // the ID alone is not enough to build the token
+        assertNull(registry.authenticate("env-config", "keycloak_push_mfa_simulator_valid_assertion.env-config"));
+    }
+
+    @Test
+    void accessToken_shouldBeIssuedWithoutAdmittingTheProject() {
+        String token = registry.accessToken("env-a");
+
+        assertEquals(tokenOf("env-a"), token);
+        assertEquals("keycloak_push_mfa_simulator_valid_assertion", registry.accessToken(null));
+        assertThrows(IllegalArgumentException.class, () -> registry.accessToken("Env_A"));
+        assertNull(registry.project("env-a"));
+        assertNotNull(registry.authenticate("env-a", token));
+    }
+
+    @Test
+    void authenticate_withWrongToken_shouldNotAdmitTheProject() {
+        assertNull(registry.authenticate("env-a", "keycloak_push_mfa_simulator_valid_assertion.env-a"));
+        assertNull(registry.project("env-a"));
+
+        FcmProjectRegistry.Project admitted = registry.authenticate("env-a", tokenOf("env-a"));
+        assertSame(admitted, registry.project("env-a"));
+    }
+
+    @Test
+    void authenticate_withInvalidIdOrBeyondMaxProjects_shouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> registry.authenticate("Env_B", "token"));
+        assertThrows(IllegalArgumentException.class, () -> registry.authenticate("../x", "token"));
+
+        registry.authenticate("env-a", tokenOf("env-a"));
+        registry.authenticate("env-b", tokenOf("env-b"));
+        OverloadedException rejected =
+                assertThrows(OverloadedException.class, () -> registry.authenticate("env-c", tokenOf("env-c")));
+        assertEquals(60, rejected.getRetryAfterSeconds());
+        // the default and the configured project are not counted against max-projects
+        assertEquals(
+                4.0, meterRegistry.get("simulator.fcm.project.count").gauge().value());
+    }
+
+    @Test
+    void evictIdle_shouldRemoveIdleProjectsAndTheirMeters() {
+        registry.authenticate("env-a", tokenOf("env-a"));
+        registry.authenticate("env-b", tokenOf("env-b"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        registry.authenticate("env-b", tokenOf("env-b"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+
+        registry.evictIdle();
+
+        assertNull(registry.project("env-a"));
+        assertNull(meterRegistry
+                .find("simulator.fcm.messages")
+                .tag("project", "env-a")
+                .counter());
+        assertNotNull(registry.project("env-b"));
+        assertNotNull(registry.project("env-config"));
+        assertNotNull(registry.project(null));
+        // the freed place is available to another project
+        assertNotNull(registry.authenticate("env-c", tokenOf("env-c")));
+    }
+
+    @Test
+    void authenticate_atMaxProjects_shouldEvictIdleProjectsFirst() {
+        registry.authenticate("env-a", tokenOf("env-a"));
+        registry.authenticate("env-b", tokenOf("env-b"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+
+        assertNotNull(registry.authenticate("env-c", tokenOf("env-c")));
+        assertNull(registry.project("env-a"));
+    }
+
+    @Test
+    void tryAcquire_shouldLimitEachProjectToItsOwnQuota() {
+        FcmProjectRegistry.Project noisy = registry.authenticate("env-a", tokenOf("env-a"));
+        FcmProjectRegistry.Project quiet = registry.authenticate("env-b", tokenOf("env-b"));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(noisy.tryAcquire());
+        }
+        assertFalse(noisy.tryAcquire());
+        assertEquals(1, noisy.retryAfterSeconds());
+        // the burst of env-a leaves the quota of env-b untouched
+        assertTrue(quiet.tryAcquire());
+
+        // 10 per second: one message after 100 ms
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(noisy.tryAcquire());
+        assertFalse(noisy.tryAcquire());
+
+        assertEquals(
+                4.0,
+                meterRegistry
+                        .get("simulator.fcm.messages")
+                        .tag("project", "env-a")
+                        .tag("result", "accepted")
+                        .counter()
+                        .count());
+        assertEquals(
+                2.0,
+                meterRegistry
+                        .get("simulator.fcm.messages")
+                        .tag("project", "env-a")
+                        .tag("result", "quota-exceeded")
+                        .counter()
+                        .count());
+    }
+
+    private static String tokenOf(String projectId) {
+        return replica("secret", projectId).accessToken();
+    }
+
+    // another replica that lists the project in its configuration
+    private static FcmProjectRegistry.Project replica(String secret, String projectId) {
+        return new FcmProjectRegistry(
+                        List.of(projectId), 2, 60, secret, 10, 3, System::nanoTime, new SimpleMeterRegistry())
+                .project(projectId);
+    }
+}
@@ -0,0 +1,120 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+class FcmWebSocketHandlerTest {
+
+    private FcmWebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        handler = new FcmWebSocketHandler(1000, 64 * 1024, new SimpleMeterRegistry());
+        handler.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        handler.stop();
+    }
+
+    @Test
+    void onMessage_withoutSubscription_shouldReceiveEveryMessage() throws Exception {
+        WebSocketSession session = openSession("s1", "/mock/fcm/ws");
+
+        handler.onMessage(message("device-1"));
+
+        TextMessage sent = (TextMessage) lastSent(session);
+        assertTrue(sent.getPayload().startsWith("{\"event\":\"fcm-message\""), sent.getPayload());
+        assertTrue(sent.getPayload().contains("\"token\":\"device-1\""));
+    }
+
+    @Test
+    void onMessage_withSubscriptions_shouldOnlyReceiveSubscribedTokens() throws Exception {
+        WebSocketSession session = openSession("s1", "/mock/fcm/ws");
+        handler.handleTextMessage(session, new TextMessage("{\"subscribe\":[\"device-1\",\"device-2\"]}"));
+
+        handler.onMessage(message("device-3"));
+        verify(session, never()).sendMessage(any());
+
+        handler.onMessage(message("device-2"));
+        assertTrue(((TextMessage) lastSent(session)).getPayload().contains("device-2"));
+
+        handler.handleTextMessage(session, new TextMessage("{\"unsubscribe\":[\"device-2\"]}"));
+        handler.onMessage(message("device-2"));
+        verify(session).sendMessage(any());
+    }
+
+    @Test
+    void onMessage_binarySession_shouldReceiveCodecFrames() throws Exception {
+        WebSocketSession json = openSession("s1", "/mock/fcm/ws");
+        WebSocketSession binary = openSession("s2", "/mock/fcm/ws?format=binary");
+        FcmMessageRequestMessage message = message("device-1");
+
+        handler.onMessage(message);
+
+        assertInstanceOf(TextMessage.class, lastSent(json));
+        BinaryMessage frame = (BinaryMessage) lastSent(binary);
+        byte[] bytes = new byte[frame.getPayloadLength()];
+        frame.getPayload().get(bytes);
+        assertEquals(List.of(message), FcmMessageCodec.decode(bytes).messages());
+    }
+
+    @Test
+    void afterConnectionClosed_shouldRemoveSessionAndSubscriptions() throws Exception {
+        WebSocketSession session = openSession("s1", "/mock/fcm/ws");
+        handler.handleTextMessage(session, new TextMessage("{\"subscribe\":[\"device-1\"]}"));
+
+        handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        handler.onMessage(message("device-1"));
+
+        assertEquals(0, handler.sessionCount());
+        verify(session, never()).sendMessage(any());
+    }
+
+    private WebSocketSession openSession(String id, String uri) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.getUri()).thenReturn(URI.create("ws://localhost:5000" + uri));
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        when(session.isOpen()).thenReturn(true);
+        handler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static WebSocketMessage<?> lastSent(WebSocketSession session) throws Exception {
+        ArgumentCaptor<WebSocketMessage> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(session).sendMessage(captor.capture());
+        return captor.getValue();
+    }
+
+    private static FcmMessageRequestMessage message(String deviceToken) {
+        return FcmMessageRequestMessage.builder()
+                .token(deviceToken)
+                .notification(new FcmMessageNotification("Login", "Approve login?"))
+                .data(new FcmMessageData("confirm-token"))
+                .build();
+    }
+}
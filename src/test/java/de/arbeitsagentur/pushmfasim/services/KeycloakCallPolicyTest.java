@@ -0,0 +1,126 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+class KeycloakCallPolicyTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private KeycloakCallPolicy policy(boolean hedging) {
+        return new KeycloakCallPolicy(3, 1, 5, hedging, 20, 1000, 5, meterRegistry, ObservationRegistry.NOOP);
+    }
+
+    @Test
+    void call_shouldRetryTransientFailuresOnly() throws Exception {
+        KeycloakCallPolicy policy = policy(false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = policy.call("token", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        assertThrows(
+                HttpClientErrorException.class,
+                () -> policy.call("token", () -> {
+                    attempts.incrementAndGet();
+                    throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+                }));
+        assertEquals(1, attempts.get());
+
+        attempts.set(0);
+        assertThrows(
+                HttpClientErrorException.class,
+                () -> policy.call("token", () -> {
+                    attempts.incrementAndGet();
+                    throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS);
+                }));
+        // max-attempts includes the first
+        assertEquals(3, attempts.get());
+        assertEquals(
+                4.0,
+                meterRegistry
+                        .get("simulator.keycloak.retries")
+                        .tag("call", "token")
+                        .counter()
+                        .count());
+    }
+
+    @Test
+    void backoffMs_shouldStayBelowTheDoubledCeiling() {
+        KeycloakCallPolicy policy =
+                new KeycloakCallPolicy(5, 50, 120, false, 20, 1000, 5, meterRegistry, ObservationRegistry.NOOP);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.backoffMs(1) <= 50);
+            assertTrue(policy.backoffMs(2) <= 100);
+            assertTrue(policy.backoffMs(3) <= 120);
+            assertTrue(policy.backoffMs(40) <= 120);
+        }
+    }
+
+    @Test
+    void callHedged_shouldTakeTheHedgeWhenTheFirstRequestIsSlow() throws Exception {
+        KeycloakCallPolicy policy = policy(true);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("warm-up", policy.callHedged("pending", () -> "warm-up"));
+        }
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch slowNode = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+        String result = policy.callHedged("pending", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                slowNode.await(5, TimeUnit.SECONDS);
+                return "slow";
+            }
+            return "hedge";
+        });
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        slowNode.countDown();
+
+        assertEquals("hedge", result);
+        assertEquals(2, attempts.get());
+        // sent after min-delay-ms, the p95 of the instant warm-up calls being lower
+        assertTrue(elapsedMs >= 20 && elapsedMs < 2000, "answered after " + elapsedMs + " ms");
+        assertEquals(
+                1.0,
+                meterRegistry
+                        .get("simulator.keycloak.hedge")
+                        .tag("call", "pending")
+                        .tag("result", "won")
+                        .counter()
+                        .count());
+
+        assertEquals("fast", policy.callHedged("pending", () -> "fast"));
+        assertEquals(
+                1.0,
+                meterRegistry
+                        .get("simulator.keycloak.hedge")
+                        .tag("call", "pending")
+                        .tag("result", "none")
+                        .counter()
+                        .count());
+    }
+}
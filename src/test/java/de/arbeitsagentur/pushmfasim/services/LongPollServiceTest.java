@@ -0,0 +1,98 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+class LongPollServiceTest {
+
+    private DeviceInboxService inbox;
+    private LongPollService longPoll;
+
+    @BeforeEach
+    void setUp() {
+        inbox = new DeviceInboxService(true, 10, 600, Long.MAX_VALUE, Clock.systemUTC(), new SimpleMeterRegistry());
+        longPoll = new LongPollService(inbox, 2, 1, new SimpleMeterRegistry());
+        longPoll.start();
+    }
+
+    @Test
+    void poll_withPendingMessage_shouldCompleteImmediately() {
+        inbox.onMessage(message("device-1", "cid-1"));
+
+        DeferredResult<DeviceInboxService.InboxPage> result = longPoll.poll("device-1", 0, 10, 30000);
+
+        assertEquals(List.of("cid-1"), dataTokens(result));
+        assertEquals(0, longPoll.parkedCount());
+    }
+
+    @Test
+    void poll_shouldParkUntilMessageForSameTokenArrives() {
+        DeferredResult<DeviceInboxService.InboxPage> result = longPoll.poll("device-1", 0, 10, 30000);
+        assertFalse(result.hasResult());
+        assertEquals(1, longPoll.parkedCount());
+
+        inbox.onMessage(message("device-2", "cid-other"));
+        assertFalse(result.hasResult());
+
+        inbox.onMessage(message("device-1", "cid-1"));
+        assertEquals(List.of("cid-1"), dataTokens(result));
+        assertEquals(0, longPoll.parkedCount());
+    }
+
+    @Test
+    void poll_withCursor_shouldWaitForNewerMessages() {
+        inbox.onMessage(message("device-1", "cid-1"));
+        long cursor = inbox.currentSequence();
+
+        DeferredResult<DeviceInboxService.InboxPage> result = longPoll.poll("device-1", cursor, 10, 30000);
+        assertFalse(result.hasResult());
+
+        inbox.onMessage(message("device-1", "cid-2"));
+        assertEquals(List.of("cid-2"), dataTokens(result));
+    }
+
+    @Test
+    void poll_overParkedLimit_shouldBeRejected() {
+        longPoll.poll("device-1", 0, 10, 30000);
+        longPoll.poll("device-2", 0, 10, 30000);
+
+        assertThrows(OverloadedException.class, () -> longPoll.poll("device-3", 0, 10, 30000));
+    }
+
+    @Test
+    void stop_shouldAnswerParkedPollsWithEmptyPage() {
+        DeferredResult<DeviceInboxService.InboxPage> result = longPoll.poll("device-1", 5, 10, 30000);
+
+        longPoll.stop();
+
+        DeviceInboxService.InboxPage page = (DeviceInboxService.InboxPage) result.getResult();
+        assertTrue(page.messages().isEmpty());
+        assertEquals(5, page.cursor());
+        assertEquals(0, longPoll.parkedCount());
+    }
+
+    private static List<String> dataTokens(DeferredResult<DeviceInboxService.InboxPage> result) {
+        assertTrue(result.hasResult());
+        DeviceInboxService.InboxPage page = (DeviceInboxService.InboxPage) result.getResult();
+        return page.messages().stream()
+                .map(m -> m.message().getData().getToken())
+                .toList();
+    }
+
+    private static FcmMessageRequestMessage message(String deviceToken, String dataToken) {
+        return FcmMessageRequestMessage.builder()
+                .token(deviceToken)
+                .notification(new FcmMessageNotification("Login", "Approve login?"))
+                .data(new FcmMessageData(dataToken))
+                .build();
+    }
+}
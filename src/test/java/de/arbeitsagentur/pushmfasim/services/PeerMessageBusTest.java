@@ -0,0 +1,167 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageNotification;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs three bus instances in one JVM, connected through an in-memory transport
+ * instead of HTTP, the same way three replicas would relay to each other.
+ */
+class PeerMessageBusTest {
+
+    private final List<FcmMessageRequestMessage> receivedA = new CopyOnWriteArrayList<>();
+    private final List<FcmMessageRequestMessage> receivedB = new CopyOnWriteArrayList<>();
+    private final List<FcmMessageRequestMessage> receivedC = new CopyOnWriteArrayList<>();
+    private final List<Integer> frameSizes = new CopyOnWriteArrayList<>();
+
+    private Map<String, PeerMessageBus> replicas;
+
+    @BeforeEach
+    void setUp() {
+        PeerMessageBus.PeerTransport transport = (peerUrl, frame) -> {
+            frameSizes.add(frame.length);
+            replicas.get(peerUrl).receive(frame);
+        };
+        PeerMessageBus a = newBus("a", List.of("b", "c"), transport, receivedA::add);
+        PeerMessageBus b = newBus("b", List.of("a", "c"), transport, receivedB::add);
+        // c lists itself as well, which must not lead to double delivery
+        PeerMessageBus c = newBus("c", List.of("a", "b", "c"), transport, receivedC::add);
+        replicas = Map.of("a", a, "b", b, "c", c);
+        replicas.values().forEach(PeerMessageBus::start);
+    }
+
+    @AfterEach
+    void tearDown() {
+        replicas.values().forEach(PeerMessageBus::stop);
+    }
+
+    @Test
+    void publish_shouldReachSubscribersOnAllReplicasExactlyOnce() throws Exception {
+        FcmMessageRequestMessage message = message("device-1");
+
+        replicas.get("a").publish(message);
+
+        awaitSize(receivedB, 1);
+        awaitSize(receivedC, 1);
+        assertEquals(List.of(message), receivedA);
+        assertEquals(List.of(message), receivedB);
+        assertEquals(List.of(message), receivedC);
+    }
+
+    @Test
+    void publish_shouldBatchMessagesPerPeer() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            replicas.get("c").publish(message("device-" + i));
+        }
+
+        awaitSize(receivedA, 10);
+        awaitSize(receivedB, 10);
+        Thread.sleep(50);
+        // 10 messages to two peers (the self entry is skipped on receipt) in far fewer frames
+        assertTrue(frameSizes.size() < 20, "expected batched frames but got " + frameSizes.size());
+        assertEquals(10, receivedC.size());
+    }
+
+    @Test
+    void codec_shouldRoundTripMessagesAndNulls() {
+        FcmMessageRequestMessage full = message("device-ä");
+        FcmMessageRequestMessage sparse = FcmMessageRequestMessage.builder()
+                .token("device-2")
+                .project("env-b")
+                .build();
+
+        FcmMessageCodec.Frame frame = FcmMessageCodec.decode(FcmMessageCodec.encode("origin", List.of(full, sparse)));
+
+        assertEquals("origin", frame.origin());
+        assertEquals(List.of(full, sparse), frame.messages());
+        assertNull(frame.messages().get(0).getProject());
+        assertEquals("env-b", frame.messages().get(1).getProject());
+    }
+
+    @Test
+    void publish_shouldRelayTheMessageJsonAsSent() throws Exception {
+        byte[] rawJson = ("{\"token\":\"device-1\",\"notification\":{\"title\":\"Login\"},"
+                        + "\"data\":{\"token\":\"confirm-token\",\"extra\":\"x\"},\"android\":{\"priority\":\"high\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+        FcmMessageRequestMessage message = message("device-1");
+        message.setRawJson(rawJson);
+
+        replicas.get("a").publish(message);
+
+        awaitSize(receivedB, 1);
+        awaitSize(receivedC, 1);
+        assertArrayEquals(rawJson, receivedB.get(0).getRawJson());
+        assertArrayEquals(rawJson, receivedC.get(0).getRawJson());
+    }
+
+    @Test
+    void codec_shouldRoundTripTheMessageJson() {
+        FcmMessageRequestMessage message = message("device-1");
+        message.setProject("env-b");
+        message.setRawJson("{\"token\":\"device-1\",\"apns\":{\"headers\":{\"apns-priority\":\"10\"}}}"
+                .getBytes(StandardCharsets.UTF_8));
+        byte[] sent = FcmMessageCodec.encode("origin", List.of(message, message("device-2")));
+
+        FcmMessageCodec.Frame frame = FcmMessageCodec.decode(sent);
+
+        assertArrayEquals(message.getRawJson(), frame.messages().get(0).getRawJson());
+        assertNull(frame.messages().get(1).getRawJson());
+        // the receiving side holds exactly what was sent
+        assertArrayEquals(sent, FcmMessageCodec.encode(frame.origin(), frame.messages()));
+    }
+
+    @Test
+    void codec_shouldReadVersion2Frames() {
+        // origin "o", one message with token "d" and project "p"
+        byte[] version2 = {0x46, 2, 1, 'o', 1, 1 | 1 << 6, 1, 'd', 1, 'p'};
+
+        FcmMessageCodec.Frame frame = FcmMessageCodec.decode(version2);
+
+        assertEquals("o", frame.origin());
+        assertEquals("d", frame.messages().get(0).getToken());
+        assertEquals("p", frame.messages().get(0).getProject());
+        assertNull(frame.messages().get(0).getRawJson());
+    }
+
+    @Test
+    void codec_withGarbage_shouldRejectFrame() {
+        assertThrows(IllegalArgumentException.class, () -> FcmMessageCodec.decode(new byte[] {1, 2, 3}));
+        byte[] truncated = FcmMessageCodec.encode("origin", List.of(message("device-1")));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> FcmMessageCodec.decode(java.util.Arrays.copyOf(truncated, truncated.length - 3)));
+    }
+
+    private PeerMessageBus newBus(
+            String id, List<String> peers, PeerMessageBus.PeerTransport transport, FcmMessageListener listener) {
+        return new PeerMessageBus(id, peers, 4, 10, 1000, transport, List.of(listener), new SimpleMeterRegistry());
+    }
+
+    private static FcmMessageRequestMessage message(String deviceToken) {
+        return FcmMessageRequestMessage.builder()
+                .token(deviceToken)
+                .notification(new FcmMessageNotification("Login", "Approve login?"))
+                .data(new FcmMessageData("confirm-token"))
+                .build();
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (list.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(size, list.size());
+    }
+}
@@ -0,0 +1,196 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import de.arbeitsagentur.pushmfasim.config.ProxyConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RealmRegistryTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private MutableClock clock;
+    private RealmRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new MutableClock();
+        registry = new RealmRegistry(false, 2, 4, 10000, true, new ProxyConfig(), clock, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.destroy();
+    }
+
+    @Test
+    void realm_shouldBuildEndpointsOnceFromNormalizedUrl() {
+        RealmRegistry.Realm realm = registry.realm("http://kc:8080/realms/demo/");
+
+        assertEquals("http://kc:8080/realms/demo", realm.url());
+        assertEquals("http://kc:8080/realms/demo/protocol/openid-connect/token", realm.tokenEndpoint());
+        assertEquals("http://kc:8080/realms/demo/push-mfa/login/pending", realm.pendingEndpoint());
+        assertEquals("http://kc:8080/realms/demo/push-mfa/enroll/complete", realm.enrollCompleteEndpoint());
+        assertEquals("http://kc:8080/realms/demo/push-mfa/login/challenges/c-1/respond", realm.respondEndpoint("c-1"));
+        assertSame(realm, registry.realm("http://kc:8080/realms/demo/push-mfa/enroll/complete"));
+    }
+
+    @Test
+    void realm_beyondMaxRealms_shouldEvictLeastRecentlyUsed() {
+        RealmRegistry.Realm first = registry.realm("http://kc/realms/a");
+        clock.advance(Duration.ofSeconds(1));
+        registry.realm("http://kc/realms/b");
+        clock.advance(Duration.ofSeconds(1));
+        registry.realm("http://kc/realms/a");
+        clock.advance(Duration.ofSeconds(1));
+
+        registry.realm("http://kc/realms/c");
+
+        assertEquals(2, registry.size());
+        assertSame(first, registry.realm("http://kc/realms/a"));
+        assertNull(registry.requestFactory(URI.create("http://kc/realms/b/protocol/openid-connect/token")));
+        assertEquals(1.0, meterRegistry.get("simulator.realm.evicted").counter().count());
+    }
+
+    @Test
+    void requestFactory_shouldRouteOnlyUrlsOfAdmittedRealms() {
+        registry.realm("http://kc/realms/demo");
+
+        assertNotNull(registry.requestFactory(URI.create("http://kc/realms/demo/push-mfa/login/pending?userId=u")));
+        assertNull(registry.requestFactory(URI.create("http://kc/realms/other/push-mfa/login/pending")));
+        assertNull(registry.requestFactory(URI.create("http://peer:5000/mock/bus/relay")));
+    }
+
+    @Test
+    void cachedAccessToken_shouldExpireBeforeKeycloakDoes() {
+        RealmRegistry.Realm realm = registry.realm("http://kc/realms/demo");
+        assertNull(realm.cachedAccessToken("thumbprint"));
+
+        realm.cacheAccessToken("thumbprint", "token-1", 60);
+        assertEquals("token-1", realm.cachedAccessToken("thumbprint"));
+
+        clock.advance(Duration.ofSeconds(31));
+        assertNull(realm.cachedAccessToken("thumbprint"));
+        assertEquals(
+                1.0,
+                meterRegistry
+                        .get("simulator.realm.token.cache")
+                        .tag("result", "hit")
+                        .counter()
+                        .count());
+    }
+
+    @Test
+    void evictAccessToken_shouldKeepATokenCachedMeanwhile() {
+        RealmRegistry.Realm realm = registry.realm("http://kc/realms/demo");
+        realm.cacheAccessToken("thumbprint", "token-1", 60);
+
+        realm.evictAccessToken("thumbprint", "token-0");
+        assertEquals("token-1", realm.cachedAccessToken("thumbprint"));
+
+        realm.evictAccessToken("thumbprint", "token-1");
+        assertNull(realm.cachedAccessToken("thumbprint"));
+    }
+
+    @Test
+    void realm_withDiscovery_shouldUseTokenEndpointFromWellKnownOnce() throws Exception {
+        AtomicInteger discoveryCalls = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/realms/demo/.well-known/openid-configuration", exchange -> {
+            discoveryCalls.incrementAndGet();
+            String realmUrl = "http://localhost:" + server.getAddress().getPort() + "/realms/demo";
+            byte[] body = ("{\"issuer\":\"" + realmUrl + "\",\"token_endpoint\":\"" + realmUrl + "/custom/token\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        RealmRegistry discovering = new RealmRegistry(true, 2, 4, 10000, true, new ProxyConfig(), clock, meterRegistry);
+        try {
+            String realmUrl = "http://localhost:" + server.getAddress().getPort() + "/realms/demo";
+
+            assertEquals(realmUrl + "/custom/token", discovering.realm(realmUrl).tokenEndpoint());
+            discovering.realm(realmUrl);
+            assertEquals(1, discoveryCalls.get());
+        } finally {
+            discovering.destroy();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void realm_withHangingDiscovery_shouldTimeOutWithoutBlockingOtherRealms() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/realms/slow/.well-known/openid-configuration", exchange -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+        RealmRegistry discovering = new RealmRegistry(true, 4, 4, 300, true, new ProxyConfig(), clock, meterRegistry);
+        try {
+            String slowUrl = "http://localhost:" + server.getAddress().getPort() + "/realms/slow";
+            CompletableFuture<RealmRegistry.Realm> slow =
+                    CompletableFuture.supplyAsync(() -> discovering.realm(slowUrl));
+
+            // another realm is admitted while the slow discovery is outstanding
+            long start = System.nanoTime();
+            discovering.realm("http://localhost:" + server.getAddress().getPort() + "/realms/other");
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+
+            // the response timeout ends the discovery, the default endpoints stay in place
+            assertEquals(
+                    slowUrl + "/protocol/openid-connect/token",
+                    slow.get(5, TimeUnit.SECONDS).tokenEndpoint());
+        } finally {
+            release.countDown();
+            discovering.destroy();
+            server.stop(0);
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
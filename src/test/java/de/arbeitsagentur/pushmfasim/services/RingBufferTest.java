@@ -0,0 +1,84 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RingBufferTest {
+
+    @Test
+    void offer_whenFull_shouldRejectUntilDrained() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(2);
+
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertFalse(buffer.offer(3));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(1, buffer.drain(drained::add, 1));
+        assertTrue(buffer.offer(3));
+        assertEquals(2, buffer.drain(drained::add, 10));
+        assertEquals(List.of(1, 2, 3), drained);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void constructor_withCapacityNotPowerOfTwo_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBuffer<>(3));
+    }
+
+    @Test
+    void offer_fromConcurrentProducers_shouldDeliverEveryElementInProducerOrder() throws Exception {
+        int producers = 4;
+        int perProducer = 5000;
+        RingBuffer<long[]> buffer = new RingBuffer<>(64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                executor.execute(() -> {
+                    awaitQuietly(start);
+                    for (long i = 0; i < perProducer; i++) {
+                        long[] element = {producer, i};
+                        while (!buffer.offer(element)) {
+                            Thread.yield();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+
+            long[] next = new long[producers];
+            int received = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            while (received < producers * perProducer && System.nanoTime() < deadline) {
+                received += buffer.drain(
+                        element -> {
+                            int producer = (int) element[0];
+                            assertEquals(next[producer], element[1]);
+                            next[producer]++;
+                        },
+                        128);
+            }
+
+            assertEquals(producers * perProducer, received);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
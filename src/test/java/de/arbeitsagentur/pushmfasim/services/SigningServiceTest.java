@@ -0,0 +1,111 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SigningServiceTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SigningService signingService;
+    private RSAKey rsaKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        signingService = new SigningService(1, 1, 3, meterRegistry);
+        rsaKey = new RSAKeyGenerator(2048).generate();
+    }
+
+    @AfterEach
+    void tearDown() {
+        signingService.destroy();
+    }
+
+    @Test
+    void sign_shouldProduceVerifiableJwt() throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder().subject("user").build();
+
+        String serialized = signingService.sign(new JWSHeader.Builder(JWSAlgorithm.RS256).build(), claims, rsaKey);
+
+        SignedJWT parsed = SignedJWT.parse(serialized);
+        assertTrue(parsed.verify(new RSASSAVerifier(rsaKey.toPublicJWK())));
+        assertEquals("user", parsed.getJWTClaimsSet().getSubject());
+        assertEquals(
+                1, meterRegistry.get("simulator.signing.queue.time").timer().count());
+    }
+
+    @Test
+    void sign_withFullQueue_shouldRejectWithOverloadedException() throws Exception {
+        Field executorField = SigningService.class.getDeclaredField("executor");
+        executorField.setAccessible(true);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) executorField.get(signingService);
+
+        CountDownLatch release = new CountDownLatch(1);
+        // occupy the only signer thread and the only queue slot
+        executor.execute(() -> awaitQuietly(release));
+        executor.execute(() -> awaitQuietly(release));
+
+        try {
+            OverloadedException e = assertThrows(
+                    OverloadedException.class,
+                    () -> signingService.sign(
+                            new JWSHeader.Builder(JWSAlgorithm.RS256).build(),
+                            new JWTClaimsSet.Builder().build(),
+                            rsaKey));
+            assertEquals(3, e.getRetryAfterSeconds());
+            assertEquals(
+                    1.0,
+                    meterRegistry.get("simulator.signing.rejected").counter().count());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void sign_withJfrEventEnabled_shouldRecordAlgorithmAndQueueTime() throws Exception {
+        Path file = Files.createTempFile("signing", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("de.arbeitsagentur.pushmfasim.JwtSign").withoutThreshold();
+            recording.start();
+            signingService.sign(
+                    new JWSHeader.Builder(JWSAlgorithm.RS256).build(), new JWTClaimsSet.Builder().build(), rsaKey);
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+            assertEquals("RS256", events.get(0).getString("algorithm"));
+            assertTrue(events.get(0).getLong("queueTime") >= 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,22 +3,37 @@ package de.arbeitsagentur.pushmfasim.services;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.arbeitsagentur.pushmfasim.model.FcmMessageData;
 import de.arbeitsagentur.pushmfasim.model.FcmMessageRequestMessage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 class SseServiceTest {
 
+    private static final String PROJECT = FcmProjectRegistry.DEFAULT_PROJECT;
+
     private SseService sseService;
 
     @BeforeEach
     void setUp() {
-        sseService = new SseService();
+        sseService = service(20, 100, new SimpleMeterRegistry());
         sseService.start();
     }
 
@@ -58,7 +73,7 @@ class SseServiceTest {
 
     @Test
     void createSseEmitter_shouldReturnEmitterWithMaxTimeout() {
-        SseEmitter emitter = sseService.createSseEmitter();
+        SseEmitter emitter = sseService.createSseEmitter(PROJECT, false, null);
 
         assertNotNull(emitter);
         assertEquals(SseService.MESSAGE_SEND_TIMEOUT_MS, emitter.getTimeout());
@@ -66,8 +81,8 @@ class SseServiceTest {
 
     @Test
     void createSseEmitter_shouldAddEmitterToList() throws Exception {
-        SseEmitter emitter1 = sseService.createSseEmitter();
-        SseEmitter emitter2 = sseService.createSseEmitter();
+        SseEmitter emitter1 = sseService.createSseEmitter(PROJECT, false, null);
+        SseEmitter emitter2 = sseService.createSseEmitter(PROJECT, false, null);
 
         assertNotNull(emitter1);
         assertNotNull(emitter2);
@@ -89,20 +104,16 @@ class SseServiceTest {
         SseEmitter emitter1 = spy(new SseEmitter(1000L));
         SseEmitter emitter2 = spy(new SseEmitter(1000L));
 
-        // Set the spies in the service
-        Field emittersField = SseService.class.getDeclaredField("emitters");
-        emittersField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        List<SseEmitter> emitters = (List<SseEmitter>) emittersField.get(sseService);
-        emitters.add(emitter1);
-        emitters.add(emitter2);
+        // Register the spies with the service
+        sseService.register(emitter1, PROJECT, false, null);
+        sseService.register(emitter2, PROJECT, false, null);
 
         sseService.sendMessageToAllEmitters(request);
 
         Thread.sleep(200); // Give async execution time to complete
 
-        verify(emitter1, atLeastOnce()).send(any(SseEmitter.SseEventBuilder.class));
-        verify(emitter2, atLeastOnce()).send(any(SseEmitter.SseEventBuilder.class));
+        verify(emitter1, atLeastOnce()).send(anySet());
+        verify(emitter2, atLeastOnce()).send(anySet());
     }
 
     @SuppressWarnings("null")
@@ -110,19 +121,14 @@ class SseServiceTest {
     void sendMessageToAllEmitters_withIOException_shouldLogError() throws Exception {
         // Create a spy emitter that will throw IOException
         SseEmitter spyEmitter = spy(new SseEmitter(Long.MAX_VALUE));
-        doThrow(new IOException("Test exception")).when(spyEmitter).send(any(SseEmitter.SseEventBuilder.class));
+        doThrow(new IOException("Test exception")).when(spyEmitter).send(anySet());
 
         // Create a normal emitter that should still work
         SseEmitter normalEmitter = spy(new SseEmitter(Long.MAX_VALUE));
 
-        // Inject the spy emitters into the service's emitter list using reflection
-        Field emittersField = SseService.class.getDeclaredField("emitters");
-        emittersField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        List<SseEmitter> emitters = (List<SseEmitter>) emittersField.get(sseService);
-        emitters.clear();
-        emitters.add(spyEmitter);
-        emitters.add(normalEmitter);
+        // Register the spy emitters with the service
+        sseService.register(spyEmitter, PROJECT, false, null);
+        sseService.register(normalEmitter, PROJECT, false, null);
 
         FcmMessageRequestMessage request = new FcmMessageRequestMessage();
         sseService.sendMessageToAllEmitters(request);
@@ -130,10 +136,10 @@ class SseServiceTest {
         Thread.sleep(300); // Give async execution time to complete
 
         // Verify that send was called on the failing emitter
-        verify(spyEmitter, atLeastOnce()).send(any(SseEmitter.SseEventBuilder.class));
+        verify(spyEmitter, atLeastOnce()).send(anySet());
 
         // Verify that the normal emitter still received the message despite the error
-        verify(normalEmitter, atLeastOnce()).send(any(SseEmitter.SseEventBuilder.class));
+        verify(normalEmitter, atLeastOnce()).send(anySet());
 
         // Verify the method completed without throwing exception
         assertDoesNotThrow(() -> sseService.sendMessageToAllEmitters(request));
@@ -150,4 +156,391 @@ class SseServiceTest {
 
         assertTrue(endTime - startTime < 100, "Method should return immediately without blocking");
     }
+
+    @SuppressWarnings("null")
+    @Test
+    void sendMessageToAllEmitters_withCoalescing_shouldCombineMessagesOfOneWindow() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SseService coalescingService = service(200, 50, registry);
+        coalescingService.start();
+        try {
+            coalescingService.createSseEmitter(PROJECT, true, null);
+            for (int i = 0; i < 5; i++) {
+                coalescingService.sendMessageToAllEmitters(new FcmMessageRequestMessage());
+            }
+            Thread.sleep(600);
+
+            // all five messages delivered, in one batch or two if the burst straddled a window
+            DistributionSummary batchSize =
+                    registry.get("simulator.sse.batch.size").summary();
+            assertEquals(5.0, batchSize.totalAmount());
+            assertTrue(batchSize.count() <= 2, "expected coalesced events but got " + batchSize.count());
+        } finally {
+            coalescingService.stop();
+        }
+    }
+
+    @SuppressWarnings("null")
+    @Test
+    void sendMessageToAllEmitters_withFullBatch_shouldFlushBeforeWindowEnds() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // window far longer than the test, only the batch limit can trigger a send
+        SseService coalescingService = service(60000, 3, registry);
+        coalescingService.start();
+        try {
+            coalescingService.createSseEmitter(PROJECT, true, null);
+            for (int i = 0; i < 6; i++) {
+                coalescingService.sendMessageToAllEmitters(new FcmMessageRequestMessage());
+            }
+            Thread.sleep(300);
+
+            assertEquals(2, registry.get("simulator.sse.batch.size").summary().count());
+            assertEquals(3.0, registry.get("simulator.sse.batch.size").summary().mean());
+        } finally {
+            coalescingService.stop();
+        }
+    }
+
+    @SuppressWarnings("null")
+    @Test
+    void sendMessageToAllEmitters_withRawJson_shouldWriteReceivedBytes() throws Exception {
+        SseService coalescingService = service(60000, 2, new SimpleMeterRegistry());
+        coalescingService.start();
+        try {
+            SseEmitter single = spy(new SseEmitter(Long.MAX_VALUE));
+            SseEmitter batched = spy(new SseEmitter(Long.MAX_VALUE));
+            coalescingService.register(single, PROJECT, false, null);
+            coalescingService.register(batched, PROJECT, true, null);
+            byte[] first = "{\"token\":\"a\",\"android\":{\"priority\":\"HIGH\"}}".getBytes(StandardCharsets.UTF_8);
+            byte[] second = "{\"token\":\"b\"}".getBytes(StandardCharsets.UTF_8);
+
+            coalescingService.sendMessageToAllEmitters(
+                    FcmMessageRequestMessage.builder().token("a").rawJson(first).build());
+            Thread.sleep(100);
+            coalescingService.sendMessageToAllEmitters(FcmMessageRequestMessage.builder()
+                    .token("b")
+                    .rawJson(second)
+                    .build());
+            Thread.sleep(300);
+
+            assertTrue(
+                    sentFrames(single)
+                            .contains(
+                                    "event:fcm-message\ndata:{\"token\":\"a\",\"android\":{\"priority\":\"HIGH\"}}\n\n"),
+                    "expected the received bytes");
+            assertTrue(
+                    sentFrames(batched)
+                            .contains("event:fcm-messages\ndata:"
+                                    + "[{\"token\":\"a\",\"android\":{\"priority\":\"HIGH\"}},{\"token\":\"b\"}]\n\n"),
+                    "expected the batch as a JSON array of the received bytes");
+        } finally {
+            coalescingService.stop();
+        }
+    }
+
+    @SuppressWarnings("null")
+    @Test
+    void sendMessageToAllEmitters_shouldKeepProjectsApart() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SseService projectService = new SseService(
+                20,
+                100,
+                100,
+                100,
+                100,
+                1,
+                3,
+                30000,
+                3600000,
+                System::currentTimeMillis,
+                new ObjectMapper(),
+                registry,
+                ObservationRegistry.NOOP);
+        projectService.start();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // a subscriber of project a that does not take messages, so its deliveries pile up
+            SseEmitter slow = spy(new SseEmitter(Long.MAX_VALUE));
+            doAnswer(invocation -> {
+                        if (frame(invocation.getArgument(0)).startsWith("event:fcm-message")) {
+                            release.await(5, TimeUnit.SECONDS);
+                        }
+                        return null;
+                    })
+                    .when(slow)
+                    .send(anySet());
+            SseEmitter other = spy(new SseEmitter(Long.MAX_VALUE));
+            projectService.register(slow, "env-a", false, null);
+            projectService.register(other, "env-b", false, null);
+
+            for (int i = 0; i < 3; i++) {
+                projectService.sendMessageToAllEmitters(FcmMessageRequestMessage.builder()
+                        .token("a-" + i)
+                        .project("env-a")
+                        .build());
+            }
+            projectService.sendMessageToAllEmitters(FcmMessageRequestMessage.builder()
+                    .token("b-0")
+                    .project("env-b")
+                    .build());
+            Thread.sleep(200);
+
+            assertEquals(
+                    List.of("event:fcm-message\ndata:{\"token\":\"b-0\",\"notification\":null,\"data\":null}\n\n"),
+                    messageFrames(other));
+            // one delivery blocked in the send, the others dropped
+            assertEquals(1, messageFrames(slow).size());
+            assertEquals(
+                    2.0,
+                    registry.get("simulator.sse.dispatch.dropped")
+                            .tag("project", "env-a")
+                            .counter()
+                            .count());
+            assertEquals(
+                    0.0,
+                    registry.get("simulator.sse.dispatch.dropped")
+                            .tag("project", "env-b")
+                            .counter()
+                            .count());
+            assertEquals(
+                    1.0,
+                    registry.get("simulator.sse.subscribers")
+                            .tag("project", "env-b")
+                            .gauge()
+                            .value());
+            // senders are asked to back off while the queue of their project is full
+            assertFalse(projectService.acceptsMessage("env-a"));
+            assertTrue(projectService.acceptsMessage("env-b"));
+            assertTrue(projectService.acceptsMessage("env-without-subscribers"));
+            assertEquals(
+                    1.0,
+                    registry.get("simulator.sse.dispatch.rejected")
+                            .tag("project", "env-a")
+                            .counter()
+                            .count());
+        } finally {
+            release.countDown();
+            projectService.stop();
+        }
+    }
+
+    @SuppressWarnings("null")
+    @Test
+    void sendMessageToAllEmitters_shouldShareOneEncodedFrame() throws Exception {
+        SseEmitter emitter1 = spy(new SseEmitter(Long.MAX_VALUE));
+        SseEmitter emitter2 = spy(new SseEmitter(Long.MAX_VALUE));
+        sseService.register(emitter1, PROJECT, false, null);
+        sseService.register(emitter2, PROJECT, false, null);
+
+        sseService.sendMessageToAllEmitters(FcmMessageRequestMessage.builder()
+                .token("device-1")
+                .data(FcmMessageData.builder().token("confirm-jwt").build())
+                .build());
+        Thread.sleep(200);
+
+        // a heartbeat may have been sent before the message
+        Object frame1 = messageData(emitter1);
+        assertSame(frame1, messageData(emitter2));
+        assertEquals(
+                "event:fcm-message\ndata:{\"token\":\"device-1\",\"notification\":null,\"data\":{\"token\":\"confirm-jwt\"}}\n\n",
+                new String((byte[]) frame1, StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> sentData(SseEmitter emitter) throws IOException {
+        ArgumentCaptor<Set<ResponseBodyEmitter.DataWithMediaType>> events = ArgumentCaptor.forClass(Set.class);
+        verify(emitter, atLeastOnce()).send(events.capture());
+        return events.getAllValues().stream()
+                .flatMap(Set::stream)
+                .map(ResponseBodyEmitter.DataWithMediaType::getData)
+                .toList();
+    }
+
+    private static Object messageData(SseEmitter emitter) throws IOException {
+        return sentData(emitter).stream()
+                .filter(data -> new String((byte[]) data, StandardCharsets.UTF_8).startsWith("event:fcm-message"))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static List<String> sentFrames(SseEmitter emitter) throws IOException {
+        return sentData(emitter).stream()
+                .map(data -> new String((byte[]) data, StandardCharsets.UTF_8))
+                .toList();
+    }
+
+    private static List<String> messageFrames(SseEmitter emitter) throws IOException {
+        return sentFrames(emitter).stream()
+                .filter(frame -> frame.startsWith("event:fcm-message"))
+                .toList();
+    }
+
+    private static String frame(Set<ResponseBodyEmitter.DataWithMediaType> event) {
+        return new String((byte[]) event.iterator().next().getData(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void createSseEmitter_beyondCaps_shouldBeRejected() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicLong clock = new AtomicLong();
+        SseService cappedService = new SseService(
+                20,
+                100,
+                3,
+                2,
+                3,
+                1000,
+                3,
+                30000,
+                3600000,
+                clock::get,
+                new ObjectMapper(),
+                registry,
+                ObservationRegistry.NOOP);
+        // not started: a heartbeat sent between advancing the clock and the sweep would keep the emitters
+        try {
+            cappedService.register(new SseEmitter(), PROJECT, false, "10.0.0.1");
+            cappedService.register(new SseEmitter(), PROJECT, false, "10.0.0.1");
+            assertThrows(
+                    OverloadedException.class,
+                    () -> cappedService.register(new SseEmitter(), PROJECT, false, "10.0.0.1"));
+            cappedService.register(new SseEmitter(), PROJECT, true, "10.0.0.2");
+            assertThrows(
+                    OverloadedException.class,
+                    () -> cappedService.register(new SseEmitter(), PROJECT, false, "10.0.0.3"));
+
+            assertEquals(
+                    1.0,
+                    registry.get("simulator.sse.rejected")
+                            .tag("reason", "per-client")
+                            .counter()
+                            .count());
+            assertEquals(
+                    1.0,
+                    registry.get("simulator.sse.rejected")
+                            .tag("reason", "total")
+                            .counter()
+                            .count());
+
+            // evicted emitters free their slots
+            clock.addAndGet(30001);
+            cappedService.sweep();
+            assertEquals(0.0, registry.get("simulator.sse.emitters").gauge().value());
+            assertNotNull(cappedService.register(new SseEmitter(), PROJECT, false, "10.0.0.1"));
+        } finally {
+            cappedService.stop();
+        }
+    }
+
+    @SuppressWarnings("null")
+    @Test
+    void sendMessageToAllEmitters_withRepeatedFailures_shouldEvictEmitter() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SseService evictingService = new SseService(
+                20,
+                100,
+                100,
+                100,
+                100,
+                1000,
+                3,
+                30000,
+                3600000,
+                System::currentTimeMillis,
+                new ObjectMapper(),
+                registry,
+                ObservationRegistry.NOOP);
+        evictingService.start();
+        try {
+            SseEmitter broken = spy(new SseEmitter(Long.MAX_VALUE));
+            doThrow(new IOException("Broken pipe")).when(broken).send(anySet());
+            evictingService.register(broken, PROJECT, false, "10.0.0.1");
+            SseEmitter healthy = evictingService.createSseEmitter(PROJECT, false, "10.0.0.1");
+
+            for (int i = 0; i < 3; i++) {
+                evictingService.sendMessageToAllEmitters(new FcmMessageRequestMessage());
+            }
+            Thread.sleep(300);
+
+            assertEquals(
+                    1.0,
+                    registry.get("simulator.sse.evictions")
+                            .tag("reason", "send-failures")
+                            .counter()
+                            .count());
+            assertEquals(
+                    1,
+                    registry.get("simulator.sse.emitter.lifetime")
+                            .tag("reason", "send-failures")
+                            .timer()
+                            .count());
+            assertEquals(1.0, registry.get("simulator.sse.emitters").gauge().value());
+            assertNotNull(healthy);
+        } finally {
+            evictingService.stop();
+        }
+    }
+
+    @SuppressWarnings("null")
+    @Test
+    void sweep_shouldEvictOnlyEmittersWithoutRecentSuccessfulSend() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicLong clock = new AtomicLong();
+        // failures never reach the threshold, only the sweep can find the broken emitter
+        SseService sweepingService = new SseService(
+                20,
+                100,
+                100,
+                100,
+                100,
+                1000,
+                1000,
+                30000,
+                3600000,
+                clock::get,
+                new ObjectMapper(),
+                registry,
+                ObservationRegistry.NOOP);
+        sweepingService.start();
+        try {
+            SseEmitter broken = spy(new SseEmitter(Long.MAX_VALUE));
+            doThrow(new IOException("Broken pipe")).when(broken).send(anySet());
+            sweepingService.register(broken, PROJECT, false, null);
+            sweepingService.createSseEmitter(PROJECT, false, null);
+
+            clock.addAndGet(20000);
+            sweepingService.sendMessageToAllEmitters(new FcmMessageRequestMessage());
+            Thread.sleep(300);
+            clock.addAndGet(15000);
+            sweepingService.sweep();
+
+            assertEquals(
+                    1.0,
+                    registry.get("simulator.sse.evictions")
+                            .tag("reason", "stale")
+                            .counter()
+                            .count());
+            assertEquals(1.0, registry.get("simulator.sse.emitters").gauge().value());
+        } finally {
+            sweepingService.stop();
+        }
+    }
+
+    // the defaults of application.yaml with the given coalescing
+    private static SseService service(long coalescingWindowMs, int maxBatch, MeterRegistry registry) {
+        return new SseService(
+                coalescingWindowMs,
+                maxBatch,
+                10000,
+                500,
+                5000,
+                1000,
+                3,
+                30000,
+                10000,
+                System::currentTimeMillis,
+                new ObjectMapper(),
+                registry,
+                ObservationRegistry.NOOP);
+    }
 }
@@ -0,0 +1,161 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+import de.arbeitsagentur.pushmfasim.config.ProxyConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TokenVerifierTest {
+
+    private static RSAKey realmKey;
+    private static RSAKey rotatedKey;
+
+    private final AtomicInteger jwksFetches = new AtomicInteger();
+    private final AtomicReference<JWKSet> served = new AtomicReference<>();
+    private HttpServer server;
+    private MutableClock clock;
+    private RealmRegistry realms;
+    private RealmRegistry.Realm realm;
+    private TokenVerifier verifier;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        realmKey = new RSAKeyGenerator(2048).keyID("realm-key").generate();
+        rotatedKey = new RSAKeyGenerator(2048).keyID("rotated-key").generate();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        served.set(new JWKSet(realmKey.toPublicJWK()));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/realms/demo/protocol/openid-connect/certs", exchange -> {
+            jwksFetches.incrementAndGet();
+            byte[] body = served.get().toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        clock = new MutableClock();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        realms = new RealmRegistry(false, 8, 4, 10000, true, new ProxyConfig(), clock, meterRegistry);
+        realm = realms.realm("http://localhost:" + server.getAddress().getPort() + "/realms/demo");
+        verifier = new TokenVerifier(true, 300, 10, 30, realms, clock, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        realms.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    void verify_shouldAcceptValidTokensWithOneJwksFetch() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            verifier.verify(realm, token(realmKey, clock.instant().plusSeconds(60)));
+        }
+
+        assertEquals(1, jwksFetches.get());
+    }
+
+    @Test
+    void verify_shouldRejectExpiredAndForgedTokens() throws Exception {
+        InvalidTokenException expired = assertThrows(
+                InvalidTokenException.class,
+                () -> verifier.verify(realm, token(realmKey, clock.instant().minusSeconds(31))));
+        assertEquals("token expired", expired.getMessage());
+
+        RSAKey forged = new RSAKeyGenerator(2048).keyID("realm-key").generate();
+        InvalidTokenException badSignature = assertThrows(
+                InvalidTokenException.class,
+                () -> verifier.verify(realm, token(forged, clock.instant().plusSeconds(60))));
+        assertEquals("signature does not match", badSignature.getMessage());
+
+        assertThrows(
+                InvalidTokenException.class,
+                () -> verifier.verify(realm, new PlainJWT(new JWTClaimsSet.Builder().build())));
+    }
+
+    @Test
+    void verify_withUnknownKeyId_shouldRefetchAtMostOncePerInterval() throws Exception {
+        verifier.verify(realm, token(realmKey, clock.instant().plusSeconds(60)));
+        served.set(new JWKSet(rotatedKey.toPublicJWK()));
+        clock.advance(Duration.ofSeconds(5));
+
+        assertThrows(
+                InvalidTokenException.class,
+                () -> verifier.verify(realm, token(rotatedKey, clock.instant().plusSeconds(60))));
+        assertEquals(1, jwksFetches.get());
+
+        clock.advance(Duration.ofSeconds(5));
+        verifier.verify(realm, token(rotatedKey, clock.instant().plusSeconds(60)));
+        assertEquals(2, jwksFetches.get());
+    }
+
+    @Test
+    void verify_whenDisabled_shouldAcceptAnything() throws Exception {
+        TokenVerifier disabled = new TokenVerifier(false, 300, 10, 30, realms, clock, new SimpleMeterRegistry());
+
+        disabled.verify(realm, new PlainJWT(new JWTClaimsSet.Builder().build()));
+
+        assertEquals(0, jwksFetches.get());
+    }
+
+    private static SignedJWT token(RSAKey key, Instant expiration) throws Exception {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("user")
+                        .expirationTime(Date.from(expiration))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.now();
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
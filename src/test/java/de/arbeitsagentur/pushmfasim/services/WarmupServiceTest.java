@@ -0,0 +1,73 @@
+package de.arbeitsagentur.pushmfasim.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import de.arbeitsagentur.pushmfasim.config.ProxyConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+
+class WarmupServiceTest {
+
+    private RealmRegistry realms;
+
+    @BeforeEach
+    void setUp() {
+        realms = new RealmRegistry(false, 8, 2, 10000, true, new ProxyConfig(), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        realms.destroy();
+    }
+
+    @Test
+    void health_shouldBeOutOfServiceUntilWarmupHasRun() {
+        WarmupService warmup = warmup(true, List.of("http://localhost:1/realms/warm-up"));
+        WarmupHealthIndicator indicator = new WarmupHealthIndicator(warmup);
+
+        assertEquals(Status.OUT_OF_SERVICE, indicator.health().getStatus());
+
+        warmup.run(-1);
+
+        assertTrue(warmup.isComplete());
+        assertEquals(Status.UP, indicator.health().getStatus());
+        assertEquals("done", warmup.phase());
+    }
+
+    @Test
+    void run_withoutConfiguredRealms_shouldPreconnectDefaultRealms() {
+        WarmupService warmup = warmup(true, List.of());
+
+        warmup.run(-1);
+
+        assertEquals(1, realms.size());
+        assertNotNull(realms.requestFactory(URI.create("http://localhost:1/realms/demo/protocol")));
+    }
+
+    @Test
+    void health_whenDisabled_shouldBeUpRightAway() {
+        WarmupService warmup = warmup(false, List.of());
+
+        assertTrue(warmup.isComplete());
+        assertEquals(Status.UP, new WarmupHealthIndicator(warmup).health().getStatus());
+        assertEquals(0, realms.size());
+    }
+
+    private WarmupService warmup(boolean enabled, List<String> realmUrls) {
+        return new WarmupService(
+                enabled,
+                5,
+                realmUrls,
+                2,
+                60,
+                "http://localhost:1/realms/demo",
+                "http://localhost:1/realms/demo/push-mfa/enroll/complete",
+                "/mock",
+                realms);
+    }
+}